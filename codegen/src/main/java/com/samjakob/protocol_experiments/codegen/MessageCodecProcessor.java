@@ -0,0 +1,410 @@
+package com.samjakob.protocol_experiments.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a MessageCodec for every record annotated with @Message.
+ *
+ * The generated codec is a final class with a single INSTANCE, which reads
+ * and writes each component of the record in turn with a direct call to
+ * VarLengthNumbers (or CodecSupport) - i.e., exactly what would otherwise be
+ * written by hand. The fixed-size parts of the encoded size are added up
+ * here, so measure only has to add the sizes of the variable-length
+ * components at runtime, and for records with no variable-length components,
+ * the size is a constant.
+ *
+ * The annotations are referred to by name, so this processor doesn't depend
+ * on the main project.
+ */
+@SupportedAnnotationTypes(MessageCodecProcessor.MESSAGE)
+public class MessageCodecProcessor extends AbstractProcessor {
+
+    private static final String CODEC_PACKAGE = "com.samjakob.protocol_experiments.codec";
+
+    static final String MESSAGE = CODEC_PACKAGE + ".Message";
+
+    private static final String FIXED = CODEC_PACKAGE + ".Fixed";
+
+    private static final String ZIGZAG = CODEC_PACKAGE + ".ZigZag";
+
+    private static final String VAR_LENGTH_NUMBERS = "com.samjakob.protocol_experiments.data.VarLengthNumbers";
+
+    private static final String CODEC_SUPPORT = CODEC_PACKAGE + ".CodecSupport";
+
+    /**
+     * The ways in which a record component can be written. Each knows its
+     * size (if it's fixed) and how to measure, write and read a value.
+     */
+    enum Encoding {
+        BOOLEAN(1),
+        BYTE(1),
+        SHORT(2),
+        CHAR(2),
+        FLOAT(4),
+        DOUBLE(8),
+        FIXED_INT(4),
+        FIXED_LONG(8),
+        VAR_INT(-1),
+        VAR_LONG(-1),
+        S_VAR_INT(-1),
+        S_VAR_LONG(-1),
+        STRING(-1),
+        BYTES(-1),
+        ENUM(-1),
+        MESSAGE(-1);
+
+        /**
+         * The encoded size in bytes, or -1 if it depends on the value.
+         */
+        final int fixedSize;
+
+        Encoding(int fixedSize) {
+            this.fixedSize = fixedSize;
+        }
+    }
+
+    /**
+     * A record component and how it's written.
+     *
+     * @param name The name of the component (and its accessor).
+     * @param encoding How the component is written.
+     * @param type The canonical name of the component's type.
+     * @param codec For MESSAGE components, the canonical name of the
+     *              component type's codec.
+     */
+    record Component(String name, Encoding encoding, String type, String codec) {}
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.RECORD) {
+                    error(element, "@Message can only be used on records");
+                    continue;
+                }
+
+                generate((TypeElement) element);
+            }
+        }
+
+        return true;
+    }
+
+    private void generate(TypeElement record) {
+        if (!record.getTypeParameters().isEmpty()) {
+            error(record, "@Message records cannot have type parameters");
+            return;
+        }
+
+        for (Element element = record; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                error(record, "@Message records (and any classes they are nested in) cannot be private");
+                return;
+            }
+        }
+
+        List<Component> components = new ArrayList<>();
+        for (RecordComponentElement element : record.getRecordComponents()) {
+            Component component = component(element);
+            if (component == null) return;
+            components.add(component);
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+        String codecName = codecName(record);
+        String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, record).openWriter())) {
+            writeCodec(out, packageName, codecName, record.getQualifiedName().toString(), components);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Works out how element should be written.
+     * @return The component, or null (having reported an error) if it isn't
+     * supported.
+     */
+    private Component component(RecordComponentElement element) {
+        String name = element.getSimpleName().toString();
+        TypeMirror type = element.asType();
+        boolean fixed = hasAnnotation(element, FIXED);
+        boolean zigZag = hasAnnotation(element, ZIGZAG);
+
+        if (fixed && zigZag) {
+            error(element, "A component cannot be both @Fixed and @ZigZag");
+            return null;
+        }
+
+        if ((fixed || zigZag) && type.getKind() != TypeKind.INT && type.getKind() != TypeKind.LONG) {
+            error(element, "@Fixed and @ZigZag can only be used on int and long components");
+            return null;
+        }
+
+        Encoding encoding = null;
+        String codec = null;
+
+        switch (type.getKind()) {
+            case BOOLEAN: encoding = Encoding.BOOLEAN; break;
+            case BYTE: encoding = Encoding.BYTE; break;
+            case SHORT: encoding = Encoding.SHORT; break;
+            case CHAR: encoding = Encoding.CHAR; break;
+            case FLOAT: encoding = Encoding.FLOAT; break;
+            case DOUBLE: encoding = Encoding.DOUBLE; break;
+            case INT: encoding = fixed ? Encoding.FIXED_INT : zigZag ? Encoding.S_VAR_INT : Encoding.VAR_INT; break;
+            case LONG: encoding = fixed ? Encoding.FIXED_LONG : zigZag ? Encoding.S_VAR_LONG : Encoding.VAR_LONG; break;
+            case ARRAY:
+                if (((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) encoding = Encoding.BYTES;
+                break;
+            case DECLARED:
+                TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+                if (typeElement.getQualifiedName().contentEquals("java.lang.String")) {
+                    encoding = Encoding.STRING;
+                } else if (typeElement.getKind() == ElementKind.ENUM) {
+                    encoding = Encoding.ENUM;
+                } else if (typeElement.getKind() == ElementKind.RECORD && hasAnnotation(typeElement, MESSAGE)) {
+                    encoding = Encoding.MESSAGE;
+                    String packageName = processingEnv.getElementUtils().getPackageOf(typeElement).getQualifiedName().toString();
+                    codec = packageName.isEmpty() ? codecName(typeElement) : packageName + "." + codecName(typeElement);
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (encoding == null) {
+            error(element, "Unsupported component type " + type + " - see @Message for the supported types");
+            return null;
+        }
+
+        // Erase any type arguments/annotations that toString might include.
+        String typeName = type.getKind() == TypeKind.DECLARED
+            ? ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString()
+            : processingEnv.getTypeUtils().erasure(type).toString();
+
+        return new Component(name, encoding, typeName, codec);
+    }
+
+    private static void writeCodec(PrintWriter out, String packageName, String codecName, String recordName, List<Component> components) {
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+
+        out.println("import " + CODEC_SUPPORT + ";");
+        out.println("import " + VAR_LENGTH_NUMBERS + ";");
+        out.println();
+        out.println("/**");
+        out.println(" * The MessageCodec for " + recordName + ".");
+        out.println(" */");
+        out.println("@javax.annotation.processing.Generated(\"" + MessageCodecProcessor.class.getName() + "\")");
+        out.println("public final class " + codecName + " implements " + CODEC_PACKAGE + ".MessageCodec<" + recordName + "> {");
+        out.println();
+
+        int fixedSize = 0;
+        List<String> variableSizes = new ArrayList<>();
+        for (int i = 0; i < components.size(); i++) {
+            Component component = components.get(i);
+            if (component.encoding().fixedSize >= 0) fixedSize += component.encoding().fixedSize;
+            else variableSizes.add(measure(component));
+
+            if (component.encoding() == Encoding.ENUM) {
+                out.println("    private static final " + component.type() + "[] VALUES_" + i + " = " + component.type() + ".values();");
+                out.println();
+            }
+        }
+
+        out.println("    public static final " + codecName + " INSTANCE = new " + codecName + "();");
+        out.println();
+
+        out.println("    /**");
+        out.println("     * The layout of the encoded message, for use with MessageView.");
+        out.println("     */");
+        out.println("    public static final " + CODEC_PACKAGE + ".MessageLayout LAYOUT = new " + CODEC_PACKAGE + ".MessageLayout.Builder()");
+        for (Component component : components) out.println("        " + layout(component));
+        out.println("        .build();");
+        out.println();
+
+        if (variableSizes.isEmpty()) {
+            out.println("    /**");
+            out.println("     * Every message of this type is encoded in exactly this many bytes.");
+            out.println("     */");
+            out.println("    public static final int SIZE = " + fixedSize + ";");
+            out.println();
+        }
+
+        out.println("    private " + codecName + "() {}");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public int measure(" + recordName + " message) {");
+        if (variableSizes.isEmpty()) {
+            out.println("        return SIZE;");
+        } else {
+            if (fixedSize > 0) variableSizes.add(0, Integer.toString(fixedSize));
+            out.println("        return " + String.join("\n            + ", variableSizes) + ";");
+        }
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public int encode(" + recordName + " message, byte[] destination, int offset) {");
+        for (Component component : components) out.println("        " + encode(component));
+        out.println("        return offset;");
+        out.println("    }");
+        out.println();
+
+        // The arguments of a constructor call are evaluated from left to
+        // right, so the components can be read straight into it.
+        out.println("    @Override");
+        out.println("    public " + recordName + " decode(java.nio.ByteBuffer source) {");
+        out.println("        return new " + recordName + "(");
+        for (int i = 0; i < components.size(); i++) {
+            out.println("            " + decode(components.get(i), i) + (i < components.size() - 1 ? "," : ""));
+        }
+        out.println("        );");
+        out.println("    }");
+        out.println();
+        out.println("}");
+    }
+
+    /**
+     * An expression for the encoded size of a variable-length component.
+     */
+    private static String measure(Component component) {
+        String value = "message." + component.name() + "()";
+
+        switch (component.encoding()) {
+            case VAR_INT: return "VarLengthNumbers.varIntSize(" + value + ")";
+            case VAR_LONG: return "VarLengthNumbers.varLongSize(" + value + ")";
+            case S_VAR_INT: return "VarLengthNumbers.sVarIntSize(" + value + ")";
+            case S_VAR_LONG: return "VarLengthNumbers.sVarLongSize(" + value + ")";
+            case STRING: return "CodecSupport.stringSize(" + value + ")";
+            case BYTES: return "CodecSupport.bytesSize(" + value + ")";
+            case ENUM: return "VarLengthNumbers.varIntSize(" + value + ".ordinal())";
+            case MESSAGE: return component.codec() + ".INSTANCE.measure(" + value + ")";
+            default: throw new IllegalArgumentException("Not variable-length: " + component.encoding());
+        }
+    }
+
+    /**
+     * A call to MessageLayout.Builder that adds a component to the layout.
+     */
+    private static String layout(Component component) {
+        String name = "\"" + component.name() + "\"";
+        int fixedSize = component.encoding().fixedSize;
+        if (fixedSize >= 0) return ".fixed(" + name + ", " + fixedSize + ")";
+
+        switch (component.encoding()) {
+            case STRING:
+            case BYTES:
+                return ".lengthPrefixed(" + name + ")";
+            case MESSAGE:
+                return ".message(" + name + ", " + component.codec() + ".LAYOUT)";
+            default:
+                return ".varInt(" + name + ")";
+        }
+    }
+
+    /**
+     * A statement that writes a component and updates offset.
+     */
+    private static String encode(Component component) {
+        String value = "message." + component.name() + "()";
+
+        switch (component.encoding()) {
+            case BOOLEAN: return "destination[offset++] = (byte) (" + value + " ? 1 : 0);";
+            case BYTE: return "destination[offset++] = " + value + ";";
+            case SHORT: return "offset = CodecSupport.writeShort(destination, offset, " + value + ");";
+            case CHAR: return "offset = CodecSupport.writeShort(destination, offset, (short) " + value + ");";
+            case FLOAT: return "offset = CodecSupport.writeInt(destination, offset, Float.floatToRawIntBits(" + value + "));";
+            case DOUBLE: return "offset = CodecSupport.writeLong(destination, offset, Double.doubleToRawLongBits(" + value + "));";
+            case FIXED_INT: return "offset = CodecSupport.writeInt(destination, offset, " + value + ");";
+            case FIXED_LONG: return "offset = CodecSupport.writeLong(destination, offset, " + value + ");";
+            case VAR_INT: return "offset = VarLengthNumbers.writeVarInt(destination, offset, " + value + ");";
+            case VAR_LONG: return "offset = VarLengthNumbers.writeVarLong(destination, offset, " + value + ");";
+            case S_VAR_INT: return "offset = VarLengthNumbers.writeSVarInt(destination, offset, " + value + ");";
+            case S_VAR_LONG: return "offset = VarLengthNumbers.writeSVarLong(destination, offset, " + value + ");";
+            case STRING: return "offset = CodecSupport.writeString(destination, offset, " + value + ");";
+            case BYTES: return "offset = CodecSupport.writeBytes(destination, offset, " + value + ");";
+            case ENUM: return "offset = VarLengthNumbers.writeVarInt(destination, offset, " + value + ".ordinal());";
+            case MESSAGE: return "offset = " + component.codec() + ".INSTANCE.encode(" + value + ", destination, offset);";
+            default: throw new IllegalArgumentException("Unknown encoding: " + component.encoding());
+        }
+    }
+
+    /**
+     * An expression that reads a component from source.
+     */
+    private static String decode(Component component, int index) {
+        switch (component.encoding()) {
+            case BOOLEAN: return "source.get() != 0";
+            case BYTE: return "source.get()";
+            case SHORT: return "CodecSupport.readShort(source)";
+            case CHAR: return "(char) CodecSupport.readShort(source)";
+            case FLOAT: return "Float.intBitsToFloat(CodecSupport.readInt(source))";
+            case DOUBLE: return "Double.longBitsToDouble(CodecSupport.readLong(source))";
+            case FIXED_INT: return "CodecSupport.readInt(source)";
+            case FIXED_LONG: return "CodecSupport.readLong(source)";
+            case VAR_INT: return "VarLengthNumbers.readVarInt(source)";
+            case VAR_LONG: return "VarLengthNumbers.readVarLong(source)";
+            case S_VAR_INT: return "VarLengthNumbers.readSVarInt(source)";
+            case S_VAR_LONG: return "VarLengthNumbers.readSVarLong(source)";
+            case STRING: return "CodecSupport.readString(source)";
+            case BYTES: return "CodecSupport.readBytes(source)";
+            case ENUM: return "CodecSupport.readEnum(source, VALUES_" + index + ", \"" + component.name() + "\")";
+            case MESSAGE: return component.codec() + ".INSTANCE.decode(source)";
+            default: throw new IllegalArgumentException("Unknown encoding: " + component.encoding());
+        }
+    }
+
+    /**
+     * The simple name of the codec for type, e.g., MoveCodec for Move, or
+     * Outer_MoveCodec for Outer.Move.
+     */
+    private static String codecName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName()).append("Codec");
+        for (Element outer = type.getEnclosingElement(); outer instanceof TypeElement; outer = outer.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, outer.getSimpleName());
+        }
+        return name.toString();
+    }
+
+    private static boolean hasAnnotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) return true;
+        }
+        return false;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+}
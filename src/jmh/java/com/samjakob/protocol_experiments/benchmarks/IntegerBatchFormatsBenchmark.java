@@ -0,0 +1,131 @@
+package com.samjakob.protocol_experiments.benchmarks;
+
+import com.samjakob.protocol_experiments.data.GroupVarInt;
+import com.samjakob.protocol_experiments.data.StreamVByte;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * Compares the batch formats for ints - consecutive VarInts (read one at a
+ * time and with the bulk codec), GroupVarInt and StreamVByte - on the same
+ * batches of values.
+ *
+ * As in VarLengthNumbersBenchmark, each invocation processes BATCH_SIZE
+ * values, so the scores are per value, and the 'bytes' counter reports the
+ * encoded bytes processed (which differs between the formats).
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntegerBatchFormatsBenchmark {
+
+    public static final int BATCH_SIZE = VarLengthNumbersBenchmark.BATCH_SIZE;
+
+    @Param({ "ONE_BYTE", "UNIFORM_LENGTH", "NEGATIVE", "SKEWED" })
+    public ValueDistribution distribution;
+
+    private int[] ints;
+
+    private byte[] varInts;
+
+    private byte[] groupVarInts;
+
+    private byte[] streamVBytes;
+
+    private byte[] array;
+
+    private int[] decoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ints = distribution.ints(BATCH_SIZE);
+
+        array = new byte[BATCH_SIZE * 5];
+        varInts = Arrays.copyOf(array, encodeVarInts(ints, array, 0, BATCH_SIZE));
+        groupVarInts = Arrays.copyOf(array, GroupVarInt.encode(ints, array, 0, BATCH_SIZE));
+        streamVBytes = Arrays.copyOf(array, StreamVByte.encode(ints, array, 0, BATCH_SIZE));
+
+        decoded = new int[BATCH_SIZE];
+    }
+
+    // ---- Encoding ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int encodeVarIntsBulk(VarLengthNumbersBenchmark.Bytes bytes) {
+        int position = encodeVarInts(ints, array, 0, BATCH_SIZE);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int encodeGroupVarInt(VarLengthNumbersBenchmark.Bytes bytes) {
+        int position = GroupVarInt.encode(ints, array, 0, BATCH_SIZE);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int encodeStreamVByte(VarLengthNumbersBenchmark.Bytes bytes) {
+        int position = StreamVByte.encode(ints, array, 0, BATCH_SIZE);
+        bytes.bytes += position;
+        return position;
+    }
+
+    // ---- Decoding ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] readVarIntLoop(VarLengthNumbersBenchmark.Bytes bytes) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            decoded[i] = readVarInt(varInts, position);
+            position = skipVarInt(varInts, position);
+        }
+        bytes.bytes += position;
+        return decoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] decodeVarIntsBulk(VarLengthNumbersBenchmark.Bytes bytes) {
+        bytes.bytes += decodeVarInts(varInts, 0, decoded, BATCH_SIZE);
+        return decoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] decodeGroupVarInt(VarLengthNumbersBenchmark.Bytes bytes) {
+        bytes.bytes += GroupVarInt.decode(groupVarInts, 0, decoded, BATCH_SIZE);
+        return decoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] decodeStreamVByte(VarLengthNumbersBenchmark.Bytes bytes) {
+        bytes.bytes += StreamVByte.decode(streamVBytes, 0, decoded, BATCH_SIZE);
+        return decoded;
+    }
+
+}
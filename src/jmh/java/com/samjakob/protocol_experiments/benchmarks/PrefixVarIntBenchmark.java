@@ -0,0 +1,238 @@
+package com.samjakob.protocol_experiments.benchmarks;
+
+import com.samjakob.protocol_experiments.data.PrefixVarInt;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares PrefixVarInt with VarLengthNumbers (LEB128) for the same values,
+ * reading and writing one value at a time through a byte[] and through heap
+ * and direct ByteBuffers.
+ *
+ * Reading sequentially from a byte[] needs the length of each value: for
+ * VarInts that's skipVarInt (another scan of the continuation bits), for
+ * PrefixVarInt it's encodedLength of the first byte.
+ *
+ * As in VarLengthNumbersBenchmark, each invocation processes BATCH_SIZE
+ * values, so the scores are per value, and the 'bytes' counter is the rate
+ * of encoded bytes.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrefixVarIntBenchmark {
+
+    public static final int BATCH_SIZE = 1024;
+
+    @Param({ "ONE_BYTE", "UNIFORM_LENGTH", "NEGATIVE", "SKEWED" })
+    public ValueDistribution distribution;
+
+    private int[] ints;
+
+    private long[] longs;
+
+    /**
+     * The ints and longs encoded in each format.
+     */
+    private byte[] varInts;
+
+    private byte[] varLongs;
+
+    private byte[] prefixInts;
+
+    private byte[] prefixLongs;
+
+    private byte[] array;
+
+    private ByteBuffer directBuffer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ints = distribution.ints(BATCH_SIZE);
+        longs = distribution.longs(BATCH_SIZE);
+        array = new byte[BATCH_SIZE * 10];
+        directBuffer = ByteBuffer.allocateDirect(BATCH_SIZE * 10);
+
+        int position = 0;
+        for (int value : ints) position = VarLengthNumbers.writeVarInt(array, position, value);
+        varInts = Arrays.copyOf(array, position);
+
+        position = 0;
+        for (long value : longs) position = VarLengthNumbers.writeVarLong(array, position, value);
+        varLongs = Arrays.copyOf(array, position);
+
+        position = 0;
+        for (int value : ints) position = PrefixVarInt.writeVarInt(array, position, value);
+        prefixInts = Arrays.copyOf(array, position);
+
+        position = 0;
+        for (long value : longs) position = PrefixVarInt.writeVarLong(array, position, value);
+        prefixLongs = Arrays.copyOf(array, position);
+    }
+
+    // ---- Writing ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntArray(Bytes bytes) {
+        int position = 0;
+        for (int value : ints) position = VarLengthNumbers.writeVarInt(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writePrefixIntArray(Bytes bytes) {
+        int position = 0;
+        for (int value : ints) position = PrefixVarInt.writeVarInt(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongArray(Bytes bytes) {
+        int position = 0;
+        for (long value : longs) position = VarLengthNumbers.writeVarLong(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writePrefixLongArray(Bytes bytes) {
+        int position = 0;
+        for (long value : longs) position = PrefixVarInt.writeVarLong(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    // ---- Reading ints ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(VarLengthNumbers.readVarInt(varInts, position));
+            position = VarLengthNumbers.skipVarInt(varInts, position);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readPrefixIntArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(PrefixVarInt.readVarInt(prefixInts, position));
+            position += PrefixVarInt.encodedLength(prefixInts[position]);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        var buffer = ByteBuffer.wrap(varInts);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(VarLengthNumbers.readVarInt(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readPrefixIntHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        var buffer = ByteBuffer.wrap(prefixInts);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(PrefixVarInt.readVarInt(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntDirectBuffer(Bytes bytes, Blackhole blackhole) {
+        directBuffer.clear();
+        directBuffer.put(varInts).flip();
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(VarLengthNumbers.readVarInt(directBuffer));
+        bytes.bytes += directBuffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readPrefixIntDirectBuffer(Bytes bytes, Blackhole blackhole) {
+        directBuffer.clear();
+        directBuffer.put(prefixInts).flip();
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(PrefixVarInt.readVarInt(directBuffer));
+        bytes.bytes += directBuffer.position();
+    }
+
+    // ---- Reading longs ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(VarLengthNumbers.readVarLong(varLongs, position));
+            position = VarLengthNumbers.skipVarLong(varLongs, position);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readPrefixLongArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(PrefixVarInt.readVarLong(prefixLongs, position));
+            position += PrefixVarInt.encodedLength(prefixLongs[position]);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        var buffer = ByteBuffer.wrap(varLongs);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(VarLengthNumbers.readVarLong(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readPrefixLongHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        var buffer = ByteBuffer.wrap(prefixLongs);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(PrefixVarInt.readVarLong(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+}
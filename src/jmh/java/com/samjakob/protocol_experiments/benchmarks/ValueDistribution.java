@@ -0,0 +1,98 @@
+package com.samjakob.protocol_experiments.benchmarks;
+
+import java.util.Random;
+
+/**
+ * The distributions of values that the benchmarks are run with. The encoded
+ * length of a value is what matters most for VarInts, so these are defined in
+ * terms of how many bytes each value takes up.
+ */
+public enum ValueDistribution {
+
+    /**
+     * Every value fits in a single byte (0 to 127).
+     */
+    ONE_BYTE,
+
+    /**
+     * The encoded length is picked uniformly, i.e., 1 to 5 bytes for a VarInt
+     * or 1 to 10 bytes for a VarLong, with equal probability.
+     */
+    UNIFORM_LENGTH,
+
+    /**
+     * Every value is negative, so always takes the maximum length.
+     */
+    NEGATIVE,
+
+    /**
+     * Mostly small values with a long tail, which is closer to real traffic
+     * (lengths, IDs, counts): roughly 60% take 1 byte, 25% take 2, 10% take 3
+     * and the rest are spread over the remaining lengths.
+     */
+    SKEWED;
+
+    /**
+     * The seed used for every distribution, so that runs are comparable.
+     */
+    private static final long SEED = 6969;
+
+    /**
+     * Generates count values that will each be encoded as a VarInt.
+     * @param count The number of values to generate.
+     * @return The values.
+     */
+    public int[] ints(int count) {
+        Random random = new Random(SEED);
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) values[i] = (int) next(random, 5);
+        return values;
+    }
+
+    /**
+     * Generates count values that will each be encoded as a VarLong.
+     * @param count The number of values to generate.
+     * @return The values.
+     */
+    public long[] longs(int count) {
+        Random random = new Random(SEED);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) values[i] = next(random, 10);
+        return values;
+    }
+
+    private long next(Random random, int maxLength) {
+        switch (this) {
+            case ONE_BYTE:
+                return random.nextInt(128);
+            case UNIFORM_LENGTH:
+                return withLength(random, 1 + random.nextInt(maxLength), maxLength);
+            case NEGATIVE:
+                return withLength(random, maxLength, maxLength);
+            case SKEWED:
+                int roll = random.nextInt(100);
+                if (roll < 60) return withLength(random, 1, maxLength);
+                if (roll < 85) return withLength(random, 2, maxLength);
+                if (roll < 95) return withLength(random, 3, maxLength);
+                return withLength(random, 4 + random.nextInt(maxLength - 3), maxLength);
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    /**
+     * Generates a random value that takes exactly length bytes to encode.
+     */
+    private static long withLength(Random random, int length, int maxLength) {
+        // The maximum length is only reached by negative values (for a VarInt
+        // or a VarLong alike). These are kept within the range of an int, so
+        // that they stay negative when cast to one.
+        if (length == maxLength) return -1 - (random.nextLong() >>> 33);
+
+        // Otherwise, set the highest bit of the last 7-bit group, plus any
+        // of the bits below it.
+        long highBit = 1L << (7 * length - 1);
+        return highBit | (random.nextLong() & (highBit - 1));
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.samjakob.protocol_experiments.benchmarks;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSource;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * Benchmarks encoding and decoding batches of VarInts and VarLongs, through
+ * each of the available paths (lambda, ByteSink/ByteSource as interfaces,
+ * byte[], heap and direct ByteBuffers, and the bulk array codec).
+ *
+ * Each invocation processes BATCH_SIZE values, so the scores are per value:
+ * in throughput mode, ops/ns is values per nanosecond, and the 'bytes'
+ * counter is bytes per nanosecond (i.e., GB/s); in average time mode, the
+ * score is nanoseconds per value.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VarLengthNumbersBenchmark {
+
+    public static final int BATCH_SIZE = 1024;
+
+    @Param({ "ONE_BYTE", "UNIFORM_LENGTH", "NEGATIVE", "SKEWED" })
+    public ValueDistribution distribution;
+
+    private int[] ints;
+
+    private long[] longs;
+
+    /**
+     * The VarInt/VarLong encodings of ints and longs.
+     */
+    private byte[] encodedInts;
+
+    private byte[] encodedLongs;
+
+    private ByteSink sink;
+
+    private byte[] array;
+
+    private ByteBuffer heapBuffer;
+
+    private ByteBuffer directBuffer;
+
+    private int[] decodedInts;
+
+    /**
+     * Counts the number of encoded bytes processed, which JMH reports as a
+     * rate alongside the primary score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ints = distribution.ints(BATCH_SIZE);
+        longs = distribution.longs(BATCH_SIZE);
+
+        sink = new ByteSink(BATCH_SIZE * 10);
+        for (int value : ints) writeVarInt(sink, value);
+        encodedInts = sink.getBytes();
+        for (long value : longs) writeVarLong(sink, value);
+        encodedLongs = sink.getBytes();
+
+        array = new byte[BATCH_SIZE * 10];
+        heapBuffer = ByteBuffer.allocate(BATCH_SIZE * 10);
+        directBuffer = ByteBuffer.allocateDirect(BATCH_SIZE * 10);
+        decodedInts = new int[BATCH_SIZE];
+    }
+
+    // ---- Writing VarInts ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntLambda(Bytes bytes) {
+        sink.clear();
+        for (int value : ints) writeVarInt(sink::writeByte, value);
+        bytes.bytes += sink.available();
+        return sink.available();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntSink(Bytes bytes) {
+        sink.clear();
+        for (int value : ints) writeVarInt(sink, value);
+        bytes.bytes += sink.available();
+        return sink.available();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntArray(Bytes bytes) {
+        int position = 0;
+        for (int value : ints) position = writeVarInt(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntHeapBuffer(Bytes bytes) {
+        return writeVarInts(heapBuffer, bytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarIntDirectBuffer(Bytes bytes) {
+        return writeVarInts(directBuffer, bytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int encodeVarIntsBulk(Bytes bytes) {
+        int position = encodeVarInts(ints, array, 0, BATCH_SIZE);
+        bytes.bytes += position;
+        return position;
+    }
+
+    // ---- Reading VarInts ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntLambda(Bytes bytes, Blackhole blackhole) {
+        var source = new ByteSource(encodedInts);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarInt(source::getNextByte));
+        bytes.bytes += encodedInts.length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntSource(Bytes bytes, Blackhole blackhole) {
+        var source = new ByteSource(encodedInts);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarInt(source));
+        bytes.bytes += encodedInts.length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(readVarInt(encodedInts, position));
+            position = skipVarInt(encodedInts, position);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        readVarInts(ByteBuffer.wrap(encodedInts), bytes, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarIntDirectBuffer(Bytes bytes, Blackhole blackhole) {
+        directBuffer.clear();
+        directBuffer.put(encodedInts).flip();
+        readVarInts(directBuffer, bytes, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] decodeVarIntsBulk(Bytes bytes) {
+        bytes.bytes += decodeVarInts(encodedInts, 0, decodedInts, BATCH_SIZE);
+        return decodedInts;
+    }
+
+    // ---- Writing VarLongs ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongLambda(Bytes bytes) {
+        sink.clear();
+        for (long value : longs) writeVarLong(sink::writeByte, value);
+        bytes.bytes += sink.available();
+        return sink.available();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongSink(Bytes bytes) {
+        sink.clear();
+        for (long value : longs) writeVarLong(sink, value);
+        bytes.bytes += sink.available();
+        return sink.available();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongArray(Bytes bytes) {
+        int position = 0;
+        for (long value : longs) position = writeVarLong(array, position, value);
+        bytes.bytes += position;
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongHeapBuffer(Bytes bytes) {
+        return writeVarLongs(heapBuffer, bytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int writeVarLongDirectBuffer(Bytes bytes) {
+        return writeVarLongs(directBuffer, bytes);
+    }
+
+    // ---- Reading VarLongs ----
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongLambda(Bytes bytes, Blackhole blackhole) {
+        var source = new ByteSource(encodedLongs);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarLong(source::getNextByte));
+        bytes.bytes += encodedLongs.length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongSource(Bytes bytes, Blackhole blackhole) {
+        var source = new ByteSource(encodedLongs);
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarLong(source));
+        bytes.bytes += encodedLongs.length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongArray(Bytes bytes, Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(readVarLong(encodedLongs, position));
+            position = skipVarLong(encodedLongs, position);
+        }
+        bytes.bytes += position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongHeapBuffer(Bytes bytes, Blackhole blackhole) {
+        readVarLongs(ByteBuffer.wrap(encodedLongs), bytes, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void readVarLongDirectBuffer(Bytes bytes, Blackhole blackhole) {
+        directBuffer.clear();
+        directBuffer.put(encodedLongs).flip();
+        readVarLongs(directBuffer, bytes, blackhole);
+    }
+
+    // ---- Helpers ----
+
+    private int writeVarInts(ByteBuffer buffer, Bytes bytes) {
+        buffer.clear();
+        for (int value : ints) writeVarInt(buffer, value);
+        bytes.bytes += buffer.position();
+        return buffer.position();
+    }
+
+    private int writeVarLongs(ByteBuffer buffer, Bytes bytes) {
+        buffer.clear();
+        for (long value : longs) writeVarLong(buffer, value);
+        bytes.bytes += buffer.position();
+        return buffer.position();
+    }
+
+    private static void readVarInts(ByteBuffer buffer, Bytes bytes, Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarInt(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+    private static void readVarLongs(ByteBuffer buffer, Bytes bytes, Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) blackhole.consume(readVarLong(buffer));
+        bytes.bytes += buffer.position();
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.samjakob.protocol_experiments.codec;
+
+import com.samjakob.protocol_experiments.data.StringCodec;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The helpers that generated MessageCodecs call for everything other than
+ * VarInts and VarLongs (which go straight to VarLengthNumbers).
+ *
+ * The fixed-width values are big-endian, regardless of the byte order that a
+ * ByteBuffer has been set to.
+ */
+public final class CodecSupport {
+
+    private static final VarHandle SHORT_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle INT_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle LONG_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle SHORT_BUFFER_VIEW =
+        MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle INT_BUFFER_VIEW =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle LONG_BUFFER_VIEW =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private CodecSupport() {}
+
+    // ---- Fixed-width values ----
+
+    public static int writeShort(byte[] destination, int offset, short value) {
+        SHORT_ARRAY_VIEW.set(destination, offset, value);
+        return offset + Short.BYTES;
+    }
+
+    public static int writeInt(byte[] destination, int offset, int value) {
+        INT_ARRAY_VIEW.set(destination, offset, value);
+        return offset + Integer.BYTES;
+    }
+
+    public static int writeLong(byte[] destination, int offset, long value) {
+        LONG_ARRAY_VIEW.set(destination, offset, value);
+        return offset + Long.BYTES;
+    }
+
+    public static short readShort(ByteBuffer source) {
+        int position = source.position();
+        short value = (short) SHORT_BUFFER_VIEW.get(source, position);
+        source.position(position + Short.BYTES);
+        return value;
+    }
+
+    public static int readInt(ByteBuffer source) {
+        int position = source.position();
+        int value = (int) INT_BUFFER_VIEW.get(source, position);
+        source.position(position + Integer.BYTES);
+        return value;
+    }
+
+    public static long readLong(ByteBuffer source) {
+        int position = source.position();
+        long value = (long) LONG_BUFFER_VIEW.get(source, position);
+        source.position(position + Long.BYTES);
+        return value;
+    }
+
+    public static short readShort(byte[] source, int offset) {
+        return (short) SHORT_ARRAY_VIEW.get(source, offset);
+    }
+
+    public static int readInt(byte[] source, int offset) {
+        return (int) INT_ARRAY_VIEW.get(source, offset);
+    }
+
+    public static long readLong(byte[] source, int offset) {
+        return (long) LONG_ARRAY_VIEW.get(source, offset);
+    }
+
+    // ---- Strings and byte arrays ----
+    //
+    // These are implemented by StringCodec, which has ASCII fast paths in
+    // both directions.
+
+    /**
+     * Returns the number of bytes writeString will write for value, i.e., the
+     * length prefix plus the UTF-8 encoded string.
+     * @param value The string to measure.
+     * @return The encoded size in bytes.
+     */
+    public static int stringSize(String value) {
+        return StringCodec.stringSize(value);
+    }
+
+    /**
+     * Writes the length of value in UTF-8 (as a VarInt), followed by value
+     * itself in UTF-8, without creating an intermediate byte[].
+     *
+     * Unpaired surrogates are written as '?', as String#getBytes does.
+     *
+     * @param destination The array to write the string into.
+     * @param offset The index of the first byte to write.
+     * @param value The string to write.
+     * @return The new position, i.e., the index after the last byte written.
+     */
+    public static int writeString(byte[] destination, int offset, String value) {
+        return StringCodec.writeString(destination, offset, value);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     * @param source The buffer to read the string from.
+     * @return The decoded string.
+     */
+    public static String readString(ByteBuffer source) {
+        return StringCodec.readString(source);
+    }
+
+    /**
+     * Returns the number of bytes needed to encode value in UTF-8.
+     * @param value The string to measure.
+     * @return The length of the string in UTF-8.
+     */
+    public static int utf8Length(String value) {
+        return StringCodec.utf8Length(value);
+    }
+
+    public static int bytesSize(byte[] value) {
+        return StringCodec.bytesSize(value);
+    }
+
+    public static int writeBytes(byte[] destination, int offset, byte[] value) {
+        return StringCodec.writeBytes(destination, offset, value);
+    }
+
+    public static byte[] readBytes(ByteBuffer source) {
+        return StringCodec.readBytes(source);
+    }
+
+    // ---- Enums ----
+
+    /**
+     * Reads an enum constant written as its ordinal (a VarInt). The ordinal
+     * comes from the peer, so it's checked before it's used as an index.
+     *
+     * @param source The buffer to read the ordinal from.
+     * @param values The enum's values(), in ordinal order.
+     * @param component The name of the component being read, for the error
+     *                  message.
+     * @param <E> The enum type.
+     * @return The constant with that ordinal.
+     * @throws IllegalArgumentException If the ordinal isn't that of any
+     * constant.
+     */
+    public static <E extends Enum<E>> E readEnum(ByteBuffer source, E[] values, String component) {
+        int ordinal = VarLengthNumbers.readVarInt(source);
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IllegalArgumentException(
+                "Invalid ordinal " + ordinal + " for " + component + ": "
+                + values.getClass().getComponentType().getSimpleName() + " has " + values.length + " constants"
+            );
+        }
+        return values[ordinal];
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.samjakob.protocol_experiments.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Writes an int or long component of a Message as a fixed-width (4 or 8 byte,
+ * big-endian) value rather than a VarInt or VarLong. This is smaller for
+ * values that are usually large, such as hashes or random IDs, and lets the
+ * codec precompute more of the message's size.
+ */
+@Target(ElementType.RECORD_COMPONENT)
+@Retention(RetentionPolicy.CLASS)
+public @interface Fixed {
+}
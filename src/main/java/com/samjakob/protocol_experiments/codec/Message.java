@@ -0,0 +1,36 @@
+package com.samjakob.protocol_experiments.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a record as a protocol message, so that the annotation processor in
+ * the codegen project generates a MessageCodec for it at build time.
+ *
+ * The codec for a record Move is called MoveCodec (or Outer_MoveCodec for a
+ * record nested in Outer), is in the same package as the record, and is used
+ * through its INSTANCE field:
+ *
+ *     @Message
+ *     record Move(int entityId, @ZigZag int dx, @ZigZag int dy) {}
+ *
+ *     sink.write(MoveCodec.INSTANCE, new Move(1, -3, 4));
+ *
+ * The components are written in the order they are declared:
+ *
+ * - int and long: a VarInt or VarLong, unless annotated with ZigZag or Fixed.
+ * - boolean and byte: 1 byte.
+ * - short and char: 2 bytes; float: 4 bytes; double: 8 bytes (big-endian).
+ * - String: a VarInt byte length, followed by the string in UTF-8.
+ * - byte[]: a VarInt length, followed by the bytes.
+ * - enums: the ordinal, as a VarInt.
+ * - other records annotated with Message: written with their own codec.
+ *
+ * References must not be null.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface Message {
+}
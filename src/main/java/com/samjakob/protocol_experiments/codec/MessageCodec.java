@@ -0,0 +1,27 @@
+package com.samjakob.protocol_experiments.codec;
+
+import com.samjakob.protocol_experiments.data.MessageEncoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A MessageEncoder that can also decode the messages it encodes.
+ *
+ * Codecs for records annotated with Message are generated at build time, as
+ * one final class per record with every component written out in turn - so
+ * there's no reflection involved, and each call site only ever sees one
+ * implementation, which the JIT can inline.
+ *
+ * @param <T> The type of message.
+ */
+public interface MessageCodec<T> extends MessageEncoder<T> {
+
+    /**
+     * Decodes a message from source, advancing its position past the message.
+     *
+     * @param source The buffer to read the message from.
+     * @return The decoded message.
+     */
+    T decode(ByteBuffer source);
+
+}
@@ -0,0 +1,150 @@
+package com.samjakob.protocol_experiments.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Describes how the fields of an encoded message are laid out - just enough
+ * to find where each field starts without decoding the fields before it.
+ *
+ * For every field, only its kind matters:
+ *
+ * - VAR_INT: a VarInt or VarLong (signed or not), or an enum.
+ * - FIXED: a fixed number of bytes.
+ * - LENGTH_PREFIXED: a VarInt length followed by that many bytes (a String
+ *   or byte[]).
+ * - MESSAGE: another message, with its own layout.
+ *
+ * Generated codecs have a LAYOUT for their message type, which is what
+ * MessageView is usually given.
+ */
+public final class MessageLayout {
+
+    public enum Kind {
+        VAR_INT,
+        FIXED,
+        LENGTH_PREFIXED,
+        MESSAGE
+    }
+
+    private final String[] names;
+
+    private final Kind[] kinds;
+
+    /**
+     * For FIXED fields, the size in bytes. Unused for the other kinds.
+     */
+    private final int[] sizes;
+
+    /**
+     * For MESSAGE fields, the layout of the nested message.
+     */
+    private final MessageLayout[] nested;
+
+    private MessageLayout(Builder builder) {
+        int fields = builder.names.size();
+        this.names = builder.names.toArray(new String[0]);
+        this.kinds = builder.kinds.toArray(new Kind[0]);
+        this.sizes = Arrays.copyOf(builder.sizes, fields);
+        this.nested = builder.nested.toArray(new MessageLayout[0]);
+    }
+
+    /**
+     * Returns the number of fields in the message.
+     * @return The number of fields.
+     */
+    public int fieldCount() {
+        return this.names.length;
+    }
+
+    /**
+     * Finds a field by name. This is meant to be called once (e.g., into a
+     * static final field) rather than on every access.
+     *
+     * @param name The name of the field.
+     * @return The index of the field.
+     * @throws IllegalArgumentException If there is no such field.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("No such field: " + name);
+    }
+
+    public String name(int field) {
+        return this.names[field];
+    }
+
+    public Kind kind(int field) {
+        return this.kinds[field];
+    }
+
+    /**
+     * Returns the size of a FIXED field.
+     * @param field The index of the field.
+     * @return The size of the field in bytes.
+     */
+    public int size(int field) {
+        return this.sizes[field];
+    }
+
+    /**
+     * Returns the layout of a MESSAGE field.
+     * @param field The index of the field.
+     * @return The layout of the nested message.
+     */
+    public MessageLayout nested(int field) {
+        return this.nested[field];
+    }
+
+    /**
+     * Builds a MessageLayout, one field at a time in the order they are
+     * encoded.
+     */
+    public static final class Builder {
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<Kind> kinds = new ArrayList<>();
+
+        private final List<MessageLayout> nested = new ArrayList<>();
+
+        private int[] sizes = new int[8];
+
+        public Builder varInt(String name) {
+            return add(name, Kind.VAR_INT, 0, null);
+        }
+
+        public Builder fixed(String name, int size) {
+            if (size <= 0) throw new IllegalArgumentException("Size must be positive");
+            return add(name, Kind.FIXED, size, null);
+        }
+
+        public Builder lengthPrefixed(String name) {
+            return add(name, Kind.LENGTH_PREFIXED, 0, null);
+        }
+
+        public Builder message(String name, MessageLayout layout) {
+            return add(name, Kind.MESSAGE, 0, layout);
+        }
+
+        public MessageLayout build() {
+            return new MessageLayout(this);
+        }
+
+        private Builder add(String name, Kind kind, int size, MessageLayout layout) {
+            int field = this.names.size();
+            if (field == this.sizes.length) this.sizes = Arrays.copyOf(this.sizes, field * 2);
+
+            this.names.add(name);
+            this.kinds.add(kind);
+            this.sizes[field] = size;
+            this.nested.add(layout);
+            return this;
+        }
+
+    }
+
+}
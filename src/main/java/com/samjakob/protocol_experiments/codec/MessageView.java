@@ -0,0 +1,320 @@
+package com.samjakob.protocol_experiments.codec;
+
+import com.samjakob.protocol_experiments.data.StringCodec;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A read-only view of an encoded message that only decodes the fields that
+ * are actually asked for.
+ *
+ * Handlers that look at one or two fields of a message (e.g., to route it)
+ * and then pass it on don't need to decode the rest of it, or re-encode it
+ * afterwards: the view finds the requested field by skipping over the ones
+ * before it, and the original bytes can be forwarded as-is with writeTo.
+ *
+ *     private static final int TARGET = MoveCodec.LAYOUT.indexOf("entityId");
+ *     private final MessageView view = new MessageView(MoveCodec.LAYOUT);
+ *
+ *     view.wrap(frame, offset, length);
+ *     if (isLocal(view.getVarInt(TARGET))) handle(view);
+ *     else view.writeTo(upstream);
+ *
+ * The offset of every field that has been found is remembered, so each
+ * field is only skipped over once per message. A run of consecutive VarInt
+ * fields is skipped in one go (see VarLengthNumbers#skipVarInts) by counting
+ * terminator bytes rather than reading each VarInt in turn.
+ *
+ * A view can (and should) be re-used for many messages by calling wrap again,
+ * so that reading a field doesn't allocate anything. It is not thread-safe.
+ */
+public final class MessageView {
+
+    private final MessageLayout layout;
+
+    /**
+     * offsets[i] is the index in source of the start of field i, or -1 if it
+     * hasn't been found yet. offsets[fieldCount] is the end of the message.
+     */
+    private final int[] offsets;
+
+    private byte[] source;
+
+    private int start;
+
+    private int limit;
+
+    /**
+     * Creates a view for messages with the given layout. Call wrap to point
+     * it at a message.
+     * @param layout The layout of the messages.
+     */
+    public MessageView(MessageLayout layout) {
+        this.layout = layout;
+        this.offsets = new int[layout.fieldCount() + 1];
+    }
+
+    /**
+     * Points the view at the message starting at offset in source. The
+     * message doesn't need to take up all length bytes - they are only used
+     * to make sure fields aren't read from beyond them.
+     *
+     * @param source The array containing the message.
+     * @param offset The index of the first byte of the message.
+     * @param length The number of bytes available from offset.
+     * @return This view.
+     */
+    public MessageView wrap(byte[] source, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, source.length);
+
+        this.source = source;
+        this.start = offset;
+        this.limit = offset + length;
+
+        Arrays.fill(this.offsets, -1);
+        this.offsets[0] = offset;
+        return this;
+    }
+
+    /**
+     * An alias for wrap(source, 0, source.length);
+     * @param source The array containing the message.
+     * @return This view.
+     */
+    public MessageView wrap(byte[] source) {
+        return wrap(source, 0, source.length);
+    }
+
+    /**
+     * Points the view at the message between the position and limit of a
+     * heap ByteBuffer (e.g., a frame returned by FrameReader), without
+     * changing the buffer's position.
+     *
+     * @param source A buffer backed by an accessible array.
+     * @return This view.
+     */
+    public MessageView wrap(ByteBuffer source) {
+        if (!source.hasArray())
+            throw new IllegalArgumentException("MessageView can only wrap heap buffers");
+        return wrap(source.array(), source.arrayOffset() + source.position(), source.remaining());
+    }
+
+    public MessageLayout layout() {
+        return this.layout;
+    }
+
+    /**
+     * Returns the total encoded size of the message. This has to find the end
+     * of the last field, but doesn't decode anything.
+     * @return The length of the message in bytes.
+     */
+    public int length() {
+        return fieldOffset(this.layout.fieldCount()) - this.start;
+    }
+
+    /**
+     * Finds where a field starts, skipping over any fields before it that
+     * haven't been skipped over yet.
+     *
+     * @param field The index of the field, or fieldCount for the end of the
+     *              message.
+     * @return The index in the source array of the field's first byte.
+     */
+    public int fieldOffset(int field) {
+        int known = field;
+        while (this.offsets[known] < 0) known--;
+
+        int offset = this.offsets[known];
+        while (known < field) {
+            if (this.layout.kind(known) == MessageLayout.Kind.VAR_INT) {
+                int run = 1;
+                while (known + run < field && this.layout.kind(known + run) == MessageLayout.Kind.VAR_INT) run++;
+
+                offset = VarLengthNumbers.skipVarInts(this.source, offset, run);
+                known += run;
+            } else {
+                offset = skipField(this.layout, known, this.source, offset);
+                known++;
+            }
+
+            if (offset > this.limit)
+                throw new IndexOutOfBoundsException("Message is truncated: field " + this.layout.name(known - 1) + " ends past the end of the data");
+            this.offsets[known] = offset;
+        }
+
+        return offset;
+    }
+
+    public int getVarInt(int field) {
+        return VarLengthNumbers.readVarInt(this.source, offsetOf(field, MessageLayout.Kind.VAR_INT));
+    }
+
+    public long getVarLong(int field) {
+        return VarLengthNumbers.readVarLong(this.source, offsetOf(field, MessageLayout.Kind.VAR_INT));
+    }
+
+    public int getSVarInt(int field) {
+        return VarLengthNumbers.readSVarInt(this.source, offsetOf(field, MessageLayout.Kind.VAR_INT));
+    }
+
+    public long getSVarLong(int field) {
+        return VarLengthNumbers.readSVarLong(this.source, offsetOf(field, MessageLayout.Kind.VAR_INT));
+    }
+
+    public boolean getBoolean(int field) {
+        return getByte(field) != 0;
+    }
+
+    public byte getByte(int field) {
+        return this.source[offsetOf(field, MessageLayout.Kind.FIXED)];
+    }
+
+    public short getShort(int field) {
+        return CodecSupport.readShort(this.source, offsetOf(field, MessageLayout.Kind.FIXED));
+    }
+
+    public char getChar(int field) {
+        return (char) getShort(field);
+    }
+
+    /**
+     * Reads a fixed-width (4 byte) int, i.e., an int component annotated
+     * with Fixed.
+     */
+    public int getInt(int field) {
+        return CodecSupport.readInt(this.source, offsetOf(field, MessageLayout.Kind.FIXED));
+    }
+
+    /**
+     * Reads a fixed-width (8 byte) long, i.e., a long component annotated
+     * with Fixed.
+     */
+    public long getLong(int field) {
+        return CodecSupport.readLong(this.source, offsetOf(field, MessageLayout.Kind.FIXED));
+    }
+
+    public float getFloat(int field) {
+        return Float.intBitsToFloat(getInt(field));
+    }
+
+    public double getDouble(int field) {
+        return Double.longBitsToDouble(getLong(field));
+    }
+
+    /**
+     * Decodes a String field.
+     * @param field The index of the field.
+     * @return The decoded string.
+     */
+    public String getString(int field) {
+        int offset = offsetOf(field, MessageLayout.Kind.LENGTH_PREFIXED);
+        int length = VarLengthNumbers.readVarInt(this.source, offset);
+        return StringCodec.decode(this.source, VarLengthNumbers.skipVarInt(this.source, offset), length);
+    }
+
+    /**
+     * Returns a read-only view of the contents of a byte[] (or String) field,
+     * without copying them.
+     * @param field The index of the field.
+     * @return The field's bytes, without the length prefix.
+     */
+    public ByteBuffer getBytes(int field) {
+        int offset = offsetOf(field, MessageLayout.Kind.LENGTH_PREFIXED);
+        int length = VarLengthNumbers.readVarInt(this.source, offset);
+        return ByteBuffer.wrap(this.source, VarLengthNumbers.skipVarInt(this.source, offset), length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Points view at a nested message field, so that its fields can be read
+     * lazily too.
+     *
+     * @param field The index of the field.
+     * @param view A view for the nested message's layout, e.g., one that is
+     *             kept alongside this one.
+     * @return view.
+     */
+    public MessageView getMessage(int field, MessageView view) {
+        int offset = offsetOf(field, MessageLayout.Kind.MESSAGE);
+        return view.wrap(this.source, offset, fieldOffset(field + 1) - offset);
+    }
+
+    /**
+     * Writes the message's original bytes to destination, without decoding
+     * or re-encoding anything.
+     * @param destination The writer to forward the message to.
+     */
+    public void writeTo(WriterInterface destination) {
+        destination.writeBytes(this.source, this.start, length());
+    }
+
+    /**
+     * Copies the message's original bytes into destination.
+     *
+     * @param destination The array to copy the message into.
+     * @param offset The index in destination to copy the first byte to.
+     * @return The new position, i.e., the index after the last byte copied.
+     */
+    public int copyTo(byte[] destination, int offset) {
+        int length = length();
+        System.arraycopy(this.source, this.start, destination, offset, length);
+        return offset + length;
+    }
+
+    /**
+     * Forwards the message with one VarInt field changed (e.g., an ID that a
+     * relay has to rewrite) - everything before and after the field is copied
+     * as-is.
+     *
+     * @param field The index of the VarInt field to replace.
+     * @param value The new value of the field.
+     * @param destination The writer to forward the message to.
+     */
+    public void writeWithVarInt(int field, int value, WriterInterface destination) {
+        int offset = offsetOf(field, MessageLayout.Kind.VAR_INT);
+        int next = fieldOffset(field + 1);
+        int end = fieldOffset(this.layout.fieldCount());
+
+        destination.writeBytes(this.source, this.start, offset - this.start);
+        VarLengthNumbers.writeVarInt(destination, value);
+        destination.writeBytes(this.source, next, end - next);
+    }
+
+    private int offsetOf(int field, MessageLayout.Kind kind) {
+        if (this.layout.kind(field) != kind)
+            throw new IllegalArgumentException("Field " + this.layout.name(field) + " is " + this.layout.kind(field) + ", not " + kind);
+
+        // Find the end of the field too (which is remembered, so this is only
+        // done once), to make sure the whole field is within the data.
+        int offset = fieldOffset(field);
+        fieldOffset(field + 1);
+        return offset;
+    }
+
+    /**
+     * Returns the index after the end of a field (of any kind) of layout that
+     * starts at offset.
+     */
+    private static int skipField(MessageLayout layout, int field, byte[] source, int offset) {
+        switch (layout.kind(field)) {
+            case VAR_INT:
+                return VarLengthNumbers.skipVarLong(source, offset);
+            case FIXED:
+                return offset + layout.size(field);
+            case LENGTH_PREFIXED:
+                int length = VarLengthNumbers.readVarInt(source, offset);
+                if (length < 0) throw new IndexOutOfBoundsException("Invalid length: " + length);
+                return VarLengthNumbers.skipVarInt(source, offset) + length;
+            case MESSAGE:
+                MessageLayout nested = layout.nested(field);
+                for (int i = 0; i < nested.fieldCount(); i++) offset = skipField(nested, i, source, offset);
+                return offset;
+            default:
+                throw new IllegalStateException("Unknown field kind: " + layout.kind(field));
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.samjakob.protocol_experiments.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Writes an int or long component of a Message as an SVarInt or SVarLong,
+ * i.e., ZigZag encoded, so that small negative values take few bytes.
+ *
+ * @see com.samjakob.protocol_experiments.data.VarLengthNumbers#writeSVarInt(byte[], int, int)
+ */
+@Target(ElementType.RECORD_COMPONENT)
+@Retention(RetentionPolicy.CLASS)
+public @interface ZigZag {
+}
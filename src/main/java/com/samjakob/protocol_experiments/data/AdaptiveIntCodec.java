@@ -0,0 +1,357 @@
+package com.samjakob.protocol_experiments.data;
+
+import static com.samjakob.protocol_experiments.data.GroupControlBytes.INT_ARRAY_VIEW;
+import static com.samjakob.protocol_experiments.data.GroupControlBytes.lengthOf;
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * Encodes a stream of int batches ('frames'), picking whichever format
+ * suits the values that have been seen recently, so that a long-lived
+ * connection tunes itself to its own traffic.
+ *
+ * Each frame starts with a one-byte header naming its format, followed by
+ * the number of values (as a VarInt) and then the values themselves:
+ *
+ *     [format] [count] [values ...]
+ *
+ * so the decoder is stateless and simply follows whatever the encoder chose.
+ *
+ * The encoder keeps a window of recently sampled values (a few from every
+ * frame) and, for each candidate format, running totals of how many bytes
+ * those values would take. Before each frame it estimates, per value, the
+ * encoded size plus a rough decode cost (in 'byte equivalents', scaled by
+ * decodeCostWeight) and moves to the cheapest format - but only if that
+ * beats the current one by more than SWITCH_MARGIN, so that a stream that
+ * sits between two formats doesn't flip-flop between them.
+ *
+ * The decode costs are rough, relative estimates rather than measurements
+ * (IntegerBatchFormatsBenchmark measures the real thing): a fixed-width int
+ * is a plain load, StreamVByte needs a table lookup per 4 ints, and VarInts
+ * are cheap while they fit in one byte (decodeVarInts copies those 8 at a
+ * time) but need a word decode each otherwise.
+ *
+ * An encoder is not thread-safe; use one per stream.
+ */
+public final class AdaptiveIntCodec {
+
+    /**
+     * The formats that a frame can be encoded in. The ordinal of each is
+     * written as the frame's header byte, so new formats must only be added
+     * at the end.
+     */
+    public enum Format {
+        /**
+         * Consecutive VarInts, as in VarLengthNumbers#encodeVarInts.
+         */
+        VAR_INT,
+        /**
+         * Consecutive ZigZag encoded VarInts (SVarInts), for values that are
+         * often small and negative, such as deltas.
+         */
+        ZIG_ZAG,
+        /**
+         * 4 bytes per value (little-endian), for values that are mostly too
+         * big for anything else to save space.
+         */
+        FIXED,
+        /**
+         * StreamVByte (control bytes, then 1 to 4 bytes per value).
+         * GroupVarInt takes exactly the same space and is slower to decode,
+         * so isn't a candidate.
+         */
+        STREAM_VBYTE;
+
+        private static final Format[] VALUES = values();
+
+        /**
+         * Returns the format with the given header byte.
+         * @param header The first byte of a frame.
+         * @return The format of the frame.
+         * @throws IllegalArgumentException If there is no such format.
+         */
+        public static Format fromHeader(byte header) {
+            if (header < 0 || header >= VALUES.length)
+                throw new IllegalArgumentException("Unknown frame format: " + header);
+            return VALUES[header];
+        }
+    }
+
+    /**
+     * The number of sampled values that the estimates are based on. Older
+     * samples are replaced as new ones are taken.
+     */
+    public static final int WINDOW_SIZE = 256;
+
+    /**
+     * The most values that are sampled from each frame (evenly spaced), so
+     * that sampling costs the same however large the frames are.
+     */
+    public static final int SAMPLES_PER_FRAME = 32;
+
+    /**
+     * How much cheaper (as a fraction of the current format's estimated
+     * cost) another format has to be before the encoder switches to it.
+     */
+    public static final double SWITCH_MARGIN = 0.05;
+
+    private final double decodeCostWeight;
+
+    /**
+     * The sampled values, as a ring buffer, and the running totals of their
+     * sizes in each format.
+     */
+    private final int[] window = new int[WINDOW_SIZE];
+    private int windowIndex;
+    private int samples;
+
+    private long varIntBytes;
+    private long zigZagBytes;
+    private long streamVByteBytes;
+
+    /**
+     * The number of samples that take more than one byte as a VarInt (or as
+     * a ZigZag encoded VarInt), which makes them slower to decode.
+     */
+    private int multiByteVarInts;
+    private int multiByteZigZags;
+
+    private Format format = Format.VAR_INT;
+
+    private int switches;
+
+    /**
+     * Creates an encoder that weighs decode cost and size equally.
+     */
+    public AdaptiveIntCodec() {
+        this(1.0);
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param decodeCostWeight How many bytes a unit of estimated decode cost
+     *                         is worth. 0 picks the smallest format
+     *                         regardless of decode cost; larger values favour
+     *                         faster formats (e.g., FIXED) more.
+     */
+    public AdaptiveIntCodec(double decodeCostWeight) {
+        if (!(decodeCostWeight >= 0))
+            throw new IllegalArgumentException("Decode cost weight must not be negative");
+        this.decodeCostWeight = decodeCostWeight;
+    }
+
+    /**
+     * Returns the most bytes that encode could write for a frame of count
+     * ints, in any format.
+     * @param count The number of ints.
+     * @return The maximum encoded size in bytes.
+     */
+    public static int maxEncodedSize(int count) {
+        return 1 + varIntSize(count) + count * 5;
+    }
+
+    /**
+     * Returns the format that the last frame was encoded in (or the format
+     * that the first frame will start from, before anything is encoded).
+     * @return The current format.
+     */
+    public Format format() {
+        return this.format;
+    }
+
+    /**
+     * Returns the number of times the encoder has changed format.
+     * @return The number of format switches.
+     */
+    public int switches() {
+        return this.switches;
+    }
+
+    /**
+     * Samples values from source, chooses a format and encodes count values
+     * as a frame into destination, starting at offset.
+     *
+     * @param source The values to encode (from index 0).
+     * @param destination The array to write the frame into. This must have
+     *                    room for maxEncodedSize(count) bytes from offset.
+     * @param offset The index in destination to write the header to.
+     * @param count The number of values to encode.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public int encode(int[] source, byte[] destination, int offset, int count) {
+        sample(source, count);
+
+        Format best = choose();
+        if (best != this.format) {
+            this.format = best;
+            this.switches++;
+        }
+
+        destination[offset++] = (byte) best.ordinal();
+        offset = writeVarInt(destination, offset, count);
+
+        switch (best) {
+            case VAR_INT:
+                return encodeVarInts(source, destination, offset, count);
+            case ZIG_ZAG:
+                for (int i = 0; i < count; i++) offset = writeSVarInt(destination, offset, source[i]);
+                return offset;
+            case FIXED:
+                for (int i = 0; i < count; i++, offset += Integer.BYTES) INT_ARRAY_VIEW.set(destination, offset, source[i]);
+                return offset;
+            case STREAM_VBYTE:
+                return StreamVByte.encode(source, destination, offset, count);
+            default:
+                throw new IllegalStateException("Unknown format: " + best);
+        }
+    }
+
+    /**
+     * Returns the number of values in the frame starting at offset in
+     * source, e.g., to size the array for decode.
+     *
+     * @param source The array containing the frame.
+     * @param offset The index of the frame's header byte.
+     * @return The number of values in the frame.
+     */
+    public static int count(byte[] source, int offset) {
+        Format.fromHeader(source[offset]);
+        return readVarInt(source, offset + 1);
+    }
+
+    /**
+     * Decodes the frame starting at offset in source into destination, in
+     * whichever format its header names.
+     *
+     * @param source The array containing the frame.
+     * @param offset The index of the frame's header byte.
+     * @param destination The array to store the values in (from index 0).
+     *                    This must have room for count(source, offset)
+     *                    values.
+     * @return The new position, i.e., the index immediately after the last
+     * byte of the frame.
+     */
+    public static int decode(byte[] source, int offset, int[] destination) {
+        Format format = Format.fromHeader(source[offset++]);
+        int count = readVarInt(source, offset);
+        offset = skipVarInt(source, offset);
+
+        if (count < 0 || count > destination.length)
+            throw new IndexOutOfBoundsException("Frame of " + Integer.toUnsignedString(count) + " values does not fit in " + destination.length);
+
+        switch (format) {
+            case VAR_INT:
+                return decodeVarInts(source, offset, destination, count);
+            case ZIG_ZAG:
+                offset = decodeVarInts(source, offset, destination, count);
+                for (int i = 0; i < count; i++) destination[i] = decodeZigZag(destination[i]);
+                return offset;
+            case FIXED:
+                for (int i = 0; i < count; i++, offset += Integer.BYTES) destination[i] = (int) INT_ARRAY_VIEW.get(source, offset);
+                return offset;
+            case STREAM_VBYTE:
+                return StreamVByte.decode(source, offset, destination, count);
+            default:
+                throw new IllegalStateException("Unknown format: " + format);
+        }
+    }
+
+    /**
+     * Returns the estimated cost, per value, of encoding the sampled values
+     * in format: the average encoded size plus the weighted decode cost.
+     *
+     * @param format The format to estimate.
+     * @return The estimated cost in bytes (or byte equivalents) per value, or
+     * NaN if nothing has been sampled yet.
+     */
+    public double estimatedCost(Format format) {
+        if (this.samples == 0) return Double.NaN;
+        double samples = this.samples;
+
+        double size;
+        double decodeCost;
+        switch (format) {
+            case VAR_INT:
+                size = this.varIntBytes / samples;
+                decodeCost = 0.1 + 0.6 * (this.multiByteVarInts / samples);
+                break;
+            case ZIG_ZAG:
+                size = this.zigZagBytes / samples;
+                decodeCost = 0.15 + 0.6 * (this.multiByteZigZags / samples);
+                break;
+            case FIXED:
+                size = Integer.BYTES;
+                decodeCost = 0.05;
+                break;
+            case STREAM_VBYTE:
+                // Plus a quarter of a control byte per value.
+                size = this.streamVByteBytes / samples + 0.25;
+                decodeCost = 0.3;
+                break;
+            default:
+                throw new IllegalStateException("Unknown format: " + format);
+        }
+
+        return size + this.decodeCostWeight * decodeCost;
+    }
+
+    /**
+     * Picks the format for the next frame: the cheapest, if it beats the
+     * current format by more than SWITCH_MARGIN, otherwise the current one.
+     */
+    private Format choose() {
+        if (this.samples == 0) return this.format;
+
+        Format best = this.format;
+        double bestCost = estimatedCost(best);
+        double threshold = bestCost * (1 - SWITCH_MARGIN);
+
+        for (Format candidate : Format.VALUES) {
+            double cost = estimatedCost(candidate);
+            if (cost < threshold && cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Adds up to SAMPLES_PER_FRAME evenly spaced values from the frame to the
+     * window, replacing the oldest samples.
+     */
+    private void sample(int[] source, int count) {
+        // Rounded up, so that a frame of (say) 63 values gives 32 samples
+        // rather than 63.
+        int stride = Math.max(1, (count + SAMPLES_PER_FRAME - 1) / SAMPLES_PER_FRAME);
+
+        for (int i = 0; i < count; i += stride) {
+            if (this.samples == WINDOW_SIZE) account(this.window[this.windowIndex], -1);
+            else this.samples++;
+
+            int value = source[i];
+            this.window[this.windowIndex] = value;
+            this.windowIndex = (this.windowIndex + 1) & (WINDOW_SIZE - 1);
+            account(value, 1);
+        }
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) a sampled value's contribution to
+     * the running totals.
+     */
+    private void account(int value, int sign) {
+        int varIntSize = varIntSize(value);
+        int zigZagSize = sVarIntSize(value);
+
+        this.varIntBytes += sign * varIntSize;
+        this.zigZagBytes += sign * zigZagSize;
+        this.streamVByteBytes += sign * lengthOf(value);
+
+        if (varIntSize > 1) this.multiByteVarInts += sign;
+        if (zigZagSize > 1) this.multiByteZigZags += sign;
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.samjakob.protocol_experiments.data;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The lookup tables and helpers shared by GroupVarInt and StreamVByte, which
+ * both describe a group of 4 ints with a single 'control byte'.
+ *
+ * Each int is stored in 1 to 4 (little-endian) bytes, and its length minus
+ * one is stored in 2 bits of the control byte. The first int of the group
+ * uses the lowest 2 bits:
+ *
+ *     control byte:  [ len3-1 | len2-1 | len1-1 | len0-1 ]
+ *                      bit 7                       bit 0
+ *
+ * Because the control byte alone determines where every int in the group
+ * starts and ends, the 256 possible layouts are worked out ahead of time.
+ * Decoding a group is then four independent (masked) int loads at offsets
+ * read from a table, with no dependency between one int and the next - unlike
+ * a VarInt, where each byte's continuation bit has to be checked before the
+ * next byte can be interpreted.
+ *
+ * This plays the role of the 'shuffle table' used by the SIMD versions of
+ * these formats. Java 16 has no portable byte shuffle, so the table holds
+ * offsets instead of shuffle masks.
+ */
+final class GroupControlBytes {
+
+    /**
+     * LENGTHS[control] is the total number of data bytes in a group with that
+     * control byte (from 4 to 16).
+     */
+    static final byte[] LENGTHS = new byte[256];
+
+    /**
+     * OFFSETS[control] packs the offset (from the start of the group's data)
+     * of each of the 4 ints into one byte each, with the first int in the
+     * lowest byte. The first offset is always 0.
+     */
+    static final int[] OFFSETS = new int[256];
+
+    /**
+     * MASKS[length - 1] keeps the lowest length bytes of an int.
+     */
+    static final int[] MASKS = { 0xFF, 0xFFFF, 0xFF_FFFF, 0xFFFF_FFFF };
+
+    /**
+     * The most bytes a group can read past the start of its data: the last
+     * int can start at offset 12 and every int is loaded as a whole 4 bytes.
+     */
+    static final int MAX_GROUP_LENGTH = 16;
+
+    /**
+     * Allows reading 4 bytes out of a byte[] as a single little-endian int.
+     */
+    static final VarHandle INT_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static {
+        for (int control = 0; control < 256; control++) {
+            int offset = 0;
+            int offsets = 0;
+
+            for (int lane = 0; lane < 4; lane++) {
+                offsets |= offset << (lane * 8);
+                offset += ((control >>> (lane * 2)) & 0b11) + 1;
+            }
+
+            LENGTHS[control] = (byte) offset;
+            OFFSETS[control] = offsets;
+        }
+    }
+
+    private GroupControlBytes() {}
+
+    /**
+     * Returns the number of bytes needed to store value, from 1 to 4.
+     */
+    static int lengthOf(int value) {
+        // 31 - numberOfLeadingZeros is the index of the highest set bit, so
+        // this is (index + 8) / 8. OR-ing with 1 makes 0 take 1 byte too.
+        return (39 - Integer.numberOfLeadingZeros(value | 1)) >>> 3;
+    }
+
+    /**
+     * Writes the lowest length bytes of value into destination, starting at
+     * offset, in little-endian order.
+     */
+    static void writeInt(byte[] destination, int offset, int value, int length) {
+        if (length == Integer.BYTES) {
+            INT_ARRAY_VIEW.set(destination, offset, value);
+            return;
+        }
+
+        // Shorter ints are stored a byte at a time, rather than storing all 4
+        // and letting the next int overwrite the extra bytes, as the last int
+        // would otherwise clobber whatever the caller has after the output.
+        for (int i = 0; i < length; i++) {
+            destination[offset + i] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * Reads a length byte little-endian int from source, starting at offset,
+     * one byte at a time. Used close to the end of the array, where a whole
+     * int can't be loaded.
+     */
+    static int readInt(byte[] source, int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value |= (source[offset + i] & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    /**
+     * Encodes up to 4 values from source, starting at index, into destination
+     * at dataOffset.
+     *
+     * @return The control byte in the lowest 8 bits, and the number of data
+     * bytes written above that.
+     */
+    static int encodeGroup(int[] source, int index, int lanes, byte[] destination, int dataOffset) {
+        int control = 0;
+        int position = dataOffset;
+
+        for (int lane = 0; lane < lanes; lane++) {
+            int value = source[index + lane];
+            int length = lengthOf(value);
+
+            writeInt(destination, position, value, length);
+            control |= (length - 1) << (lane * 2);
+            position += length;
+        }
+
+        return ((position - dataOffset) << 8) | control;
+    }
+
+    /**
+     * Decodes a whole group of 4 ints with the given control byte from the
+     * data at dataOffset in source. The caller must make sure that at least
+     * MAX_GROUP_LENGTH bytes can be read from dataOffset.
+     *
+     * @return The number of data bytes the group took up.
+     */
+    static int decodeGroup(byte[] source, int dataOffset, int control, int[] destination, int index) {
+        int offsets = OFFSETS[control];
+
+        destination[index] =
+            (int) INT_ARRAY_VIEW.get(source, dataOffset) & MASKS[control & 0b11];
+        destination[index + 1] =
+            (int) INT_ARRAY_VIEW.get(source, dataOffset + ((offsets >>> 8) & 0xFF)) & MASKS[(control >>> 2) & 0b11];
+        destination[index + 2] =
+            (int) INT_ARRAY_VIEW.get(source, dataOffset + ((offsets >>> 16) & 0xFF)) & MASKS[(control >>> 4) & 0b11];
+        destination[index + 3] =
+            (int) INT_ARRAY_VIEW.get(source, dataOffset + (offsets >>> 24)) & MASKS[control >>> 6];
+
+        return LENGTHS[control];
+    }
+
+    /**
+     * Decodes the first lanes ints of a group one byte at a time, without
+     * reading past the end of the group's data.
+     *
+     * @return The number of data bytes those ints took up.
+     */
+    static int decodePartialGroup(byte[] source, int dataOffset, int control, int lanes, int[] destination, int index) {
+        int position = dataOffset;
+
+        for (int lane = 0; lane < lanes; lane++) {
+            int length = ((control >>> (lane * 2)) & 0b11) + 1;
+            destination[index + lane] = readInt(source, position, length);
+            position += length;
+        }
+
+        return position - dataOffset;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.samjakob.protocol_experiments.data;
+
+import static com.samjakob.protocol_experiments.data.GroupControlBytes.*;
+
+/**
+ * An alternative wire format for batches of ints, where every 4 ints share a
+ * 'control byte' holding the length of each of them, followed by the ints
+ * themselves in 1 to 4 little-endian bytes each:
+ *
+ *     [control] [int 0] [int 1] [int 2] [int 3] [control] [int 4] ...
+ *
+ * (See GroupControlBytes for the layout of the control byte.) If the number
+ * of ints isn't a multiple of 4, the final group just has fewer ints, and the
+ * unused bits of its control byte are 0.
+ *
+ * Compared with encodeVarInts/decodeVarInts in VarLengthNumbers, the lengths
+ * of all 4 ints are known as soon as the control byte has been read, so they
+ * can be decoded independently (and in parallel by the CPU) with no
+ * byte-by-byte loop. Values use at most 4 bytes (plus a quarter of a byte for
+ * the control byte), where a VarInt needs 5 for anything of 2^28 or more,
+ * but small values need 1.25 bytes instead of 1.
+ *
+ * The number of ints isn't stored, so it must be sent separately (e.g., as a
+ * VarInt before the batch).
+ */
+public final class GroupVarInt {
+
+    private GroupVarInt() {}
+
+    /**
+     * Returns the most bytes that encode could write for count ints.
+     * @param count The number of ints.
+     * @return The maximum encoded size in bytes.
+     */
+    public static int maxEncodedSize(int count) {
+        return ((count + 3) >>> 2) + count * Integer.BYTES;
+    }
+
+    /**
+     * Returns the exact number of bytes that encode would write for count
+     * values from values, starting at offset.
+     *
+     * @param values The values to measure.
+     * @param offset The index of the first value.
+     * @param count The number of values.
+     * @return The encoded size in bytes.
+     */
+    public static int encodedSize(int[] values, int offset, int count) {
+        int size = (count + 3) >>> 2;
+        for (int i = 0; i < count; i++) size += lengthOf(values[offset + i]);
+        return size;
+    }
+
+    /**
+     * Encodes count values from source into destination, starting at offset.
+     *
+     * @param source The values to encode (from index 0).
+     * @param destination The array to write the encoded groups into. This
+     *                    must have room for maxEncodedSize(count) bytes (or
+     *                    exactly encodedSize) from offset.
+     * @param offset The index in destination to write the first byte to.
+     * @param count The number of values to encode.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int encode(int[] source, byte[] destination, int offset, int count) {
+        for (int i = 0; i < count; i += 4) {
+            int lanes = Math.min(4, count - i);
+
+            // Write the ints first (after a gap for the control byte), then go
+            // back and fill in the control byte now that it's known.
+            int result = encodeGroup(source, i, lanes, destination, offset + 1);
+            destination[offset] = (byte) result;
+            offset += 1 + (result >>> 8);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Decodes count ints from source, starting at offset, into destination.
+     *
+     * Whilst there's at least a whole (maximum size) group left in source,
+     * each group is decoded with four masked int loads from the offsets in
+     * the lookup table. Close to the end of source, the remaining groups are
+     * decoded a byte at a time so as not to read past the end.
+     *
+     * @param source The array to read the encoded groups from.
+     * @param offset The index of the first control byte.
+     * @param destination The array to store the values in (from index 0).
+     * @param count The number of ints to read.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was read.
+     */
+    public static int decode(byte[] source, int offset, int[] destination, int count) {
+        int i = 0;
+
+        // Fast path: whole groups of 4, with enough input left to load all 4
+        // ints as whole ints even if they only take 1 byte each.
+        while (count - i >= 4 && source.length - offset > MAX_GROUP_LENGTH) {
+            int control = source[offset] & 0xFF;
+            offset += 1 + decodeGroup(source, offset + 1, control, destination, i);
+            i += 4;
+        }
+
+        while (i < count) {
+            int lanes = Math.min(4, count - i);
+            int control = source[offset] & 0xFF;
+            offset += 1 + decodePartialGroup(source, offset + 1, control, lanes, destination, i);
+            i += lanes;
+        }
+
+        return offset;
+    }
+
+}
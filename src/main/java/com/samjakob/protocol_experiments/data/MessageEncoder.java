@@ -0,0 +1,58 @@
+package com.samjakob.protocol_experiments.data;
+
+/**
+ * A two-pass encoder for messages of type T: the exact encoded size of a
+ * message is measured first (see VarLengthNumbers#varIntSize and friends),
+ * so that the destination can be allocated (or grown) once, and then the
+ * message is encoded straight into it.
+ *
+ * As the destination is known to be large enough before encoding starts,
+ * encode doesn't need to check for space as it goes, and can use the byte[]
+ * overloads of VarLengthNumbers directly, e.g.,
+ *
+ *     public int measure(Move move) {
+ *         return varIntSize(move.entityId()) + sVarIntSize(move.dx());
+ *     }
+ *
+ *     public int encode(Move move, byte[] destination, int offset) {
+ *         offset = writeVarInt(destination, offset, move.entityId());
+ *         return writeSVarInt(destination, offset, move.dx());
+ *     }
+ *
+ * @param <T> The type of message.
+ * @see com.samjakob.protocol_experiments.utils.ByteSink#write(MessageEncoder, Object)
+ */
+public interface MessageEncoder<T> {
+
+    /**
+     * Returns exactly how many bytes encode will write for message.
+     *
+     * @param message The message to measure.
+     * @return The encoded size in bytes.
+     */
+    int measure(T message);
+
+    /**
+     * Encodes message into destination, starting at offset. The caller must
+     * make sure there are at least measure(message) bytes available.
+     *
+     * @param message The message to encode.
+     * @param destination The array to encode the message into.
+     * @param offset The index of the first byte to write.
+     * @return The new position, i.e., offset + measure(message).
+     */
+    int encode(T message, byte[] destination, int offset);
+
+    /**
+     * Encodes message into a new array of exactly the right size.
+     *
+     * @param message The message to encode.
+     * @return The encoded message.
+     */
+    default byte[] encode(T message) {
+        byte[] result = new byte[measure(message)];
+        encode(message, result, 0);
+        return result;
+    }
+
+}
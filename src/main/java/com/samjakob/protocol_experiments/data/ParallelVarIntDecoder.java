@@ -0,0 +1,136 @@
+package com.samjakob.protocol_experiments.data;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * The implementation of VarLengthNumbers#decodeVarIntsParallel.
+ *
+ * Decoding happens in three steps:
+ *
+ * 1. The input is cut into chunks, and each cut is moved forward to the next
+ *    value boundary (this is cheap, so is done on the calling thread).
+ * 2. The VarInts in each chunk are counted, in parallel. A prefix sum of the
+ *    counts gives the index in the result of each chunk's first value.
+ * 3. Each chunk is decoded, in parallel, into its own part of the result.
+ */
+final class ParallelVarIntDecoder {
+
+    /**
+     * Inputs of up to this many bytes are decoded on the calling thread, and
+     * no chunk is made smaller than this.
+     */
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The number of chunks to aim for per thread in the pool, so that a
+     * thread that finishes early can steal work from one that doesn't.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * A VarInt has at most 4 bytes with the continuation bit set, so a value
+     * boundary is always found within this many bytes of any position.
+     */
+    private static final int MAX_RESYNC_DISTANCE = 5;
+
+    private ParallelVarIntDecoder() {}
+
+    static int[] decode(ForkJoinPool pool, byte[] source, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, source.length);
+        int end = offset + length;
+
+        if (length <= MIN_CHUNK_SIZE) return decodeChunk(source, offset, end);
+
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, length / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        int chunks = (int) (((long) length + chunkSize - 1) / chunkSize);
+
+        // 1. Find the start of each chunk (and the end of the last one).
+        int[] starts = new int[chunks + 1];
+        starts[0] = offset;
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            starts[chunk] = resync(source, Math.max(offset + chunk * chunkSize, starts[chunk - 1]), end);
+        }
+        starts[chunks] = end;
+
+        // 2. Count the values in each chunk, then turn the counts into the
+        //    index of each chunk's first value.
+        int[] firstIndex = new int[chunks + 1];
+        pool.invoke(new ChunkTask(0, chunks, chunk ->
+            firstIndex[chunk + 1] = VarLengthNumbers.countVarInts(source, starts[chunk], starts[chunk + 1])
+        ));
+        for (int chunk = 0; chunk < chunks; chunk++) firstIndex[chunk + 1] += firstIndex[chunk];
+
+        // 3. Decode each chunk into its part of the result.
+        int[] result = new int[firstIndex[chunks]];
+        pool.invoke(new ChunkTask(0, chunks, chunk -> {
+            int count = firstIndex[chunk + 1] - firstIndex[chunk];
+            int chunkEnd = VarLengthNumbers.decodeVarInts(source, starts[chunk], result, firstIndex[chunk], count);
+
+            // Every byte without a continuation bit ends a value, so unless
+            // the chunk ends with an unfinished value, decoding that many
+            // values must use up exactly the whole chunk.
+            if (chunkEnd != starts[chunk + 1]) throw VarIntFormatException.invalidVarInt();
+        }));
+
+        return result;
+    }
+
+    /**
+     * Decodes a range of VarInts on the calling thread.
+     */
+    private static int[] decodeChunk(byte[] source, int offset, int end) {
+        int[] result = new int[VarLengthNumbers.countVarInts(source, offset, end)];
+        if (VarLengthNumbers.decodeVarInts(source, offset, result, result.length) != end)
+            throw VarIntFormatException.invalidVarInt();
+        return result;
+    }
+
+    /**
+     * Moves position forward to the start of the next VarInt, i.e., to just
+     * after the next byte without its continuation bit set. If position is
+     * already at the start of a VarInt, it's returned as-is.
+     */
+    private static int resync(byte[] source, int position, int end) {
+        for (int i = 0; i < MAX_RESYNC_DISTANCE && position < end; i++, position++) {
+            if (source[position - 1] >= 0) return position;
+        }
+
+        if (position == end) return end;
+        throw VarIntFormatException.invalidVarInt();
+    }
+
+    /**
+     * Runs work for each chunk index from (inclusive) to to (exclusive),
+     * splitting the range in half until each task has a single chunk.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private final int from;
+
+        private final int to;
+
+        private final IntConsumer work;
+
+        ChunkTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.work.accept(this.from);
+                return;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new ChunkTask(this.from, middle, this.work), new ChunkTask(middle, this.to, this.work));
+        }
+
+    }
+
+}
@@ -0,0 +1,385 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An alternative to VarInts and VarLongs where the length of a value is
+ * given up front by its first byte, rather than by a continuation bit in
+ * every byte (as in PrefixVarint, or the varints in SQLite and UTF-8).
+ *
+ * A value of n bytes, for n from 1 to 8, holds 7n bits of the value. The
+ * lowest n bits of the (little-endian) encoding are n - 1 zeros and then a
+ * one, and the value is stored in the bits above those:
+ *
+ *     1 byte:  xxxx xxx1                     (0 to 2^7 - 1)
+ *     2 bytes: xxxx xx10 xxxx xxxx           (up to 2^14 - 1)
+ *     3 bytes: xxxx x100 xxxx xxxx xxxx xxxx (up to 2^21 - 1)
+ *     ...
+ *     8 bytes: 1000 0000 then 7 bytes        (up to 2^56 - 1)
+ *     9 bytes: 0000 0000 then 8 bytes        (any long)
+ *
+ * So, like a VarInt, a value takes 1 byte per 7 bits, but the length is the
+ * number of trailing zeros of the first byte plus one. Given a little-endian
+ * long loaded from the start of the value, decoding is one
+ * numberOfTrailingZeros and two shifts - there's no loop and no branch that
+ * depends on the length - and a VarLong that needs all 64 bits takes 9 bytes
+ * instead of 10.
+ *
+ * The methods mirror those of VarLengthNumbers (with the same names), so
+ * switching a link between the two is a matter of changing the class name.
+ * As with VarInts, ints are treated as unsigned, so negative ints take the
+ * full 5 bytes. Unlike VarInts, though, this isn't the format Minecraft uses
+ * (or that any existing peer understands), so it's only suitable where both
+ * ends of the link are ours.
+ */
+public final class PrefixVarInt {
+
+    /**
+     * Reads 8 bytes out of a byte[] as a single little-endian long, at any
+     * (unaligned) offset.
+     */
+    private static final VarHandle LONG_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * As with LONG_ARRAY_VIEW, but for heap or direct ByteBuffers. The
+     * buffer's own byte order is ignored.
+     */
+    private static final VarHandle LONG_BUFFER_VIEW =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The longest encoding of an int.
+     */
+    public static final int MAX_INT_LENGTH = 5;
+
+    /**
+     * The longest encoding of a long: a 0 byte and then all 8 bytes of it.
+     */
+    public static final int MAX_LONG_LENGTH = 9;
+
+    private PrefixVarInt() {}
+
+    /**
+     * Returns the total length of the value that starts with firstByte.
+     * @param firstByte The first byte of an encoded value.
+     * @return The length of the value in bytes, from 1 to 9.
+     */
+    public static int encodedLength(byte firstByte) {
+        // The 0x100 sentinel makes a 0 byte come out as 9.
+        return Integer.numberOfTrailingZeros(firstByte | 0x100) + 1;
+    }
+
+    /**
+     * Returns the number of bytes that writeVarInt would write for value.
+     * This happens to be the same as for a VarInt.
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 5 bytes.
+     */
+    public static int varIntSize(int value) {
+        return VarLengthNumbers.varIntSize(value);
+    }
+
+    /**
+     * Returns the number of bytes that writeVarLong would write for value.
+     * This is the same as for a VarLong, except that values that would take
+     * 10 bytes as a VarLong take 9.
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 9 bytes.
+     */
+    public static int varLongSize(long value) {
+        return Math.min(VarLengthNumbers.varLongSize(value), MAX_LONG_LENGTH);
+    }
+
+    // ---- Writing ----
+
+    public static void writeVarInt(WriterInterface writer, int value) {
+        writeVarLong(writer, value & 0xFFFF_FFFFL);
+    }
+
+    public static void writeVarLong(WriterInterface writer, long value) {
+        int length = varLongSize(value);
+
+        long word;
+        if (length == MAX_LONG_LENGTH) {
+            writer.writeByte((byte) 0);
+            word = value;
+            length = Long.BYTES;
+        } else {
+            word = encode(value, length);
+        }
+
+        for (int i = 0; i < length; i++) {
+            writer.writeByte((byte) word);
+            word >>>= 8;
+        }
+    }
+
+    /**
+     * Writes value into destination, starting at offset.
+     *
+     * @param destination The array to write the value into.
+     * @param offset The index of the first byte of the value.
+     * @param value The value to write.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int writeVarInt(byte[] destination, int offset, int value) {
+        return writeVarLong(destination, offset, value & 0xFFFF_FFFFL);
+    }
+
+    /**
+     * Writes value into destination, starting at offset.
+     * @see PrefixVarInt#writeVarInt(byte[], int, int)
+     */
+    public static int writeVarLong(byte[] destination, int offset, long value) {
+        int length = varLongSize(value);
+        if (length == MAX_LONG_LENGTH) {
+            destination[offset] = 0;
+            LONG_ARRAY_VIEW.set(destination, offset + 1, value);
+            return offset + MAX_LONG_LENGTH;
+        }
+
+        long word = encode(value, length);
+        for (int i = 0; i < length; i++) {
+            destination[offset + i] = (byte) word;
+            word >>>= 8;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Writes value at the destination buffer's position and advances the
+     * position past it.
+     *
+     * If there isn't enough space left in the buffer, an
+     * IndexOutOfBoundsException is thrown and the position is left unchanged.
+     *
+     * @param destination The buffer to write the value into.
+     * @param value The value to write.
+     * @return The number of bytes written.
+     */
+    public static int writeVarInt(ByteBuffer destination, int value) {
+        return writeVarLong(destination, value & 0xFFFF_FFFFL);
+    }
+
+    /**
+     * Writes value at the destination buffer's position and advances the
+     * position past it.
+     * @see PrefixVarInt#writeVarInt(ByteBuffer, int)
+     */
+    public static int writeVarLong(ByteBuffer destination, long value) {
+        int position = destination.position();
+        int length = varLongSize(value);
+        if (destination.limit() - position < length)
+            throw new IndexOutOfBoundsException("Value needs " + length + " bytes, but only " + (destination.limit() - position) + " remain");
+
+        if (length == MAX_LONG_LENGTH) {
+            destination.put(position, (byte) 0);
+            LONG_BUFFER_VIEW.set(destination, position + 1, value);
+        } else {
+            long word = encode(value, length);
+            for (int i = 0; i < length; i++) {
+                destination.put(position + i, (byte) word);
+                word >>>= 8;
+            }
+        }
+
+        destination.position(position + length);
+        return length;
+    }
+
+    // ---- Reading ----
+
+    public static int readVarInt(ReaderInterface reader) {
+        byte first = reader.readByte();
+        int length = encodedLength(first);
+        if (length > MAX_INT_LENGTH) throw VarIntFormatException.invalidVarInt();
+
+        long word = first & 0xFF;
+        for (int i = 1; i < length; i++) word |= (reader.readByte() & 0xFFL) << (i * 8);
+        return toInt(decode(word, length));
+    }
+
+    public static long readVarLong(ReaderInterface reader) {
+        byte first = reader.readByte();
+        int length = encodedLength(first);
+
+        if (length == MAX_LONG_LENGTH) {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) value |= (reader.readByte() & 0xFFL) << (i * 8);
+            return value;
+        }
+
+        long word = first & 0xFF;
+        for (int i = 1; i < length; i++) word |= (reader.readByte() & 0xFFL) << (i * 8);
+        return decode(word, length);
+    }
+
+    /**
+     * Reads the value starting at offset in source. Its length (to find the
+     * next value) is encodedLength(source[offset]).
+     *
+     * @param source The array to read the value from.
+     * @param offset The index of the first byte of the value.
+     * @return The decoded value.
+     * @throws VarIntFormatException If the value is longer than 5 bytes or
+     * doesn't fit in an int.
+     */
+    public static int readVarInt(byte[] source, int offset) {
+        if (source.length - offset >= Long.BYTES) {
+            long word = (long) LONG_ARRAY_VIEW.get(source, offset);
+            int length = encodedLength((byte) word);
+            if (length > MAX_INT_LENGTH) throw VarIntFormatException.invalidVarInt();
+            return toInt(decode(word, length));
+        }
+
+        int length = encodedLength(source[offset]);
+        if (length > MAX_INT_LENGTH) throw VarIntFormatException.invalidVarInt();
+        return toInt(decode(loadPartialWord(source, offset, length), length));
+    }
+
+    /**
+     * Reads the value starting at offset in source.
+     * @see PrefixVarInt#readVarInt(byte[], int)
+     */
+    public static long readVarLong(byte[] source, int offset) {
+        int remaining = source.length - offset;
+
+        if (remaining >= Long.BYTES) {
+            long word = (long) LONG_ARRAY_VIEW.get(source, offset);
+            int length = encodedLength((byte) word);
+            if (length < MAX_LONG_LENGTH) return decode(word, length);
+            if (remaining >= MAX_LONG_LENGTH) return (long) LONG_ARRAY_VIEW.get(source, offset + 1);
+        }
+
+        int length = encodedLength(source[offset]);
+        if (length == MAX_LONG_LENGTH) return loadPartialWord(source, offset + 1, Long.BYTES);
+        return decode(loadPartialWord(source, offset, length), length);
+    }
+
+    /**
+     * Reads the value at the source buffer's position and advances the
+     * position past it.
+     *
+     * If the value runs past the buffer's limit, an
+     * IndexOutOfBoundsException is thrown, and if it's invalid, a
+     * VarIntFormatException is thrown. Either way, the position is left
+     * unchanged.
+     *
+     * @param source The buffer to read the value from.
+     * @return The decoded value.
+     */
+    public static int readVarInt(ByteBuffer source) {
+        int position = source.position();
+        int remaining = source.limit() - position;
+
+        long word;
+        int length;
+        if (remaining >= Long.BYTES) {
+            word = (long) LONG_BUFFER_VIEW.get(source, position);
+            length = encodedLength((byte) word);
+            if (length > MAX_INT_LENGTH) throw VarIntFormatException.invalidVarInt();
+        } else {
+            length = encodedLength(source.get(position));
+            if (length > MAX_INT_LENGTH) throw VarIntFormatException.invalidVarInt();
+            word = loadPartialWord(source, position, length);
+        }
+
+        int value = toInt(decode(word, length));
+        source.position(position + length);
+        return value;
+    }
+
+    /**
+     * Reads the value at the source buffer's position and advances the
+     * position past it.
+     * @see PrefixVarInt#readVarInt(ByteBuffer)
+     */
+    public static long readVarLong(ByteBuffer source) {
+        int position = source.position();
+        int remaining = source.limit() - position;
+
+        long value;
+        int length;
+        if (remaining >= Long.BYTES) {
+            long word = (long) LONG_BUFFER_VIEW.get(source, position);
+            length = encodedLength((byte) word);
+            if (length < MAX_LONG_LENGTH) value = decode(word, length);
+            else value = loadFullWord(source, position + 1, remaining - 1);
+        } else {
+            length = encodedLength(source.get(position));
+            if (length < MAX_LONG_LENGTH) value = decode(loadPartialWord(source, position, length), length);
+            else value = loadFullWord(source, position + 1, remaining - 1);
+        }
+
+        source.position(position + length);
+        return value;
+    }
+
+    // ---- Helpers ----
+
+    /**
+     * Returns the first 8 bytes of an encoding of length bytes (from 1 to
+     * 8), as a little-endian long.
+     */
+    private static long encode(long value, int length) {
+        return (value << length) | (1L << (length - 1));
+    }
+
+    /**
+     * Decodes a value of length bytes (from 1 to 8) out of the little-endian
+     * word that starts with it. Anything in word after the value is ignored.
+     */
+    private static long decode(long word, int length) {
+        // Shift the bytes after the value out of the top, then shift the
+        // value (7 * length bits) down to the bottom, dropping the length
+        // bits.
+        return (word << (Long.SIZE - Long.BYTES * length)) >>> (Long.SIZE - 7 * length);
+    }
+
+    /**
+     * Returns value as an int, if it fits in 32 bits (unsigned).
+     */
+    private static int toInt(long value) {
+        if ((value >>> Integer.SIZE) != 0) throw VarIntFormatException.invalidVarInt();
+        return (int) value;
+    }
+
+    /**
+     * Loads length bytes from offset as a little-endian long.
+     */
+    private static long loadPartialWord(byte[] source, int offset, int length) {
+        if (source.length - offset < length)
+            throw new IndexOutOfBoundsException("Value needs " + length + " bytes, but only " + (source.length - offset) + " remain");
+
+        long word = 0;
+        for (int i = 0; i < length; i++) word |= (source[offset + i] & 0xFFL) << (i * 8);
+        return word;
+    }
+
+    private static long loadPartialWord(ByteBuffer source, int position, int length) {
+        if (source.limit() - position < length)
+            throw new IndexOutOfBoundsException("Value needs " + length + " bytes, but only " + (source.limit() - position) + " remain");
+
+        long word = 0;
+        for (int i = 0; i < length; i++) word |= (source.get(position + i) & 0xFFL) << (i * 8);
+        return word;
+    }
+
+    /**
+     * Loads the 8 bytes from position, of which remaining are available.
+     */
+    private static long loadFullWord(ByteBuffer source, int position, int remaining) {
+        if (remaining < Long.BYTES)
+            throw new IndexOutOfBoundsException("Value needs 9 bytes, but only " + (remaining + 1) + " remain");
+        return (long) LONG_BUFFER_VIEW.get(source, position);
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.samjakob.protocol_experiments.data;
+
+import static com.samjakob.protocol_experiments.data.GroupControlBytes.*;
+
+/**
+ * A variant of GroupVarInt that stores all the control bytes first, followed
+ * by all the data:
+ *
+ *     [control 0] [control 1] ... [int 0] [int 1] [int 2] [int 3] [int 4] ...
+ *
+ * The control bytes (one per 4 ints, see GroupControlBytes) and the data are
+ * otherwise the same as in GroupVarInt. Keeping them apart means the position
+ * of the next control byte never depends on the length of the previous
+ * group, so the CPU can fetch the next control byte (and look up its offsets)
+ * before the current group has been decoded. The data stream is also just
+ * the values' bytes back to back, with nothing in between.
+ *
+ * As with GroupVarInt, the number of ints isn't stored and must be sent
+ * separately, as the decoder needs it to find where the data stream starts.
+ *
+ * See: Lemire, Kurz and Rupp, "Stream VByte: Faster Byte-Oriented Integer
+ * Compression" (2017).
+ */
+public final class StreamVByte {
+
+    private StreamVByte() {}
+
+    /**
+     * Returns the number of control bytes for count ints, i.e., the offset
+     * from the start of the encoded batch to the start of the data.
+     * @param count The number of ints.
+     * @return The number of control bytes.
+     */
+    public static int controlBytes(int count) {
+        return (count + 3) >>> 2;
+    }
+
+    /**
+     * Returns the most bytes that encode could write for count ints.
+     * @param count The number of ints.
+     * @return The maximum encoded size in bytes.
+     */
+    public static int maxEncodedSize(int count) {
+        return controlBytes(count) + count * Integer.BYTES;
+    }
+
+    /**
+     * Returns the exact number of bytes that encode would write for count
+     * values from values, starting at offset.
+     *
+     * @param values The values to measure.
+     * @param offset The index of the first value.
+     * @param count The number of values.
+     * @return The encoded size in bytes.
+     */
+    public static int encodedSize(int[] values, int offset, int count) {
+        return GroupVarInt.encodedSize(values, offset, count);
+    }
+
+    /**
+     * Encodes count values from source into destination, starting at offset.
+     *
+     * @param source The values to encode (from index 0).
+     * @param destination The array to write the control bytes and data into.
+     *                    This must have room for maxEncodedSize(count) bytes
+     *                    (or exactly encodedSize) from offset.
+     * @param offset The index in destination to write the first byte to.
+     * @param count The number of values to encode.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int encode(int[] source, byte[] destination, int offset, int count) {
+        int controlOffset = offset;
+        int dataOffset = offset + controlBytes(count);
+
+        for (int i = 0; i < count; i += 4) {
+            int result = encodeGroup(source, i, Math.min(4, count - i), destination, dataOffset);
+            destination[controlOffset++] = (byte) result;
+            dataOffset += result >>> 8;
+        }
+
+        return dataOffset;
+    }
+
+    /**
+     * Decodes count ints from source, starting at offset, into destination.
+     *
+     * Whilst there's at least a whole (maximum size) group of data left in
+     * source, each group is decoded with four masked int loads from the
+     * offsets in the lookup table. Close to the end of source, the remaining
+     * groups are decoded a byte at a time so as not to read past the end.
+     *
+     * @param source The array to read the control bytes and data from.
+     * @param offset The index of the first control byte.
+     * @param destination The array to store the values in (from index 0).
+     * @param count The number of ints to read.
+     * @return The new position, i.e., the index immediately after the last
+     * byte of data that was read.
+     */
+    public static int decode(byte[] source, int offset, int[] destination, int count) {
+        int controlOffset = offset;
+        int dataOffset = offset + controlBytes(count);
+        int i = 0;
+
+        while (count - i >= 4 && source.length - dataOffset >= MAX_GROUP_LENGTH) {
+            int control = source[controlOffset++] & 0xFF;
+            dataOffset += decodeGroup(source, dataOffset, control, destination, i);
+            i += 4;
+        }
+
+        while (i < count) {
+            int lanes = Math.min(4, count - i);
+            int control = source[controlOffset++] & 0xFF;
+            dataOffset += decodePartialGroup(source, dataOffset, control, lanes, destination, i);
+            i += lanes;
+        }
+
+        return dataOffset;
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.samjakob.protocol_experiments.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of decoded strings, keyed by their UTF-8 bytes, so that
+ * strings which turn up again and again (channel names, usernames, and so
+ * on) can be decoded without allocating a new String each time.
+ *
+ *     private static final StringCache NAMES = new StringCache(1024, 32);
+ *
+ *     String channel = StringCodec.readString(buffer, NAMES);
+ *
+ * The cache is direct-mapped: each string can only live in the one entry
+ * that its hash picks, and a new string simply replaces whatever was there.
+ * So a lookup is a hash of the bytes, one array read and one comparison,
+ * with no locks and no bookkeeping, and the cache can never hold more than
+ * its fixed number of entries. Two popular strings that happen to share an
+ * entry will keep evicting each other, which is why the table should be a
+ * good deal larger than the number of strings that are expected to repeat.
+ *
+ * Entries are immutable and are replaced with a single reference write, so
+ * the cache can be shared between threads without any synchronisation -
+ * at worst, two threads that miss at the same time both decode the string.
+ */
+public final class StringCache {
+
+    private static final class Entry {
+
+        private final byte[] bytes;
+
+        private final String value;
+
+        private Entry(byte[] bytes, String value) {
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+    }
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param entries The number of entries, which must be a power of 2.
+     * @param maxLength The longest string (in UTF-8 bytes) that is cached.
+     *                  Longer strings are decoded as normal.
+     */
+    public StringCache(int entries, int maxLength) {
+        if (entries < 1 || Integer.bitCount(entries) != 1)
+            throw new IllegalArgumentException("The number of entries must be a power of 2");
+        if (maxLength < 0)
+            throw new IllegalArgumentException("Maximum length must not be negative");
+
+        this.entries = new Entry[entries];
+        this.mask = entries - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the string encoded by length bytes of UTF-8 in source, from
+     * offset - from the cache if it's there, otherwise decoding (and, if it's
+     * short enough, caching) it.
+     *
+     * @param source The array containing the string.
+     * @param offset The index of the first byte of the string.
+     * @param length The length of the string in bytes.
+     * @return The decoded string.
+     */
+    public String get(byte[] source, int offset, int length) {
+        if (length > this.maxLength) return StringCodec.decode(source, offset, length);
+
+        int index = hash(source, offset, length) & this.mask;
+        Entry entry = this.entries[index];
+
+        if (entry != null && Arrays.equals(entry.bytes, 0, entry.bytes.length, source, offset, offset + length)) {
+            this.hits.increment();
+            return entry.value;
+        }
+
+        this.misses.increment();
+        byte[] bytes = Arrays.copyOfRange(source, offset, offset + length);
+        String value = StringCodec.decode(bytes, 0, length);
+        this.entries[index] = new Entry(bytes, value);
+        return value;
+    }
+
+    /**
+     * Returns the number of lookups (of cacheable strings) that were found
+     * in the cache.
+     * @return The number of hits.
+     */
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups (of cacheable strings) that had to decode
+     * the string.
+     * @return The number of misses.
+     */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(this.entries, null);
+    }
+
+    /**
+     * FNV-1a over the bytes, with the high bits mixed down so that the low
+     * bits used for the index depend on every byte.
+     */
+    private static int hash(byte[] source, int offset, int length) {
+        int hash = 0x811C_9DC5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (source[offset + i] & 0xFF)) * 0x0100_0193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,438 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed strings and byte arrays: a VarInt holding the number of
+ * bytes, followed by the bytes themselves (UTF-8, for strings).
+ *
+ * Writing never goes through String#getBytes. The UTF-8 length is worked
+ * out first, so the prefix can be written before the body, and the body is
+ * then encoded straight into the destination - directly into a ByteSink's
+ * backing array, or in chunks through a per-thread scratch array for any
+ * other WriterInterface (rather than one writeByte call per byte).
+ *
+ * Most protocol strings are plain ASCII, so when writing, the leading run
+ * of ASCII characters is found with one tight loop and copied with a single
+ * bulk copy; only the rest of the string (if any) is encoded a character at
+ * a time. Reading needs no fast path of its own: new String(..., UTF_8)
+ * already checks for ASCII with an intrinsic and then makes a plain copy
+ * into a compact (Latin-1) String, so checking first would only make
+ * non-ASCII strings pay for a second pass.
+ *
+ * Strings that are read over and over again (channel names, usernames, and
+ * so on) can be looked up in a StringCache instead, so that decoding them
+ * doesn't allocate at all.
+ *
+ * Unpaired surrogates are written as '?', as String#getBytes does, and
+ * malformed UTF-8 is decoded with replacement characters, as new String
+ * does.
+ */
+public final class StringCodec {
+
+    /**
+     * The number of characters that writeString encodes into the scratch
+     * array at a time for writers other than ByteSink. At 3 bytes per
+     * character (plus one more for a surrogate pair split across the end),
+     * this fits in SCRATCH_SIZE.
+     */
+    private static final int CHUNK_CHARS = 128;
+
+    private static final int SCRATCH_SIZE = 512;
+
+    /**
+     * Strings longer than this (in bytes) are read into a new array, rather
+     * than the scratch array being grown to fit them.
+     */
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final long HIGH_BITS = 0x8080_8080_8080_8080L;
+
+    /**
+     * The longest string or byte array (in bytes) that the ReaderInterface
+     * readers accept unless given a limit of their own. A reader (unlike a
+     * ByteBuffer) can't say how much is still to come, so without a limit a
+     * peer could claim a length of up to 2 GiB and have it allocated.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 8 * 1024 * 1024;
+
+    private static final VarHandle LONG_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    private StringCodec() {}
+
+    // ---- Measuring ----
+
+    /**
+     * Returns the number of bytes needed to encode value in UTF-8.
+     * @param value The string to measure.
+     * @return The length of the string in UTF-8.
+     */
+    public static int utf8Length(String value) {
+        int ascii = asciiPrefixLength(value);
+        return ascii == value.length() ? ascii : utf8Length(value, ascii);
+    }
+
+    /**
+     * Returns the number of bytes writeString will write for value, i.e., the
+     * length prefix plus the UTF-8 encoded string.
+     * @param value The string to measure.
+     * @return The encoded size in bytes.
+     */
+    public static int stringSize(String value) {
+        int length = utf8Length(value);
+        return VarLengthNumbers.varIntSize(length) + length;
+    }
+
+    public static int bytesSize(byte[] value) {
+        return VarLengthNumbers.varIntSize(value.length) + value.length;
+    }
+
+    /**
+     * Whether the length bytes of source from offset are all ASCII (i.e., have
+     * their top bit clear), checked 8 bytes at a time.
+     *
+     * @param source The array to check.
+     * @param offset The index of the first byte to check.
+     * @param length The number of bytes to check.
+     * @return True if every byte is less than 0x80.
+     */
+    public static boolean isAscii(byte[] source, int offset, int length) {
+        int end = offset + length;
+        long bits = 0;
+
+        for (; end - offset >= Long.BYTES; offset += Long.BYTES) {
+            bits |= (long) LONG_ARRAY_VIEW.get(source, offset);
+        }
+        for (; offset < end; offset++) bits |= source[offset];
+
+        // Every byte with its top bit set has been OR-ed in, so checking the
+        // top bit of each lane (and the sign of any trailing bytes, which
+        // were sign-extended) is enough.
+        return (bits & HIGH_BITS) == 0;
+    }
+
+    // ---- Writing ----
+
+    /**
+     * Writes the length of value in UTF-8 (as a VarInt), followed by value
+     * itself in UTF-8, without creating an intermediate byte[].
+     *
+     * @param destination The array to write the string into.
+     * @param offset The index of the first byte to write.
+     * @param value The string to write.
+     * @return The new position, i.e., the index after the last byte written.
+     */
+    public static int writeString(byte[] destination, int offset, String value) {
+        int ascii = asciiPrefixLength(value);
+        int length = ascii == value.length() ? ascii : utf8Length(value, ascii);
+
+        offset = VarLengthNumbers.writeVarInt(destination, offset, length);
+        return encode(value, ascii, destination, offset);
+    }
+
+    /**
+     * Writes the length of value in UTF-8 (as a VarInt), followed by value
+     * itself in UTF-8.
+     *
+     * A ByteSink is grown (at most once) to fit the whole string, which is
+     * then encoded straight into its backing array. Other writers are given
+     * the encoded string a chunk at a time with writeBytes.
+     *
+     * @param writer The writer to write the string to.
+     * @param value The string to write.
+     */
+    public static void writeString(WriterInterface writer, String value) {
+        int ascii = asciiPrefixLength(value);
+        int length = ascii == value.length() ? ascii : utf8Length(value, ascii);
+
+        if (writer instanceof ByteSink) {
+            ByteSink sink = (ByteSink) writer;
+            int size = VarLengthNumbers.varIntSize(length) + length;
+            int start = sink.reserve(size);
+            encode(value, ascii, sink.array(), VarLengthNumbers.writeVarInt(sink.array(), start, length));
+
+            if (CodecMetrics.ENABLED) CodecMetrics.recordBytesWritten(size);
+            return;
+        }
+
+        VarLengthNumbers.writeVarInt(writer, length);
+
+        byte[] scratch = SCRATCH.get();
+        for (int from = 0; from < value.length(); ) {
+            int to = Math.min(from + CHUNK_CHARS, value.length());
+
+            // Don't split a surrogate pair across two chunks.
+            if (to < value.length() && Character.isHighSurrogate(value.charAt(to - 1))) to++;
+
+            int end = encodeRange(value, from, to, scratch, 0);
+            writer.writeBytes(scratch, 0, end);
+            from = to;
+        }
+    }
+
+    public static int writeBytes(byte[] destination, int offset, byte[] value) {
+        offset = VarLengthNumbers.writeVarInt(destination, offset, value.length);
+        System.arraycopy(value, 0, destination, offset, value.length);
+        return offset + value.length;
+    }
+
+    public static void writeBytes(WriterInterface writer, byte[] value) {
+        VarLengthNumbers.writeVarInt(writer, value.length);
+        writer.writeBytes(value);
+    }
+
+    // ---- Reading ----
+
+    /**
+     * Decodes length bytes of UTF-8 from source, starting at offset.
+     *
+     * @param source The array containing the string.
+     * @param offset The index of the first byte of the string.
+     * @param length The length of the string in bytes.
+     * @return The decoded string.
+     */
+    public static String decode(byte[] source, int offset, int length) {
+        return new String(source, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An alias for readString(source, null);
+     */
+    public static String readString(ByteBuffer source) {
+        return readString(source, null);
+    }
+
+    /**
+     * Reads a string written by writeString from the source buffer's
+     * position, and advances the position past it.
+     *
+     * @param source The buffer to read the string from.
+     * @param cache The cache to look the string up in, or null.
+     * @return The decoded string.
+     */
+    public static String readString(ByteBuffer source, StringCache cache) {
+        int start = source.position();
+        int length = VarLengthNumbers.readVarInt(source);
+        if (length < 0 || length > source.remaining()) {
+            source.position(start);
+            throw new IndexOutOfBoundsException("Invalid string length: " + Integer.toUnsignedString(length));
+        }
+
+        int position = source.position();
+        String value;
+        if (source.hasArray()) {
+            value = lookup(source.array(), source.arrayOffset() + position, length, cache);
+        } else {
+            byte[] bytes = scratch(length);
+            source.get(position, bytes, 0, length);
+            value = lookup(bytes, 0, length, cache);
+        }
+
+        source.position(position + length);
+        return value;
+    }
+
+    /**
+     * An alias for readString(reader, null);
+     */
+    public static String readString(ReaderInterface reader) {
+        return readString(reader, null);
+    }
+
+    /**
+     * An alias for readString(reader, cache, DEFAULT_MAX_LENGTH);
+     */
+    public static String readString(ReaderInterface reader, StringCache cache) {
+        return readString(reader, cache, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Reads a string written by writeString from reader. The bytes are read
+     * with a single readBytes call (into a per-thread scratch array, unless
+     * the string is very long), so a streaming reader fetches as much as it
+     * needs and a string cut short by the end of the stream fails there.
+     *
+     * @param reader The reader to read the string from.
+     * @param cache The cache to look the string up in, or null.
+     * @param maxLength The longest string (in bytes) to accept.
+     * @return The decoded string.
+     * @throws IndexOutOfBoundsException If the length is negative or longer
+     * than maxLength.
+     */
+    public static String readString(ReaderInterface reader, StringCache cache, int maxLength) {
+        int length = readLength(reader, maxLength, "string");
+
+        byte[] bytes = scratch(length);
+        reader.readBytes(bytes, 0, length);
+        return lookup(bytes, 0, length, cache);
+    }
+
+    public static byte[] readBytes(ByteBuffer source) {
+        int start = source.position();
+        int length = VarLengthNumbers.readVarInt(source);
+        if (length < 0 || length > source.remaining()) {
+            source.position(start);
+            throw new IndexOutOfBoundsException("Invalid byte array length: " + Integer.toUnsignedString(length));
+        }
+
+        byte[] value = new byte[length];
+        source.get(value);
+        return value;
+    }
+
+    /**
+     * An alias for readBytes(reader, DEFAULT_MAX_LENGTH);
+     */
+    public static byte[] readBytes(ReaderInterface reader) {
+        return readBytes(reader, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Reads a byte array written by writeBytes from reader.
+     *
+     * @param reader The reader to read the array from.
+     * @param maxLength The longest array to accept.
+     * @return The bytes.
+     * @throws IndexOutOfBoundsException If the length is negative or longer
+     * than maxLength.
+     */
+    public static byte[] readBytes(ReaderInterface reader, int maxLength) {
+        int length = readLength(reader, maxLength, "byte array");
+
+        byte[] value = new byte[length];
+        reader.readBytes(value);
+        return value;
+    }
+
+    // ---- Internals ----
+
+    /**
+     * Reads a length prefix from reader, checking it against maxLength
+     * rather than reader.remaining() - which, for a streaming reader, is only
+     * what happens to be buffered so far.
+     */
+    private static int readLength(ReaderInterface reader, int maxLength, String kind) {
+        int length = VarLengthNumbers.readVarInt(reader);
+        if (length < 0 || length > maxLength) {
+            throw new IndexOutOfBoundsException(
+                "Invalid " + kind + " length: " + Integer.toUnsignedString(length) + " (the maximum is " + maxLength + ")"
+            );
+        }
+        return length;
+    }
+
+    private static String lookup(byte[] source, int offset, int length, StringCache cache) {
+        return cache != null ? cache.get(source, offset, length) : decode(source, offset, length);
+    }
+
+    /**
+     * Returns this thread's scratch array, grown to fit length bytes, or a
+     * new array if length is too big to keep around.
+     */
+    private static byte[] scratch(int length) {
+        if (length > MAX_SCRATCH_SIZE) return new byte[length];
+
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * Returns the number of characters at the start of value that are ASCII.
+     */
+    private static int asciiPrefixLength(String value) {
+        int i = 0;
+        while (i < value.length() && value.charAt(i) < 0x80) i++;
+        return i;
+    }
+
+    /**
+     * Returns the UTF-8 length of value, given that the first ascii
+     * characters are ASCII (and so take one byte each).
+     */
+    private static int utf8Length(String value, int ascii) {
+        int length = value.length();
+
+        for (int i = ascii; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) continue;
+
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isSurrogate(c)) {
+                // A valid pair is 2 chars and 4 bytes. An unpaired surrogate
+                // is written as a single '?'.
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 2;
+                    i++;
+                }
+            } else {
+                length += 2;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Encodes value into destination, given that the first ascii characters
+     * are ASCII, and returns the new position.
+     */
+    @SuppressWarnings("deprecation")
+    private static int encode(String value, int ascii, byte[] destination, int offset) {
+        // The deprecated getBytes copies the low byte of each character, which
+        // is exactly right for ASCII - and, for a compact (Latin-1) string,
+        // is a single array copy.
+        value.getBytes(0, ascii, destination, offset);
+        return encodeRange(value, ascii, value.length(), destination, offset + ascii);
+    }
+
+    /**
+     * Encodes the characters of value from index from (inclusive) to to
+     * (exclusive) into destination, and returns the new position.
+     */
+    private static int encodeRange(String value, int from, int to, byte[] destination, int offset) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                destination[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                destination[offset++] = (byte) (0xC0 | (c >>> 6));
+                destination[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    destination[offset++] = (byte) (0xF0 | (codePoint >>> 18));
+                    destination[offset++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                    destination[offset++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                    destination[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    destination[offset++] = '?';
+                }
+            } else {
+                destination[offset++] = (byte) (0xE0 | (c >>> 12));
+                destination[offset++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                destination[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return offset;
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.samjakob.protocol_experiments.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A VarInt decoder that can be fed bytes as they arrive, e.g., from a
+ * non-blocking socket where a VarInt (such as a length prefix) may be split
+ * across two or more reads.
+ *
+ * VarLengthNumbers#readVarInt assumes the whole value is available, whereas
+ * this keeps the partially decoded value (and how many bytes of it have been
+ * seen) between calls, so nothing needs to be buffered or re-scanned:
+ *
+ *     long result = decoder.decode(buffer);
+ *     if (result == VarIntDecoder.NEED_MORE) return; // wait for more data
+ *     int length = (int) result;
+ *
+ * The same rules as readVarInt apply, so an invalid VarInt throws a
+ * VarIntFormatException (and resets the decoder).
+ */
+public class VarIntDecoder {
+
+    /**
+     * Returned by decode when the VarInt isn't complete yet. This is outside
+     * the range of an int, so it can't be confused with a decoded value.
+     */
+    public static final long NEED_MORE = Long.MIN_VALUE;
+
+    /**
+     * The value decoded from the bytes seen so far.
+     */
+    private int value;
+
+    /**
+     * The number of bytes of the current VarInt seen so far.
+     */
+    private int byteIndex;
+
+    /**
+     * Consumes bytes from source until either a VarInt is complete, or source
+     * runs out. Only the bytes belonging to the VarInt are consumed, so any
+     * following data is left in source.
+     *
+     * @param source The bytes that are available so far.
+     * @return The decoded value, or NEED_MORE if source ran out first.
+     */
+    public long decode(ByteBuffer source) {
+        // If we're not part-way through a VarInt and the whole thing is
+        // definitely available, there's no need to track any state.
+        if (this.byteIndex == 0 && source.remaining() >= 5) {
+            return VarLengthNumbers.readVarInt(source);
+        }
+
+        while (source.hasRemaining()) {
+            long result = decode(source.get());
+            if (result != NEED_MORE) return result;
+        }
+
+        return NEED_MORE;
+    }
+
+    /**
+     * Feeds a single byte to the decoder.
+     *
+     * @param currentByte The next byte of the VarInt.
+     * @return The decoded value if currentByte was the last byte of the
+     * VarInt, otherwise NEED_MORE.
+     */
+    public long decode(byte currentByte) {
+        // See VarLengthNumbers#readVarInt(ReaderInterface) for an
+        // explanation of the checks.
+        this.value |= (currentByte & 0b0111_1111) << (this.byteIndex * 7);
+        this.byteIndex++;
+
+        if (this.byteIndex == 5 && (currentByte & 0b1111_0000) != 0) {
+            reset();
+            throw VarIntFormatException.invalidVarInt();
+        }
+
+        if ((currentByte & 0b1000_0000) != 0) return NEED_MORE;
+
+        int result = this.value;
+        reset();
+        return result;
+    }
+
+    /**
+     * Whether some, but not all, of a VarInt has been decoded.
+     * @return True if the decoder is waiting for the rest of a VarInt.
+     */
+    public boolean isPartial() {
+        return this.byteIndex != 0;
+    }
+
+    /**
+     * Discards any partially decoded VarInt.
+     */
+    public void reset() {
+        this.value = 0;
+        this.byteIndex = 0;
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+
+/**
+ * Thrown when a VarInt or VarLong is malformed, e.g., it's too long or its
+ * last byte has more bits set than fit in an int (or long).
+ *
+ * Malformed input usually comes from a broken or hostile peer, where a stack
+ * trace wouldn't tell us anything useful, so this exception doesn't capture
+ * one. That (plus the shared instances below) means throwing it doesn't
+ * allocate anything, so a flood of garbage input can't turn into a flood of
+ * exceptions to collect.
+ *
+ * This extends RuntimeException, so existing code that catches a
+ * RuntimeException from readVarInt or readVarLong continues to work. To
+ * avoid exceptions altogether, use VarLengthNumbers#tryReadVarInt and
+ * VarLengthNumbers#tryReadVarLong.
+ */
+public class VarIntFormatException extends RuntimeException {
+
+    /**
+     * Thrown for any invalid VarInt.
+     */
+    public static final VarIntFormatException INVALID_VAR_INT = new VarIntFormatException("Invalid VarInt");
+
+    /**
+     * Thrown for any invalid VarLong.
+     */
+    public static final VarIntFormatException INVALID_VAR_LONG = new VarIntFormatException("Invalid VarLong");
+
+    /**
+     * Returns INVALID_VAR_INT, having counted it in CodecMetrics (if metrics
+     * are enabled). Codecs should throw this rather than the field directly.
+     * @return The shared exception for invalid VarInts.
+     */
+    public static VarIntFormatException invalidVarInt() {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordInvalidInput();
+        return INVALID_VAR_INT;
+    }
+
+    /**
+     * Returns INVALID_VAR_LONG, having counted it in CodecMetrics (if metrics
+     * are enabled).
+     * @return The shared exception for invalid VarLongs.
+     */
+    public static VarIntFormatException invalidVarLong() {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordInvalidInput();
+        return INVALID_VAR_LONG;
+    }
+
+    /**
+     * Creates an exception without a stack trace or suppressed exceptions.
+     * As neither can be added later, a single instance can safely be thrown
+     * from many places (and threads) at once.
+     *
+     * @param message The detail message.
+     */
+    public VarIntFormatException(String message) {
+        super(message, null, false, false);
+    }
+
+}
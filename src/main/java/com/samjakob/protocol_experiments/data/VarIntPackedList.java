@@ -0,0 +1,368 @@
+package com.samjakob.protocol_experiments.data;
+
+import java.util.NoSuchElementException;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * An immutable list of ints or longs, stored in memory as VarLongs rather
+ * than as a plain int[] or long[], which usually takes several times less
+ * heap.
+ *
+ * The values are split into blocks of BLOCK_SIZE. The first value of each
+ * block (its 'base') and the offset of the block's data are kept in a small
+ * skip index; the rest of the block is stored as the difference from the
+ * previous value:
+ *
+ * - If the values are sorted (in ascending order), the differences are never
+ *   negative, so are stored as plain VarLongs. Large sorted tables of IDs or
+ *   timestamps usually only need 1 or 2 bytes per value this way.
+ * - Otherwise, the differences are ZigZag encoded first (as in writeSVarLong),
+ *   so that nearby values - in either direction - still take few bytes.
+ *
+ * get(i) looks up the block in the skip index and decodes at most
+ * BLOCK_SIZE - 1 values from there. Reading the values in order should be
+ * done with a Cursor instead, which decodes each value once and doesn't
+ * allocate anything per value. For sorted lists, Cursor#advanceTo uses the
+ * skip index to jump straight to the block that might contain the target.
+ */
+public final class VarIntPackedList {
+
+    /**
+     * The number of values in each block (except perhaps the last). Larger
+     * blocks mean a smaller skip index, but a slower get(i).
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    private static final int BLOCK_SHIFT = 7;
+
+    private static final VarIntPackedList EMPTY = new VarIntPackedList(new byte[0], new int[0], new long[0], 0, true);
+
+    /**
+     * The VarLong encoded differences, block after block. The first value of
+     * each block isn't stored here, as it's in blockBases.
+     */
+    private final byte[] data;
+
+    /**
+     * The index in data of the first difference in each block.
+     */
+    private final int[] blockOffsets;
+
+    /**
+     * The first value of each block.
+     */
+    private final long[] blockBases;
+
+    private final int size;
+
+    private final boolean sorted;
+
+    private VarIntPackedList(byte[] data, int[] blockOffsets, long[] blockBases, int size, boolean sorted) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.blockBases = blockBases;
+        this.size = size;
+        this.sorted = sorted;
+    }
+
+    /**
+     * Packs a copy of values. Whether the values are sorted is detected
+     * automatically.
+     * @param values The values to store.
+     * @return The packed list.
+     */
+    public static VarIntPackedList of(int[] values) {
+        long[] widened = new long[values.length];
+        for (int i = 0; i < values.length; i++) widened[i] = values[i];
+        return of(widened);
+    }
+
+    /**
+     * Packs a copy of values. Whether the values are sorted is detected
+     * automatically.
+     * @param values The values to store.
+     * @return The packed list.
+     */
+    public static VarIntPackedList of(long[] values) {
+        if (values.length == 0) return EMPTY;
+
+        boolean sorted = true;
+        for (int i = 1; i < values.length && sorted; i++) sorted = values[i - 1] <= values[i];
+
+        int blocks = (values.length + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int[] blockOffsets = new int[blocks];
+        long[] blockBases = new long[blocks];
+
+        // Measure first, so that data is allocated once at exactly the right
+        // size.
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if ((i & (BLOCK_SIZE - 1)) != 0) size += varLongSize(difference(values[i - 1], values[i], sorted));
+        }
+
+        byte[] data = new byte[size];
+        int offset = 0;
+        for (int i = 0; i < values.length; i++) {
+            if ((i & (BLOCK_SIZE - 1)) == 0) {
+                blockOffsets[i >>> BLOCK_SHIFT] = offset;
+                blockBases[i >>> BLOCK_SHIFT] = values[i];
+            } else {
+                offset = writeVarLong(data, offset, difference(values[i - 1], values[i], sorted));
+            }
+        }
+
+        return new VarIntPackedList(data, blockOffsets, blockBases, values.length, sorted);
+    }
+
+    /**
+     * Returns the number of values in the list.
+     * @return The size of the list.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Whether the values are in ascending order, in which case advanceTo can
+     * be used.
+     * @return True if the list is sorted.
+     */
+    public boolean isSorted() {
+        return this.sorted;
+    }
+
+    /**
+     * Returns the approximate number of bytes of heap used for the values,
+     * i.e., the encoded data plus the skip index.
+     * @return The size of the packed data in bytes.
+     */
+    public long sizeInBytes() {
+        return this.data.length + (long) this.blockOffsets.length * (Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Returns the value at index. This decodes up to BLOCK_SIZE - 1 values,
+     * so use a Cursor to read many values in order.
+     *
+     * @param index The index of the value.
+     * @return The value.
+     */
+    public long get(int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + this.size);
+
+        int block = index >>> BLOCK_SHIFT;
+        long value = this.blockBases[block];
+        int offset = this.blockOffsets[block];
+
+        for (int i = index & (BLOCK_SIZE - 1); i > 0; i--) {
+            long encoded = readVarLong(this.data, offset);
+            offset += varLongSize(encoded);
+            value = apply(value, encoded, this.sorted);
+        }
+
+        return value;
+    }
+
+    /**
+     * An alias for (int) get(index), for lists that were created from an
+     * int[].
+     * @param index The index of the value.
+     * @return The value.
+     */
+    public int getInt(int index) {
+        return (int) get(index);
+    }
+
+    /**
+     * Returns a new Cursor positioned before the first value.
+     * @return A cursor over the list.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decodes every value into a new array.
+     * @return The values.
+     */
+    public long[] toLongArray() {
+        long[] result = new long[this.size];
+        Cursor cursor = cursor();
+        for (int i = 0; i < result.length; i++) result[i] = cursor.next();
+        return result;
+    }
+
+    /**
+     * Decodes every value into a new array, casting each to an int.
+     * @return The values.
+     */
+    public int[] toIntArray() {
+        int[] result = new int[this.size];
+        Cursor cursor = cursor();
+        for (int i = 0; i < result.length; i++) result[i] = (int) cursor.next();
+        return result;
+    }
+
+    /**
+     * The value that is stored for current, given the value before it.
+     */
+    private static long difference(long previous, long current, boolean sorted) {
+        // For sorted values the difference is never negative (unless it
+        // overflows, which still round-trips as the addition in apply
+        // overflows back).
+        return sorted ? current - previous : encodeZigZag(current - previous);
+    }
+
+    /**
+     * Reverses difference, giving the value after previous.
+     */
+    private static long apply(long previous, long encoded, boolean sorted) {
+        return previous + (sorted ? encoded : decodeZigZag(encoded));
+    }
+
+    /**
+     * Reads the values of a VarIntPackedList in order, decoding each of them
+     * only once. A Cursor is not thread-safe, but any number of them can be
+     * used on the same list at once.
+     *
+     *     var cursor = list.cursor();
+     *     while (cursor.hasNext()) process(cursor.next());
+     */
+    public final class Cursor {
+
+        /**
+         * The index of the value that next() will return.
+         */
+        private int index;
+
+        /**
+         * The index in data of the encoded value at index (unless index is
+         * the start of a block).
+         */
+        private int offset;
+
+        /**
+         * The value before index (unless index is the start of a block).
+         */
+        private long previous;
+
+        private Cursor() {}
+
+        /**
+         * Whether there are any more values.
+         * @return True if next() can be called.
+         */
+        public boolean hasNext() {
+            return this.index < size;
+        }
+
+        /**
+         * Returns the index of the value that next() will return.
+         * @return The index of the next value (or size, at the end).
+         */
+        public int nextIndex() {
+            return this.index;
+        }
+
+        /**
+         * Returns the next value and moves past it.
+         * @return The next value.
+         * @throws NoSuchElementException If there are no more values.
+         */
+        public long next() {
+            if (this.index >= size) throw new NoSuchElementException();
+
+            long value;
+            if ((this.index & (BLOCK_SIZE - 1)) == 0) {
+                int block = this.index >>> BLOCK_SHIFT;
+                value = blockBases[block];
+                this.offset = blockOffsets[block];
+            } else {
+                long encoded = readVarLong(data, this.offset);
+                this.offset += varLongSize(encoded);
+                value = apply(this.previous, encoded, sorted);
+            }
+
+            this.previous = value;
+            this.index++;
+            return value;
+        }
+
+        /**
+         * An alias for (int) next(), for lists that were created from an
+         * int[].
+         * @return The next value.
+         */
+        public int nextInt() {
+            return (int) next();
+        }
+
+        /**
+         * Moves the cursor so that next() returns the value at index.
+         * @param index The index of the next value to read, from 0 to size.
+         */
+        public void seek(int index) {
+            if (index < 0 || index > size)
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size);
+
+            // Go to the start of the block and read forwards from there.
+            this.index = index & -BLOCK_SIZE;
+            while (this.index < index) next();
+        }
+
+        /**
+         * For sorted lists, moves the cursor forwards so that next() returns
+         * the first value (at or after the current position) that is greater
+         * than or equal to target.
+         *
+         * Any blocks that are entirely less than target are skipped using the
+         * skip index, without decoding them.
+         *
+         * @param target The value to search for.
+         * @return True if such a value was found, or false if the cursor
+         * reached the end of the list.
+         * @throws IllegalStateException If the list isn't sorted.
+         */
+        public boolean advanceTo(long target) {
+            if (!sorted) throw new IllegalStateException("advanceTo can only be used on a sorted list");
+            if (this.index >= size) return false;
+
+            // Binary search for the first block whose base is at least target.
+            // The first value >= target is either that base, or somewhere in
+            // the block before it (whose base is less than target), so the
+            // search can start from there. Blocks before the current one are
+            // never considered.
+            int currentBlock = this.index >>> BLOCK_SHIFT;
+            int low = currentBlock + 1;
+            int high = blockBases.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (blockBases[middle] < target) low = middle + 1;
+                else high = middle;
+            }
+
+            int block = low - 1;
+            if (block > currentBlock) this.index = block << BLOCK_SHIFT;
+
+            while (this.index < size) {
+                int start = this.index;
+                long previous = this.previous;
+                int offset = this.offset;
+
+                if (next() >= target) {
+                    // Step back, so that next() returns this value again.
+                    this.index = start;
+                    this.previous = previous;
+                    this.offset = offset;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+}
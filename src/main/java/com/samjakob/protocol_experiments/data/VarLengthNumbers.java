@@ -2,6 +2,13 @@ package com.samjakob.protocol_experiments.data;
 
 import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
 import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Contains a reference implementation for ChungusChat's VarInt and VarLong.
@@ -15,8 +22,30 @@ import com.samjakob.protocol_experiments.interfaces.WriterInterface;
  * implementation for VarInts where negative numbers require the maximum
  * length.
  *
+ * Where negative numbers are common (e.g., deltas), the SVarInt and SVarLong
+ * ('signed') variants first apply ZigZag encoding, which maps numbers of a
+ * small magnitude - positive or negative - to small positive numbers:
+ * 0 -> 0, -1 -> 1, 1 -> 2, -2 -> 3, and so on. This means -1 takes 1 byte
+ * instead of 5 (or 10), at the cost of positive numbers needing one more bit.
+ *
  * For more information see:
  * https://wiki.vg/Protocol#VarInt_and_VarLong
+ *
+ * As well as the ReaderInterface/WriterInterface versions (which make one
+ * interface call per byte), there are overloads that work directly on a
+ * byte[] with an offset, or on a ByteBuffer (heap or direct), that avoid the
+ * per-byte virtual call entirely. A direct ByteBuffer covers the off-heap
+ * (e.g., memory-mapped or native) case.
+ *
+ * When at least 8 bytes remain, the byte[] and ByteBuffer readers load a
+ * whole (little-endian) long at once and find the end of the value without
+ * looping. Close to the end of the data, they fall back to reading one byte
+ * at a time.
+ *
+ * The readers throw a (stackless, pre-allocated) VarIntFormatException for
+ * malformed input. For untrusted input, the tryRead methods report malformed
+ * or truncated input with a status code instead, without throwing or
+ * allocating anything.
  */
 public class VarLengthNumbers {
 
@@ -31,7 +60,41 @@ public class VarLengthNumbers {
      */
     private static final byte SEGMENT_BITS   = ~CONTINUE_BIT;
 
+    /**
+     * The continuation bit of each of the 8 bytes in a long, i.e.,
+     * 0b1000_0000 repeated 8 times.
+     */
+    private static final long CONTINUE_BITS  = 0x8080_8080_8080_8080L;
+
+    /**
+     * Returned by the tryRead and validate methods when the input ends before
+     * the VarInt (or VarLong) does. More input might make it valid.
+     */
+    public static final int TRUNCATED = -1;
+
+    /**
+     * Returned by the tryRead and validate methods when the VarInt (or
+     * VarLong) is invalid, regardless of what follows it.
+     */
+    public static final int MALFORMED = -2;
+
+    /**
+     * Allows reading 8 bytes out of a byte[] as a single little-endian long,
+     * at any (unaligned) offset.
+     */
+    private static final VarHandle LONG_ARRAY_VIEW =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * As with LONG_ARRAY_VIEW, but for heap or direct ByteBuffers. The
+     * buffer's own byte order is ignored.
+     */
+    private static final VarHandle LONG_BUFFER_VIEW =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
     public static void writeVarInt(WriterInterface writer, int value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntWritten(value);
+
         do {
             // Start by writing the value. This automatically handles the edge
             // case where value = 0.
@@ -58,6 +121,8 @@ public class VarLengthNumbers {
     }
 
     public static void writeVarLong(WriterInterface writer, long value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarLongWritten(value);
+
         do {
             // Start by writing the value. This automatically handles the edge
             // case where value = 0.
@@ -122,11 +187,11 @@ public class VarLengthNumbers {
             //                             │ byte of a VarLong.               │
             //                             └───────────────────┬──────────────┘
             if (currentByteIndex == 5 && (currentByte & 0b1111_0000) != 0)
-                throw new RuntimeException("Invalid VarInt");
+                throw VarIntFormatException.invalidVarInt();
 
         } while ((currentByte & CONTINUE_BIT) != 0);
 
-        return value;
+        return countedVarInt(value);
     }
 
     public static long readVarLong(ReaderInterface reader) {
@@ -172,11 +237,1067 @@ public class VarLengthNumbers {
             //                             │ byte of a VarLong.               │
             //                             └───────────────────────┬──────────┘
             if (currentByteIndex == 10 && (currentByte & 0b1111_1110) != 0)
-                throw new RuntimeException("Invalid VarLong");
+                throw VarIntFormatException.invalidVarLong();
 
         } while ((currentByte & CONTINUE_BIT) != 0);
 
+        return countedVarLong(value);
+    }
+
+    /**
+     * Writes value as a VarInt into destination, starting at offset.
+     *
+     * @param destination The array to write the VarInt into.
+     * @param offset The index of the first byte of the VarInt.
+     * @param value The value to write.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int writeVarInt(byte[] destination, int offset, int value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntWritten(value);
+
+        // Same as the WriterInterface version, except that we can hoist the
+        // final byte (which never has the continuation bit set) out of the
+        // loop.
+        while ((value & ~SEGMENT_BITS) != 0) {
+            destination[offset++] = (byte) ((value & SEGMENT_BITS) | CONTINUE_BIT);
+            value >>>= 7;
+        }
+
+        destination[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Writes value as a VarLong into destination, starting at offset.
+     *
+     * @param destination The array to write the VarLong into.
+     * @param offset The index of the first byte of the VarLong.
+     * @param value The value to write.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int writeVarLong(byte[] destination, int offset, long value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarLongWritten(value);
+
+        while ((value & ~SEGMENT_BITS) != 0) {
+            destination[offset++] = (byte) ((value & SEGMENT_BITS) | CONTINUE_BIT);
+            value >>>= 7;
+        }
+
+        destination[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Writes value as a VarInt at the destination buffer's position and
+     * advances the position past it.
+     *
+     * If there isn't enough space left in the buffer, an
+     * IndexOutOfBoundsException is thrown and the position is left unchanged.
+     *
+     * @param destination The buffer to write the VarInt into.
+     * @param value The value to write.
+     * @return The number of bytes written.
+     */
+    public static int writeVarInt(ByteBuffer destination, int value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntWritten(value);
+
+        // Absolute puts are used so that the position is only updated once,
+        // after the whole value has been written.
+        int start = destination.position();
+        int position = start;
+
+        while ((value & ~SEGMENT_BITS) != 0) {
+            destination.put(position++, (byte) ((value & SEGMENT_BITS) | CONTINUE_BIT));
+            value >>>= 7;
+        }
+
+        destination.put(position++, (byte) value);
+        destination.position(position);
+        return position - start;
+    }
+
+    /**
+     * Writes value as a VarLong at the destination buffer's position and
+     * advances the position past it.
+     *
+     * If there isn't enough space left in the buffer, an
+     * IndexOutOfBoundsException is thrown and the position is left unchanged.
+     *
+     * @param destination The buffer to write the VarLong into.
+     * @param value The value to write.
+     * @return The number of bytes written.
+     */
+    public static int writeVarLong(ByteBuffer destination, long value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarLongWritten(value);
+
+        int start = destination.position();
+        int position = start;
+
+        while ((value & ~SEGMENT_BITS) != 0) {
+            destination.put(position++, (byte) ((value & SEGMENT_BITS) | CONTINUE_BIT));
+            value >>>= 7;
+        }
+
+        destination.put(position++, (byte) value);
+        destination.position(position);
+        return position - start;
+    }
+
+    /**
+     * Reads the VarInt starting at offset in source.
+     *
+     * As a Java method can only return one value, this doesn't report where
+     * the VarInt ended. If you're reading sequentially, either use
+     * skipVarInt to find the start of the next value, or wrap the array in a
+     * ByteBuffer (which doesn't copy it) and use readVarInt(ByteBuffer).
+     *
+     * @param source The array to read the VarInt from.
+     * @param offset The index of the first byte of the VarInt.
+     * @return The decoded value.
+     */
+    public static int readVarInt(byte[] source, int offset) {
+        if (source.length - offset >= Long.BYTES) {
+            return countedVarInt((int) decodeVarIntWord((long) LONG_ARRAY_VIEW.get(source, offset)));
+        }
+
+        // See readVarInt(ReaderInterface) for an explanation of the checks.
+        int currentByteIndex = 0;
+        byte currentByte;
+        int value = 0;
+
+        do {
+            currentByte = source[offset + currentByteIndex];
+            value |= (currentByte & SEGMENT_BITS) << (currentByteIndex * 7);
+            currentByteIndex++;
+
+            if (currentByteIndex == 5 && (currentByte & 0b1111_0000) != 0)
+                throw VarIntFormatException.invalidVarInt();
+        } while ((currentByte & CONTINUE_BIT) != 0);
+
+        return countedVarInt(value);
+    }
+
+    /**
+     * Reads the VarLong starting at offset in source.
+     *
+     * @param source The array to read the VarLong from.
+     * @param offset The index of the first byte of the VarLong.
+     * @return The decoded value.
+     * @see VarLengthNumbers#readVarInt(byte[], int)
+     */
+    public static long readVarLong(byte[] source, int offset) {
+        int remaining = source.length - offset;
+
+        if (remaining >= Long.BYTES) {
+            long low = (long) LONG_ARRAY_VIEW.get(source, offset);
+            long terminators = ~low & CONTINUE_BITS;
+
+            // If the VarLong ends in the first 8 bytes, we've got it all.
+            if (terminators != 0) {
+                return countedVarLong(compactSegments(low & (-1L >>> (63 - Long.numberOfTrailingZeros(terminators)))));
+            }
+
+            // Otherwise, it must be 9 or 10 bytes long, so we need the next
+            // word too.
+            if (remaining >= 2 * Long.BYTES) {
+                return countedVarLong(decodeVarLongWords(low, (long) LONG_ARRAY_VIEW.get(source, offset + Long.BYTES)));
+            }
+        }
+
+        // See readVarLong(ReaderInterface) for an explanation of the checks.
+        int currentByteIndex = 0;
+        byte currentByte;
+        long value = 0;
+
+        do {
+            currentByte = source[offset + currentByteIndex];
+            value |= (long) (currentByte & SEGMENT_BITS) << (currentByteIndex * 7);
+            currentByteIndex++;
+
+            if (currentByteIndex == 10 && (currentByte & 0b1111_1110) != 0)
+                throw VarIntFormatException.invalidVarLong();
+        } while ((currentByte & CONTINUE_BIT) != 0);
+
+        return countedVarLong(value);
+    }
+
+    /**
+     * Reads the VarInt at the source buffer's position and advances the
+     * position past it.
+     *
+     * If the VarInt is invalid or runs past the buffer's limit, an exception
+     * is thrown and the position is left unchanged.
+     *
+     * @param source The buffer to read the VarInt from.
+     * @return The decoded value.
+     */
+    public static int readVarInt(ByteBuffer source) {
+        int position = source.position();
+
+        if (source.limit() - position >= Long.BYTES) {
+            long result = decodeVarIntWord((long) LONG_BUFFER_VIEW.get(source, position));
+            source.position(position + (int) (result >>> 32));
+            return countedVarInt((int) result);
+        }
+
+        int currentByteIndex = 0;
+        byte currentByte;
+        int value = 0;
+
+        do {
+            currentByte = source.get(position + currentByteIndex);
+            value |= (currentByte & SEGMENT_BITS) << (currentByteIndex * 7);
+            currentByteIndex++;
+
+            if (currentByteIndex == 5 && (currentByte & 0b1111_0000) != 0)
+                throw VarIntFormatException.invalidVarInt();
+        } while ((currentByte & CONTINUE_BIT) != 0);
+
+        source.position(position + currentByteIndex);
+        return countedVarInt(value);
+    }
+
+    /**
+     * Reads the VarLong at the source buffer's position and advances the
+     * position past it.
+     *
+     * If the VarLong is invalid or runs past the buffer's limit, an exception
+     * is thrown and the position is left unchanged.
+     *
+     * @param source The buffer to read the VarLong from.
+     * @return The decoded value.
+     */
+    public static long readVarLong(ByteBuffer source) {
+        int position = source.position();
+        int remaining = source.limit() - position;
+
+        if (remaining >= Long.BYTES) {
+            long low = (long) LONG_BUFFER_VIEW.get(source, position);
+            long terminators = ~low & CONTINUE_BITS;
+
+            if (terminators != 0) {
+                int lastBit = Long.numberOfTrailingZeros(terminators);
+                source.position(position + ((lastBit + 1) >>> 3));
+                return countedVarLong(compactSegments(low & (-1L >>> (63 - lastBit))));
+            }
+
+            if (remaining >= 2 * Long.BYTES) {
+                long high = (long) LONG_BUFFER_VIEW.get(source, position + Long.BYTES);
+                long value = decodeVarLongWords(low, high);
+                int lastBit = Long.numberOfTrailingZeros(~high & CONTINUE_BITS);
+                source.position(position + Long.BYTES + ((lastBit + 1) >>> 3));
+                return countedVarLong(value);
+            }
+        }
+
+        int currentByteIndex = 0;
+        byte currentByte;
+        long value = 0;
+
+        do {
+            currentByte = source.get(position + currentByteIndex);
+            value |= (long) (currentByte & SEGMENT_BITS) << (currentByteIndex * 7);
+            currentByteIndex++;
+
+            if (currentByteIndex == 10 && (currentByte & 0b1111_1110) != 0)
+                throw VarIntFormatException.invalidVarLong();
+        } while ((currentByte & CONTINUE_BIT) != 0);
+
+        source.position(position + currentByteIndex);
+        return countedVarLong(value);
+    }
+
+    /**
+     * Finds the end of the VarInt starting at offset in source, without
+     * decoding it. This only needs to look for the first byte without the
+     * continuation bit set.
+     *
+     * @param source The array containing the VarInt.
+     * @param offset The index of the first byte of the VarInt.
+     * @return The index immediately after the last byte of the VarInt.
+     */
+    public static int skipVarInt(byte[] source, int offset) {
+        for (int i = 0; i < 5; i++) {
+            if ((source[offset + i] & CONTINUE_BIT) == 0) return offset + i + 1;
+        }
+
+        throw VarIntFormatException.invalidVarInt();
+    }
+
+    /**
+     * Finds the end of the VarLong starting at offset in source, without
+     * decoding it.
+     *
+     * @param source The array containing the VarLong.
+     * @param offset The index of the first byte of the VarLong.
+     * @return The index immediately after the last byte of the VarLong.
+     * @see VarLengthNumbers#skipVarInt(byte[], int)
+     */
+    public static int skipVarLong(byte[] source, int offset) {
+        for (int i = 0; i < 10; i++) {
+            if ((source[offset + i] & CONTINUE_BIT) == 0) return offset + i + 1;
+        }
+
+        throw VarIntFormatException.invalidVarLong();
+    }
+
+    /**
+     * Finds the end of count consecutive VarInts (or VarLongs, or a mix of
+     * both) starting at offset in source, without decoding them.
+     *
+     * Each value ends with the only one of its bytes without the continuation
+     * bit set, so this just counts those 'terminator' bytes - 8 at a time,
+     * whilst at least 8 bytes remain. Unlike skipVarInt, the values aren't
+     * checked for being too long, so this should only be used to skip over
+     * values that will either not be read at all or be read (and checked)
+     * later.
+     *
+     * @param source The array containing the values.
+     * @param offset The index of the first byte of the first value.
+     * @param count The number of values to skip.
+     * @return The index immediately after the last byte of the last value.
+     */
+    public static int skipVarInts(byte[] source, int offset, int count) {
+        while (count > 0 && source.length - offset >= Long.BYTES) {
+            long terminators = ~(long) LONG_ARRAY_VIEW.get(source, offset) & CONTINUE_BITS;
+            int found = Long.bitCount(terminators);
+
+            if (found < count) {
+                offset += Long.BYTES;
+                count -= found;
+                continue;
+            }
+
+            // The end is in this word - clear the lowest count - 1 terminator
+            // bits, and the lowest one left marks the last byte.
+            for (int i = 1; i < count; i++) terminators &= terminators - 1;
+            return offset + (Long.numberOfTrailingZeros(terminators) >>> 3) + 1;
+        }
+
+        for (; count > 0; offset++) {
+            if ((source[offset] & CONTINUE_BIT) == 0) count--;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Encodes count values from source as consecutive VarInts into
+     * destination, starting at offset. The output is byte-for-byte identical
+     * to calling writeVarInt for each value in turn.
+     *
+     * Runs of 8 values that each fit in a single byte (i.e., 0 to 127) are
+     * packed into a long and stored with one write.
+     *
+     * @param source The values to encode.
+     * @param destination The array to write the VarInts into.
+     * @param offset The index in destination to write the first byte to.
+     * @param count The number of values (from the start of source) to encode.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was written.
+     */
+    public static int encodeVarInts(int[] source, byte[] destination, int offset, int count) {
+        int i = 0;
+
+        while (i < count) {
+            if (count - i >= Long.BYTES && destination.length - offset >= Long.BYTES) {
+                int v0 = source[i], v1 = source[i + 1], v2 = source[i + 2], v3 = source[i + 3];
+                int v4 = source[i + 4], v5 = source[i + 5], v6 = source[i + 6], v7 = source[i + 7];
+
+                // If none of the 8 values have any bits set outside of the
+                // segment bits, they're all single byte VarInts.
+                if (((v0 | v1 | v2 | v3 | v4 | v5 | v6 | v7) & ~SEGMENT_BITS) == 0) {
+                    LONG_ARRAY_VIEW.set(destination, offset,
+                        (long) v0 | (long) v1 << 8 | (long) v2 << 16 | (long) v3 << 24 |
+                        (long) v4 << 32 | (long) v5 << 40 | (long) v6 << 48 | (long) v7 << 56
+                    );
+                    offset += Long.BYTES;
+                    i += Long.BYTES;
+
+                    if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntsWritten(1, Long.BYTES);
+                    continue;
+                }
+            }
+
+            offset = writeVarInt(destination, offset, source[i++]);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Decodes count consecutive VarInts from source, starting at offset, into
+     * destination. This accepts exactly the same input as calling
+     * readVarInt for each value in turn.
+     *
+     * Whilst at least 8 bytes remain, the input is read a long at a time; any
+     * run of single byte VarInts at the start of that long is copied straight
+     * out of it, otherwise the VarInt is decoded from the long as in
+     * readVarInt(byte[], int).
+     *
+     * @param source The array to read the VarInts from.
+     * @param offset The index of the first byte of the first VarInt.
+     * @param destination The array to store the values in (from index 0).
+     * @param count The number of VarInts to read.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was read.
+     */
+    public static int decodeVarInts(byte[] source, int offset, int[] destination, int count) {
+        return decodeVarInts(source, offset, destination, 0, count);
+    }
+
+    /**
+     * As with decodeVarInts(byte[], int, int[], int), but stores the values in
+     * destination from index destinationOffset onwards.
+     *
+     * @param source The array to read the VarInts from.
+     * @param offset The index of the first byte of the first VarInt.
+     * @param destination The array to store the values in.
+     * @param destinationOffset The index in destination of the first value.
+     * @param count The number of VarInts to read.
+     * @return The new position, i.e., the index immediately after the last
+     * byte that was read.
+     */
+    public static int decodeVarInts(byte[] source, int offset, int[] destination, int destinationOffset, int count) {
+        int i = destinationOffset;
+        count += destinationOffset;
+
+        while (i < count) {
+            if (source.length - offset < Long.BYTES) {
+                // Near the end of the data, so fall back to the byte loop.
+                destination[i++] = readVarInt(source, offset);
+                offset = skipVarInt(source, offset);
+                continue;
+            }
+
+            long word = (long) LONG_ARRAY_VIEW.get(source, offset);
+
+            // The number of bytes at the start of word before the first one
+            // with its continuation bit set - each of these is a complete,
+            // single byte VarInt.
+            int singles = Math.min(Long.numberOfTrailingZeros(word & CONTINUE_BITS) >>> 3, count - i);
+            for (int j = 0; j < singles; j++) {
+                destination[i++] = (int) (word >>> (j << 3)) & SEGMENT_BITS;
+            }
+            offset += singles;
+            if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntsRead(1, singles);
+
+            // If the run of single byte values didn't fill the word, the next
+            // value is a multi-byte VarInt.
+            if (singles < Long.BYTES && i < count) {
+                if (source.length - offset >= Long.BYTES) {
+                    long result = decodeVarIntWord((long) LONG_ARRAY_VIEW.get(source, offset));
+                    destination[i++] = (int) result;
+                    offset += (int) (result >>> 32);
+
+                    if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntsRead((int) (result >>> 32), 1);
+                } else {
+                    destination[i++] = readVarInt(source, offset);
+                    offset = skipVarInt(source, offset);
+                }
+            }
+        }
+
+        return offset;
+    }
+
+    /**
+     * Counts the VarInts (or VarLongs) that end between offset (inclusive)
+     * and end (exclusive), i.e., the number of bytes in that range without
+     * their continuation bit set.
+     *
+     * For a range that starts at the beginning of a value and ends at the end
+     * of one, this is the number of values in the range - found without
+     * decoding any of them, 8 bytes at a time.
+     *
+     * @param source The array containing the VarInts.
+     * @param offset The index of the first byte to check.
+     * @param end The index after the last byte to check.
+     * @return The number of VarInts that end in the range.
+     */
+    public static int countVarInts(byte[] source, int offset, int end) {
+        int count = 0;
+
+        for (; end - offset >= Long.BYTES; offset += Long.BYTES) {
+            long word = (long) LONG_ARRAY_VIEW.get(source, offset);
+            count += Long.bitCount(~word & CONTINUE_BITS);
+        }
+
+        for (; offset < end; offset++) {
+            if ((source[offset] & CONTINUE_BIT) == 0) count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * An alias for decodeVarIntsParallel(ForkJoinPool.commonPool(), source,
+     * offset, length);
+     *
+     * @param source The array to read the VarInts from.
+     * @param offset The index of the first byte of the first VarInt.
+     * @param length The number of bytes of VarInts to decode.
+     * @return Every value, in order.
+     */
+    public static int[] decodeVarIntsParallel(byte[] source, int offset, int length) {
+        return decodeVarIntsParallel(ForkJoinPool.commonPool(), source, offset, length);
+    }
+
+    /**
+     * Decodes every VarInt in length bytes of source, starting at offset,
+     * splitting the work across the threads of pool.
+     *
+     * The last byte of a VarInt is the only one without its continuation bit
+     * set, so the data can be cut into chunks at arbitrary points, and each
+     * cut moved forward (by at most 4 bytes) to just after the next such byte
+     * to land on the start of a value. Every chunk then holds a whole number
+     * of VarInts and can be decoded by itself.
+     *
+     * The chunks are first counted in parallel (see countVarInts), so that
+     * each can then be decoded, in parallel, straight into its place in the
+     * result, with nothing to copy afterwards.
+     *
+     * Small inputs are decoded on the calling thread, as the overhead of
+     * splitting them up would outweigh any gain.
+     *
+     * @param pool The pool to decode the chunks on.
+     * @param source The array to read the VarInts from.
+     * @param offset The index of the first byte of the first VarInt.
+     * @param length The number of bytes of VarInts to decode. This must end
+     *               at the end of a VarInt.
+     * @return Every value, in order.
+     * @throws VarIntFormatException If any VarInt is invalid, or the last one
+     * is cut off.
+     */
+    public static int[] decodeVarIntsParallel(ForkJoinPool pool, byte[] source, int offset, int length) {
+        return ParallelVarIntDecoder.decode(pool, source, offset, length);
+    }
+
+    /**
+     * Maps a signed int to an unsigned one, such that values close to zero
+     * (positive or negative) map to small unsigned values.
+     *
+     * The value is shifted left by one to make room for the sign in the least
+     * significant bit, then XORed with the sign bit smeared across all 32 bits
+     * (value >> 31 is 0 for positive numbers and -1, i.e., all 1s, for
+     * negative ones) so that the magnitude bits of a negative number are
+     * flipped, too.
+     *
+     * @param value The signed value.
+     * @return The ZigZag encoded value.
+     */
+    public static int encodeZigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reverses encodeZigZag(int).
+     * @param value The ZigZag encoded value.
+     * @return The signed value.
+     */
+    public static int decodeZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Maps a signed long to an unsigned one.
+     * @param value The signed value.
+     * @return The ZigZag encoded value.
+     * @see VarLengthNumbers#encodeZigZag(int)
+     */
+    public static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses encodeZigZag(long).
+     * @param value The ZigZag encoded value.
+     * @return The signed value.
+     */
+    public static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeSVarInt(WriterInterface writer, int value) {
+        writeVarInt(writer, encodeZigZag(value));
+    }
+
+    public static void writeSVarLong(WriterInterface writer, long value) {
+        writeVarLong(writer, encodeZigZag(value));
+    }
+
+    public static int readSVarInt(ReaderInterface reader) {
+        return decodeZigZag(readVarInt(reader));
+    }
+
+    public static long readSVarLong(ReaderInterface reader) {
+        return decodeZigZag(readVarLong(reader));
+    }
+
+    /**
+     * Writes value as a ZigZag encoded VarInt into destination.
+     * @return The new position.
+     * @see VarLengthNumbers#writeVarInt(byte[], int, int)
+     */
+    public static int writeSVarInt(byte[] destination, int offset, int value) {
+        return writeVarInt(destination, offset, encodeZigZag(value));
+    }
+
+    /**
+     * Writes value as a ZigZag encoded VarLong into destination.
+     * @return The new position.
+     * @see VarLengthNumbers#writeVarLong(byte[], int, long)
+     */
+    public static int writeSVarLong(byte[] destination, int offset, long value) {
+        return writeVarLong(destination, offset, encodeZigZag(value));
+    }
+
+    /**
+     * Writes value as a ZigZag encoded VarInt into destination.
+     * @return The number of bytes written.
+     * @see VarLengthNumbers#writeVarInt(ByteBuffer, int)
+     */
+    public static int writeSVarInt(ByteBuffer destination, int value) {
+        return writeVarInt(destination, encodeZigZag(value));
+    }
+
+    /**
+     * Writes value as a ZigZag encoded VarLong into destination.
+     * @return The number of bytes written.
+     * @see VarLengthNumbers#writeVarLong(ByteBuffer, long)
+     */
+    public static int writeSVarLong(ByteBuffer destination, long value) {
+        return writeVarLong(destination, encodeZigZag(value));
+    }
+
+    /**
+     * Reads a ZigZag encoded VarInt from source.
+     * @see VarLengthNumbers#readVarInt(byte[], int)
+     */
+    public static int readSVarInt(byte[] source, int offset) {
+        return decodeZigZag(readVarInt(source, offset));
+    }
+
+    /**
+     * Reads a ZigZag encoded VarLong from source.
+     * @see VarLengthNumbers#readVarLong(byte[], int)
+     */
+    public static long readSVarLong(byte[] source, int offset) {
+        return decodeZigZag(readVarLong(source, offset));
+    }
+
+    /**
+     * Reads a ZigZag encoded VarInt from source.
+     * @see VarLengthNumbers#readVarInt(ByteBuffer)
+     */
+    public static int readSVarInt(ByteBuffer source) {
+        return decodeZigZag(readVarInt(source));
+    }
+
+    /**
+     * Reads a ZigZag encoded VarLong from source.
+     * @see VarLengthNumbers#readVarLong(ByteBuffer)
+     */
+    public static long readSVarLong(ByteBuffer source) {
+        return decodeZigZag(readVarLong(source));
+    }
+
+    /**
+     * Returns the number of bytes that writeVarInt would write for value.
+     *
+     * Each byte holds 7 bits of the value, and at least 1 byte is always
+     * written (even for 0), so this is the number of significant bits,
+     * divided by 7 and rounded up.
+     *
+     * Rather than dividing (or looping), this uses the fact that, for the
+     * number of leading zeros n (from 0 to 32), (352 - 9n) / 64 happens to
+     * round to exactly the right size - so it's branch-free and takes
+     * constant time. The constants can be checked by trying every n.
+     *
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 5 bytes.
+     */
+    public static int varIntSize(int value) {
+        return (352 - Integer.numberOfLeadingZeros(value) * 9) >>> 6;
+    }
+
+    /**
+     * Returns the number of bytes that writeVarLong would write for value.
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 10 bytes.
+     * @see VarLengthNumbers#varIntSize(int)
+     */
+    public static int varLongSize(long value) {
+        // As with varIntSize, but (640 - 9n) / 64 for n from 0 to 64.
+        return (640 - Long.numberOfLeadingZeros(value) * 9) >>> 6;
+    }
+
+    /**
+     * Returns the number of bytes that writeSVarInt would write for value.
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 5 bytes.
+     */
+    public static int sVarIntSize(int value) {
+        return varIntSize(encodeZigZag(value));
+    }
+
+    /**
+     * Returns the number of bytes that writeSVarLong would write for value.
+     * @param value The value to measure.
+     * @return The encoded size, from 1 to 10 bytes.
+     */
+    public static int sVarLongSize(long value) {
+        return varLongSize(encodeZigZag(value));
+    }
+
+    /**
+     * Returns the number of bytes that encodeVarInts (or writeVarInt for each
+     * value) would write for count values from values, starting at offset.
+     *
+     * @param values The values to measure.
+     * @param offset The index of the first value.
+     * @param count The number of values.
+     * @return The total encoded size in bytes.
+     */
+    public static int varIntsSize(int[] values, int offset, int count) {
+        int size = 0;
+        for (int i = offset; i < offset + count; i++) size += varIntSize(values[i]);
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes that writeVarLong would write for each of
+     * count values from values, starting at offset.
+     *
+     * @param values The values to measure.
+     * @param offset The index of the first value.
+     * @param count The number of values.
+     * @return The total encoded size in bytes.
+     */
+    public static int varLongsSize(long[] values, int offset, int count) {
+        int size = 0;
+        for (int i = offset; i < offset + count; i++) size += varLongSize(values[i]);
+        return size;
+    }
+
+    /**
+     * Checks whether there is a valid VarInt starting at offset in source,
+     * without reading past limit (exclusive) and without throwing.
+     *
+     * @param source The array containing the VarInt.
+     * @param offset The index of the first byte of the VarInt.
+     * @param limit The index after the last byte that may be read.
+     * @return The length of the VarInt in bytes, or TRUNCATED if it runs past
+     * limit, or MALFORMED if it is invalid.
+     */
+    public static int validateVarInt(byte[] source, int offset, int limit) {
+        long result = tryDecodeVarInt(source, offset, limit);
+        if (result == MALFORMED) return malformed();
+        return result < 0 ? (int) result : tryReadLength(result);
+    }
+
+    /**
+     * Checks whether there is a valid VarLong starting at offset in source,
+     * without reading past limit (exclusive) and without throwing.
+     *
+     * @param source The array containing the VarLong.
+     * @param offset The index of the first byte of the VarLong.
+     * @param limit The index after the last byte that may be read.
+     * @return The length of the VarLong in bytes, or TRUNCATED if it runs past
+     * limit, or MALFORMED if it is invalid.
+     */
+    public static int validateVarLong(byte[] source, int offset, int limit) {
+        int available = Math.min(limit - offset, 10);
+
+        for (int i = 0; i < available; i++) {
+            byte currentByte = source[offset + i];
+            if (i == 9 && (currentByte & 0b1111_1110) != 0) return malformed();
+            if ((currentByte & CONTINUE_BIT) == 0) return i + 1;
+        }
+
+        return TRUNCATED;
+    }
+
+    /**
+     * Reads the VarInt starting at offset in source, without reading past
+     * limit (exclusive), and without throwing or allocating if the VarInt is
+     * truncated or malformed.
+     *
+     * On success, the length and value are packed into the result, and can
+     * be unpacked with tryReadLength and tryReadValue. Otherwise, the result
+     * is negative - TRUNCATED or MALFORMED:
+     *
+     *     long result = tryReadVarInt(source, offset, limit);
+     *     if (result &lt; 0) return result == TRUNCATED ? waitForMore() : disconnect();
+     *     int value = tryReadValue(result);
+     *     offset += tryReadLength(result);
+     *
+     * @param source The array to read the VarInt from.
+     * @param offset The index of the first byte of the VarInt.
+     * @param limit The index after the last byte that may be read.
+     * @return The packed length and value, or TRUNCATED or MALFORMED.
+     */
+    public static long tryReadVarInt(byte[] source, int offset, int limit) {
+        return countedTryRead(tryDecodeVarInt(source, offset, limit));
+    }
+
+    /**
+     * The implementation of tryReadVarInt(byte[], int, int), without
+     * recording anything in CodecMetrics (so that validateVarInt doesn't
+     * count a read).
+     */
+    private static long tryDecodeVarInt(byte[] source, int offset, int limit) {
+        if (limit - offset >= Long.BYTES && offset >= 0 && limit <= source.length) {
+            return tryDecodeVarIntWord((long) LONG_ARRAY_VIEW.get(source, offset));
+        }
+
+        int available = Math.min(limit - offset, 5);
+        int value = 0;
+
+        for (int i = 0; i < available; i++) {
+            byte currentByte = source[offset + i];
+            value |= (currentByte & SEGMENT_BITS) << (i * 7);
+
+            if (i == 4 && (currentByte & 0b1111_0000) != 0) return MALFORMED;
+            if ((currentByte & CONTINUE_BIT) == 0) return ((long) (i + 1) << 32) | (value & 0xFFFF_FFFFL);
+        }
+
+        return TRUNCATED;
+    }
+
+    /**
+     * Reads the VarInt at the source buffer's position, advancing the position
+     * past it only if it is valid.
+     *
+     * @param source The buffer to read the VarInt from.
+     * @return The packed length and value, or TRUNCATED or MALFORMED.
+     * @see VarLengthNumbers#tryReadVarInt(byte[], int, int)
+     */
+    public static long tryReadVarInt(ByteBuffer source) {
+        int position = source.position();
+        long result;
+
+        if (source.limit() - position >= Long.BYTES) {
+            result = tryDecodeVarIntWord((long) LONG_BUFFER_VIEW.get(source, position));
+        } else {
+            result = TRUNCATED;
+            int available = Math.min(source.limit() - position, 5);
+            int value = 0;
+
+            for (int i = 0; i < available; i++) {
+                byte currentByte = source.get(position + i);
+                value |= (currentByte & SEGMENT_BITS) << (i * 7);
+
+                if (i == 4 && (currentByte & 0b1111_0000) != 0) {
+                    result = MALFORMED;
+                    break;
+                }
+                if ((currentByte & CONTINUE_BIT) == 0) {
+                    result = ((long) (i + 1) << 32) | (value & 0xFFFF_FFFFL);
+                    break;
+                }
+            }
+        }
+
+        if (result >= 0) source.position(position + tryReadLength(result));
+        return countedTryRead(result);
+    }
+
+    /**
+     * Unpacks the length (in bytes) from a successful tryReadVarInt result.
+     * @param result A non-negative result from tryReadVarInt.
+     * @return The number of bytes that the VarInt took up.
+     */
+    public static int tryReadLength(long result) {
+        return (int) (result >>> 32);
+    }
+
+    /**
+     * Unpacks the value from a successful tryReadVarInt result.
+     * @param result A non-negative result from tryReadVarInt.
+     * @return The decoded value.
+     */
+    public static int tryReadValue(long result) {
+        return (int) result;
+    }
+
+    /**
+     * Reads the VarLong starting at offset in source, without reading past
+     * limit (exclusive), and without throwing or allocating if the VarLong is
+     * truncated or malformed.
+     *
+     * A long can't hold both a 64-bit value and a status, so the value is
+     * stored in value[0] (the caller can re-use the same array for every
+     * call) and the length or status is returned.
+     *
+     * @param source The array to read the VarLong from.
+     * @param offset The index of the first byte of the VarLong.
+     * @param limit The index after the last byte that may be read.
+     * @param value An array whose first element receives the decoded value.
+     * @return The length of the VarLong in bytes, or TRUNCATED or MALFORMED
+     * (in which case value[0] is left unchanged).
+     */
+    public static int tryReadVarLong(byte[] source, int offset, int limit, long[] value) {
+        int length = validateVarLong(source, offset, limit);
+        if (length > 0) value[0] = readVarLong(source, offset);
+        return length;
+    }
+
+    /**
+     * Reads the VarLong at the source buffer's position, advancing the
+     * position past it only if it is valid.
+     *
+     * @param source The buffer to read the VarLong from.
+     * @param value An array whose first element receives the decoded value.
+     * @return The length of the VarLong in bytes, or TRUNCATED or MALFORMED.
+     * @see VarLengthNumbers#tryReadVarLong(byte[], int, int, long[])
+     */
+    public static int tryReadVarLong(ByteBuffer source, long[] value) {
+        int position = source.position();
+        int available = Math.min(source.limit() - position, 10);
+        long result = 0;
+
+        for (int i = 0; i < available; i++) {
+            byte currentByte = source.get(position + i);
+            result |= (long) (currentByte & SEGMENT_BITS) << (i * 7);
+
+            if (i == 9 && (currentByte & 0b1111_1110) != 0) return malformed();
+            if ((currentByte & CONTINUE_BIT) == 0) {
+                value[0] = countedVarLong(result);
+                source.position(position + i + 1);
+                return i + 1;
+            }
+        }
+
+        return TRUNCATED;
+    }
+
+    /**
+     * Decodes a VarInt from the first (up to) 5 bytes of word, which holds 8
+     * bytes of input in little-endian order (i.e., the first byte of the
+     * VarInt is the least significant byte of word).
+     *
+     * @param word The next 8 bytes of input.
+     * @return The length of the VarInt in the upper 32 bits, and the value in
+     * the lower 32 bits.
+     */
+    private static long decodeVarIntWord(long word) {
+        long result = tryDecodeVarIntWord(word);
+        if (result < 0) throw VarIntFormatException.invalidVarInt();
+        return result;
+    }
+
+    /**
+     * As with decodeVarIntWord, but returns MALFORMED instead of throwing.
+     */
+    private static long tryDecodeVarIntWord(long word) {
+        // Every byte without its continuation bit set has a 1 in that
+        // position in terminators, so the lowest set bit marks the (most
+        // significant bit of the) last byte of the VarInt.
+        //
+        // e.g., for 0b0000_0001 0b1010_1100 (300, written as 0xAC 0x02),
+        // lastBit is 15, because the second byte is the terminator.
+        int lastBit = Long.numberOfTrailingZeros(~word & CONTINUE_BITS);
+
+        // Keep only the bytes belonging to this VarInt by clearing everything
+        // above lastBit.
+        long bytes = word & (-1L >>> (63 - lastBit));
+
+        // These are the same rules as readVarInt(ReaderInterface). If there's
+        // no terminator in the first 5 bytes, the fifth byte has its
+        // continuation bit set. Either way, only the lower 4 bits of the fifth
+        // byte may be set (0b1111_0000 is the mask on the last byte).
+        if (lastBit > 39 || (bytes & 0xF0_0000_0000L) != 0)
+            return MALFORMED;
+
+        return ((long) ((lastBit + 1) >>> 3) << 32) | (compactSegments(bytes) & 0xFFFF_FFFFL);
+    }
+
+    /**
+     * Decodes a VarLong that is known not to end within the first 8 bytes,
+     * i.e., one that is 9 or 10 bytes long.
+     *
+     * @param low The first 8 bytes of the VarLong (little-endian).
+     * @param high The next 8 bytes of input (little-endian).
+     * @return The decoded value.
+     */
+    private static long decodeVarLongWords(long low, long high) {
+        int lastBit = Long.numberOfTrailingZeros(~high & CONTINUE_BITS);
+        high &= -1L >>> (63 - lastBit);
+
+        // As with readVarLong(ReaderInterface), the VarLong must end by the
+        // tenth byte, and only the lowest bit of the tenth byte may be set
+        // (0b1111_1110 is the mask on the last byte).
+        if (lastBit > 15 || (high & 0b1111_1110_0000_0000L) != 0)
+            throw VarIntFormatException.invalidVarLong();
+
+        return compactSegments(low)
+            // The 7 segment bits of the ninth byte.
+            | (high & SEGMENT_BITS) << 56
+            // The single remaining bit (the sign bit) from the tenth byte.
+            | (high & 0x100) << 55;
+    }
+
+    /**
+     * Records a VarInt that has been read in CodecMetrics, if metrics are
+     * enabled. This is used as 'return countedVarInt(value);' so that each
+     * return in the readers stays a single statement.
+     */
+    private static int countedVarInt(int value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntRead(value);
         return value;
     }
 
+    /**
+     * As with countedVarInt, but for a VarLong.
+     */
+    private static long countedVarLong(long value) {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordVarLongRead(value);
+        return value;
+    }
+
+    /**
+     * Records the outcome of tryReadVarInt: a VarInt read (of the length that
+     * was actually read), invalid input, or nothing if it was truncated.
+     */
+    private static long countedTryRead(long result) {
+        if (CodecMetrics.ENABLED) {
+            if (result >= 0) CodecMetrics.recordVarIntsRead(tryReadLength(result), 1);
+            else if (result == MALFORMED) CodecMetrics.recordInvalidInput();
+        }
+        return result;
+    }
+
+    /**
+     * Returns MALFORMED, having recorded it in CodecMetrics.
+     */
+    private static int malformed() {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordInvalidInput();
+        return MALFORMED;
+    }
+
+    /**
+     * Packs the 7 segment bits of each of the 8 bytes in word together,
+     * producing a 56-bit value. This is equivalent to the per-byte shifting in
+     * the read loops, but done for all bytes at once.
+     *
+     * Any bytes that aren't part of the value must already have been cleared.
+     *
+     * @param word Up to 8 bytes of a VarInt or VarLong in little-endian order.
+     * @return The (up to) 56-bit value held in the segment bits.
+     */
+    private static long compactSegments(long word) {
+        word &= ~CONTINUE_BITS;
+
+        // Merge each pair of 7-bit segments into a 14-bit segment in each
+        // 16-bit lane, then each pair of those into 28 bits in each 32-bit
+        // lane, and finally both 28-bit halves into 56 bits.
+        word = ((word & 0x7F00_7F00_7F00_7F00L) >>> 1) | (word & 0x007F_007F_007F_007FL);
+        word = ((word & 0x3FFF_0000_3FFF_0000L) >>> 2) | (word & 0x0000_3FFF_0000_3FFFL);
+        word = ((word & 0x0FFF_FFFF_0000_0000L) >>> 4) | (word & 0x0000_0000_0FFF_FFFFL);
+        return word;
+    }
+
 }
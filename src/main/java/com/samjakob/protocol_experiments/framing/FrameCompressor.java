@@ -0,0 +1,345 @@
+package com.samjakob.protocol_experiments.framing;
+
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.PooledByteSink;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of frame bodies, as in Minecraft's protocol once
+ * compression has been enabled. The (possibly) compressed body is:
+ *
+ *     [data length] [data]
+ *
+ * where data length is a VarInt holding the uncompressed length of the
+ * body, and data is the body compressed with zlib (Deflater) - or, for
+ * bodies shorter than the threshold, data length is 0 and data is the body
+ * as-is. This goes inside an ordinary length-prefixed frame, e.g.,
+ *
+ *     ByteSink sink = writer.beginFrame();
+ *     compressor.compress(body, sink);
+ *     writer.endFrame();
+ *
+ * and on the other side:
+ *
+ *     ByteBuffer frame = reader.nextFrame(buffer);
+ *     compressor.decompress(frame, destination);
+ *
+ * Small frames gain little from compression, but still pay for it in time
+ * (and in the few bytes of zlib header), hence the threshold. Bodies at or
+ * above the threshold are always compressed, even if they don't shrink, as
+ * Minecraft-style peers refuse uncompressed frames above their threshold.
+ *
+ * Deflater and Inflater each hold tens of KiB of native state, which is
+ * expensive to set up and is only freed when they are ended (or garbage
+ * collected), so each thread keeps one of each - shared by every
+ * compressor, whatever its level - and resets it between frames rather than
+ * creating new ones. They are never ended: a thread's instances live as
+ * long as the thread does.
+ *
+ * Input and output can be heap or direct ByteBuffers, a ByteSink or a
+ * PooledByteSink (whose off-heap slab is deflated into directly), so no
+ * intermediate byte[] is needed anywhere.
+ */
+public class FrameCompressor {
+
+    /**
+     * Minecraft's default threshold, in bytes.
+     */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final int threshold;
+
+    private final int level;
+
+    private final int maxLength;
+
+    /**
+     * Creates a compressor with the default threshold and compression level,
+     * that accepts bodies of up to 8 MiB (uncompressed).
+     */
+    public FrameCompressor() {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, 8 * 1024 * 1024);
+    }
+
+    /**
+     * Creates a compressor.
+     *
+     * @param threshold The shortest body (in bytes) that is compressed.
+     * @param level The Deflater compression level, from 0 to 9 (or -1 for
+     *              the default).
+     * @param maxLength The longest uncompressed body (in bytes) that
+     *                  decompress accepts, so that a peer can't make us
+     *                  inflate a small frame into a huge one.
+     */
+    public FrameCompressor(int threshold, int level, int maxLength) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Threshold must be at least 1 byte");
+        if (level < -1 || level > 9)
+            throw new IllegalArgumentException("Compression level must be between -1 and 9");
+
+        this.threshold = threshold;
+        this.level = level;
+        this.maxLength = maxLength;
+    }
+
+    public int threshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Returns the most bytes that compress could write for a body of length
+     * bytes (i.e., zlib's compressBound, plus the data length prefix).
+     *
+     * This is exact for the stock zlib that the JDK normally uses, but other
+     * builds (e.g., zlib-ng's fastest level) can go slightly over it. The
+     * ByteBuffer overload then throws BufferOverflowException, and the sink
+     * overloads grow the sink.
+     *
+     * @param length The uncompressed length of the body.
+     * @return The maximum compressed size in bytes.
+     */
+    public static int maxCompressedSize(int length) {
+        return VarLengthNumbers.varIntSize(length) + deflateBound(length);
+    }
+
+    /**
+     * Compresses the bytes between source's position and limit (or passes
+     * them through, if there are fewer than threshold) into destination at
+     * its position. Both positions are advanced.
+     *
+     * @param source The body to compress.
+     * @param destination The buffer to write the compressed body into.
+     * @return The number of bytes written.
+     * @throws BufferOverflowException If destination doesn't have room, in
+     * which case neither position is changed.
+     */
+    public int compress(ByteBuffer source, ByteBuffer destination) {
+        int length = source.remaining();
+        int sourceStart = source.position();
+        int start = destination.position();
+
+        if (length < this.threshold) {
+            if (destination.remaining() < 1 + length) throw new BufferOverflowException();
+            destination.put((byte) 0).put(source);
+            return destination.position() - start;
+        }
+
+        if (destination.remaining() < VarLengthNumbers.varIntSize(length)) throw new BufferOverflowException();
+        VarLengthNumbers.writeVarInt(destination, length);
+
+        Deflater deflater = deflater(source);
+        while (!deflater.finished()) {
+            if (!destination.hasRemaining()) {
+                source.position(sourceStart);
+                destination.position(start);
+                throw new BufferOverflowException();
+            }
+            deflater.deflate(destination);
+        }
+
+        return destination.position() - start;
+    }
+
+    /**
+     * As with compress(ByteBuffer, ByteBuffer), but appends to sink, growing
+     * it as needed.
+     * @param source The body to compress.
+     * @param sink The sink to write the compressed body into.
+     * @return The number of bytes written.
+     */
+    public int compress(ByteBuffer source, ByteSink sink) {
+        int length = source.remaining();
+        int start = sink.available();
+
+        if (length < this.threshold) {
+            int offset = sink.reserve(1 + length);
+            sink.array()[offset] = 0;
+            source.get(sink.array(), offset + 1, length);
+            return 1 + length;
+        }
+
+        // Reserve the worst case, deflate straight into the sink's array and
+        // then give back whatever wasn't needed.
+        int offset = sink.reserve(maxCompressedSize(length));
+        int limit = sink.available();
+        byte[] array = sink.array();
+        int end = VarLengthNumbers.writeVarInt(array, offset, length);
+
+        Deflater deflater = deflater(source);
+        while (!deflater.finished()) {
+            int written = deflater.deflate(array, end, limit - end);
+            end += written;
+
+            if (written == 0 && !deflater.finished()) {
+                // Out of room: only possible with a zlib that can exceed
+                // stock zlib's compressBound, so reserve some more.
+                int more = extraSpace(limit - offset);
+                sink.reserve(more);
+                array = sink.array();
+                limit += more;
+            }
+        }
+
+        sink.removeRange(end, limit);
+        return sink.available() - start;
+    }
+
+    /**
+     * As with compress(ByteBuffer, ByteBuffer), but appends to sink - i.e.,
+     * deflates straight into its off-heap slab, moving to a larger slab if
+     * needed.
+     * @param source The body to compress.
+     * @param sink The sink to write the compressed body into.
+     * @return The number of bytes written.
+     */
+    public int compress(ByteBuffer source, PooledByteSink sink) {
+        int length = source.remaining();
+        int start = sink.available();
+
+        if (length < this.threshold) {
+            sink.ensureCapacity(1 + length);
+            sink.buffer().put((byte) 0).put(source);
+            return 1 + length;
+        }
+
+        sink.ensureCapacity(maxCompressedSize(length));
+        ByteBuffer slab = sink.buffer();
+        VarLengthNumbers.writeVarInt(slab, length);
+
+        Deflater deflater = deflater(source);
+        while (!deflater.finished()) {
+            if (deflater.deflate(slab) == 0 && !deflater.finished()) {
+                // Out of room, as in compress(ByteBuffer, ByteSink).
+                sink.ensureCapacity(slab.remaining() + extraSpace(slab.position() - start));
+                slab = sink.buffer();
+            }
+        }
+
+        return sink.available() - start;
+    }
+
+    /**
+     * Returns the uncompressed length of the body in source (from its
+     * position), without changing the position - e.g., to size the buffer
+     * for decompress.
+     *
+     * @param source The (possibly) compressed body.
+     * @return The length of the body once decompressed.
+     */
+    public int uncompressedLength(ByteBuffer source) {
+        int position = source.position();
+        int dataLength = VarLengthNumbers.readVarInt(source);
+        int length = dataLength == 0 ? source.remaining() : dataLength;
+        source.position(position);
+        return length;
+    }
+
+    /**
+     * Decompresses the body between source's position and limit (or copies
+     * it, if it wasn't compressed) into destination at its position. Both
+     * positions are advanced.
+     *
+     * @param source The (possibly) compressed body.
+     * @param destination The buffer to write the body into. It must have room
+     *                    for uncompressedLength(source) bytes.
+     * @return The number of bytes written.
+     * @throws RuntimeException If the body is invalid: its data length is
+     * below the threshold or above maxLength, or it doesn't inflate to
+     * exactly that length.
+     */
+    public int decompress(ByteBuffer source, ByteBuffer destination) {
+        int start = source.position();
+        int dataLength = VarLengthNumbers.readVarInt(source);
+
+        if (dataLength == 0) {
+            int length = source.remaining();
+            if (length >= this.threshold || length > this.maxLength) {
+                source.position(start);
+                throw new RuntimeException("Uncompressed frame of " + length + " bytes is not below the threshold");
+            }
+            if (destination.remaining() < length) {
+                source.position(start);
+                throw new BufferOverflowException();
+            }
+
+            destination.put(source);
+            return length;
+        }
+
+        if (dataLength < this.threshold || dataLength > this.maxLength) {
+            source.position(start);
+            throw new RuntimeException("Invalid compressed frame length: " + Integer.toUnsignedString(dataLength));
+        }
+        if (destination.remaining() < dataLength) {
+            source.position(start);
+            throw new BufferOverflowException();
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(source);
+
+        // Limit the output to the claimed length, so that nothing is written
+        // beyond it however much the data inflates to.
+        int limit = destination.limit();
+        int destinationStart = destination.position();
+        destination.limit(destinationStart + dataLength);
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(destination) == 0 && (inflater.needsInput() || inflater.needsDictionary() || !destination.hasRemaining())) {
+                    throw new RuntimeException("Compressed frame does not inflate to " + dataLength + " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Invalid compressed frame", e);
+        } finally {
+            destination.limit(limit);
+        }
+
+        if (destination.position() - destinationStart != dataLength)
+            throw new RuntimeException("Compressed frame does not inflate to " + dataLength + " bytes");
+
+        return dataLength;
+    }
+
+    /**
+     * Returns this thread's Deflater, reset to this compressor's level and
+     * given source as its (whole) input. Deflater reads source from its
+     * position to its limit, advancing the position as it goes.
+     */
+    private Deflater deflater(ByteBuffer source) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(this.level);
+        deflater.setInput(source);
+        deflater.finish();
+        return deflater;
+    }
+
+    /**
+     * How much more room to make when deflating overruns deflateBound, given
+     * how much has been used so far.
+     */
+    private static int extraSpace(int used) {
+        return Math.max(64, used / 8);
+    }
+
+    /**
+     * zlib's compressBound: the most that deflating length bytes can
+     * produce, including the zlib header and checksum.
+     */
+    private static int deflateBound(int length) {
+        return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13;
+    }
+
+}
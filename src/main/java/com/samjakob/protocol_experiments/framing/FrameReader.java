@@ -0,0 +1,109 @@
+package com.samjakob.protocol_experiments.framing;
+
+import com.samjakob.protocol_experiments.data.VarIntFormatException;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+import com.samjakob.protocol_experiments.metrics.FrameDecodeEvent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads length-prefixed frames (as written by FrameWriter) out of a
+ * ByteBuffer, without copying the bodies.
+ *
+ * The buffer may hold any number of frames, and may end part-way through a
+ * frame (e.g., because the rest hasn't been received yet), in which case the
+ * incomplete frame is left in the buffer to be read once more data has been
+ * added.
+ *
+ * When CodecMetrics are enabled, a sample of the frames returned by
+ * nextFrame are reported to JFR as FrameDecodeEvents.
+ */
+public class FrameReader {
+
+    private final int maxFrameLength;
+
+    /**
+     * Creates a reader that accepts frames of any length.
+     */
+    public FrameReader() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a reader that refuses frames with a body longer than
+     * maxFrameLength, e.g., to stop a peer from claiming a huge frame.
+     * @param maxFrameLength The maximum length of a frame body in bytes.
+     */
+    public FrameReader(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Reads the next frame from source and returns its body as a slice of
+     * source (i.e., sharing its content). The position of source is moved to
+     * the start of the following frame.
+     *
+     * @param source The buffer to read the frame from.
+     * @return The body of the frame, or null if source doesn't contain a
+     * complete frame (in which case its position is left unchanged).
+     */
+    public ByteBuffer nextFrame(ByteBuffer source) {
+        FrameDecodeEvent event = CodecMetrics.ENABLED ? CodecMetrics.beginFrameDecode() : null;
+
+        int start = source.position();
+        int length = nextFrameLength(source);
+        if (length < 0) return null;
+
+        if (source.remaining() < length) {
+            source.position(start);
+            return null;
+        }
+
+        int bodyStart = source.position();
+        source.position(bodyStart + length);
+
+        if (CodecMetrics.ENABLED) CodecMetrics.endFrameDecode(event, length);
+        return source.slice(bodyStart, length);
+    }
+
+    /**
+     * Reads the length prefix of the next frame from source, leaving the
+     * position of source at the start of the body. This allows a frame to be
+     * read without creating a slice, but doesn't check that the whole body is
+     * available.
+     *
+     * @param source The buffer to read the prefix from.
+     * @return The length of the body, or -1 if source doesn't contain the
+     * whole prefix (in which case its position is left unchanged).
+     */
+    public int nextFrameLength(ByteBuffer source) {
+        // Look for the end of the VarInt (a byte without the continuation
+        // bit) before trying to read it.
+        int position = source.position();
+        int available = Math.min(source.limit() - position, 5);
+        int end = -1;
+        for (int i = 0; i < available; i++) {
+            if ((source.get(position + i) & 0b1000_0000) == 0) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end == -1) {
+            if (available == 5)
+                throw VarIntFormatException.invalidVarInt();
+            return -1;
+        }
+
+        int length = VarLengthNumbers.readVarInt(source);
+        if (length < 0 || length > this.maxFrameLength) {
+            source.position(position);
+            if (CodecMetrics.ENABLED) CodecMetrics.recordInvalidInput();
+            throw new RuntimeException("Invalid frame length: " + Integer.toUnsignedString(length));
+        }
+
+        return length;
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.samjakob.protocol_experiments.framing;
+
+import com.samjakob.protocol_experiments.data.MessageEncoder;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+import com.samjakob.protocol_experiments.metrics.FrameEncodeEvent;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+
+/**
+ * Writes length-prefixed frames (a VarInt holding the length of the body,
+ * followed by the body itself) into a ByteSink, without having to encode the
+ * body somewhere else first to find out its length.
+ *
+ * Space for the prefix is reserved when a frame is started, the body is then
+ * written straight into the sink after it, and the prefix is filled in
+ * ('back-patched') once the frame is finished:
+ *
+ *     writer.beginFrame();
+ *     writeVarInt(sink, packetId);
+ *     writeVarLong(sink, timestamp);
+ *     writer.endFrame();
+ *
+ * By default, the prefix uses the minimum number of bytes, so any unused
+ * reserved bytes are removed by moving the body back. Alternatively, in
+ * padded mode, the prefix always takes the full reserved width (using
+ * redundant continuation bytes, which readVarInt accepts), so nothing needs
+ * to be moved.
+ *
+ * If the body can be measured up front with a MessageEncoder, writeFrame
+ * skips the reservation entirely and writes the exact prefix first.
+ *
+ * When CodecMetrics are enabled, a sample of frames are reported to JFR as
+ * FrameEncodeEvents, timed from beginFrame to endFrame.
+ */
+public class FrameWriter {
+
+    private final ByteSink sink;
+
+    /**
+     * The number of bytes reserved for each length prefix.
+     */
+    private final int prefixSize;
+
+    private final boolean padded;
+
+    /**
+     * The index in the sink of the start of the current frame's reserved
+     * prefix, or -1 if no frame has been started.
+     */
+    private int frameStart = -1;
+
+    /**
+     * The JFR event for the current frame, if it's being sampled.
+     */
+    private FrameEncodeEvent event;
+
+    /**
+     * Creates a writer that reserves 5 bytes (enough for any int) for each
+     * prefix, and shrinks it to the minimum size when the frame is finished.
+     * @param sink The sink to write frames into.
+     */
+    public FrameWriter(ByteSink sink) {
+        this(sink, 5, false);
+    }
+
+    /**
+     * Creates a frame writer.
+     *
+     * @param sink The sink to write frames into.
+     * @param prefixSize The number of bytes to reserve for the length prefix,
+     *                   from 1 to 5. This also limits the size of a frame,
+     *                   e.g., a 3 byte prefix allows bodies of up to 2^21 - 1
+     *                   bytes.
+     * @param padded Whether the prefix should always take up prefixSize
+     *               bytes, rather than the minimum needed for the length.
+     */
+    public FrameWriter(ByteSink sink, int prefixSize, boolean padded) {
+        if (prefixSize < 1 || prefixSize > 5)
+            throw new IllegalArgumentException("Prefix size must be between 1 and 5 bytes");
+
+        this.sink = sink;
+        this.prefixSize = prefixSize;
+        this.padded = padded;
+    }
+
+    /**
+     * Starts a new frame by reserving space for its length prefix. The body
+     * should then be written into the sink.
+     * @return The sink, for convenience.
+     */
+    public ByteSink beginFrame() {
+        if (this.frameStart != -1)
+            throw new IllegalStateException("The previous frame has not been ended");
+
+        if (CodecMetrics.ENABLED) this.event = CodecMetrics.beginFrameEncode();
+
+        this.frameStart = this.sink.reserve(this.prefixSize);
+        return this.sink;
+    }
+
+    /**
+     * Finishes the current frame by filling in its length prefix.
+     * @return The total length of the frame, including the prefix.
+     * @throws IllegalStateException If the body is too long for the prefix,
+     * in which case the whole frame is removed from the sink and the writer
+     * is ready for the next one.
+     */
+    public int endFrame() {
+        if (this.frameStart == -1)
+            throw new IllegalStateException("No frame has been started");
+
+        int bodyStart = this.frameStart + this.prefixSize;
+        int bodyLength = this.sink.available() - bodyStart;
+
+        int lengthSize = VarLengthNumbers.varIntSize(bodyLength);
+        if (lengthSize > this.prefixSize) {
+            // Drop the frame (its sampled event is simply never committed),
+            // rather than leave a half-written frame in the sink and the
+            // writer stuck waiting for it to be ended.
+            this.sink.removeRange(this.frameStart, this.sink.available());
+            this.frameStart = -1;
+            this.event = null;
+            throw new IllegalStateException("Frame body of " + bodyLength + " bytes does not fit in a " + this.prefixSize + " byte prefix");
+        }
+
+        int prefixLength = this.padded ? this.prefixSize : lengthSize;
+        writePrefix(this.frameStart, bodyLength, prefixLength);
+
+        // Close the gap between the prefix and the body, if there is one.
+        if (prefixLength < this.prefixSize) this.sink.removeRange(this.frameStart + prefixLength, bodyStart);
+
+        this.frameStart = -1;
+
+        if (CodecMetrics.ENABLED) {
+            CodecMetrics.endFrameEncode(this.event, bodyLength, prefixLength);
+            this.event = null;
+        }
+
+        return prefixLength + bodyLength;
+    }
+
+    /**
+     * Writes a whole frame for message. As the size of the body is measured
+     * first, the (minimal) length prefix can be written before the body, so
+     * nothing needs to be reserved, back-patched or moved.
+     *
+     * @param encoder The encoder for the message type.
+     * @param message The message to write as the body of the frame.
+     * @param <T> The message type.
+     * @return The total length of the frame, including the prefix.
+     */
+    public <T> int writeFrame(MessageEncoder<T> encoder, T message) {
+        if (this.frameStart != -1)
+            throw new IllegalStateException("The previous frame has not been ended");
+
+        FrameEncodeEvent event = CodecMetrics.ENABLED ? CodecMetrics.beginFrameEncode() : null;
+
+        int bodyLength = encoder.measure(message);
+        int lengthSize = VarLengthNumbers.varIntSize(bodyLength);
+        if (lengthSize > this.prefixSize)
+            throw new IllegalStateException("Frame body of " + bodyLength + " bytes does not fit in a " + this.prefixSize + " byte prefix");
+
+        if (this.padded) {
+            writePrefix(this.sink.reserve(this.prefixSize), bodyLength, this.prefixSize);
+        } else {
+            VarLengthNumbers.writeVarInt(this.sink, bodyLength);
+        }
+
+        this.sink.write(encoder, message);
+
+        int prefixLength = this.padded ? this.prefixSize : lengthSize;
+        if (CodecMetrics.ENABLED) CodecMetrics.endFrameEncode(event, bodyLength, prefixLength);
+        return prefixLength + bodyLength;
+    }
+
+    /**
+     * Writes value as a VarInt of exactly width bytes, starting at index. If
+     * width is more than the minimum needed, the extra bytes hold zeroes with
+     * the continuation bit set.
+     */
+    private void writePrefix(int index, int value, int width) {
+        for (int i = 0; i < width - 1; i++) {
+            this.sink.writeByteAt(index + i, (byte) ((value & 0b0111_1111) | 0b1000_0000));
+            value >>>= 7;
+        }
+
+        this.sink.writeByteAt(index + width - 1, (byte) value);
+    }
+
+}
@@ -7,6 +7,10 @@ package com.samjakob.protocol_experiments.interfaces;
  * Ideally, this can be used, as in the readVarInt and readVarLong functions,
  * as a lambda parameter, or alternatively any method using it can be copied
  *  * and refactored to remove this interface easily.
+ *
+ * The bulk methods have default implementations written in terms of
+ * readByte, so lambdas (e.g., source::getNextByte) keep working unchanged,
+ * whilst buffer-backed implementations can override them to copy in one go.
  */
 public interface ReaderInterface {
 
@@ -22,4 +26,41 @@ public interface ReaderInterface {
      */
     byte readByte();
 
-}
\ No newline at end of file
+    /**
+     * Reads exactly length bytes from the stream into destination, starting
+     * at offset.
+     *
+     * The default implementation simply calls readByte length times.
+     *
+     * @param destination The array to read the bytes into.
+     * @param offset The index in destination to write the first byte to.
+     * @param length The number of bytes to read.
+     */
+    default void readBytes(byte[] destination, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            destination[offset + i] = readByte();
+        }
+    }
+
+    /**
+     * An alias for readBytes(destination, 0, destination.length);
+     * @param destination The array to fill with bytes from the stream.
+     */
+    default void readBytes(byte[] destination) {
+        readBytes(destination, 0, destination.length);
+    }
+
+    /**
+     * Returns the number of bytes that can be read without blocking or
+     * running out of data.
+     *
+     * A lambda has no way of knowing this, so the default implementation
+     * returns -1 to indicate that the number of remaining bytes is unknown.
+     *
+     * @return The number of remaining bytes, or -1 if that isn't known.
+     */
+    default int remaining() {
+        return -1;
+    }
+
+}
@@ -7,6 +7,10 @@ package com.samjakob.protocol_experiments.interfaces;
  * Ideally, this can be used, as in the writeVarInt and writeVarLong functions,
  * as a lambda parameter, or alternatively any method using it can be copied
  * and refactored to remove this interface easily.
+ *
+ * The bulk method has a default implementation written in terms of writeByte,
+ * so lambdas (e.g., sink::writeByte) keep working unchanged, whilst
+ * buffer-backed implementations can override it to copy in one go.
  */
 public interface WriterInterface {
     /**
@@ -20,5 +24,27 @@ public interface WriterInterface {
      * @param value The byte to write.
      */
     void writeByte(byte value);
-}
 
+    /**
+     * Writes length bytes from source, starting at offset, to the sink.
+     *
+     * The default implementation simply calls writeByte length times.
+     *
+     * @param source The array containing the bytes to write.
+     * @param offset The index in source of the first byte to write.
+     * @param length The number of bytes to write.
+     */
+    default void writeBytes(byte[] source, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            writeByte(source[offset + i]);
+        }
+    }
+
+    /**
+     * An alias for writeBytes(source, 0, source.length);
+     * @param source The bytes to write.
+     */
+    default void writeBytes(byte[] source) {
+        writeBytes(source, 0, source.length);
+    }
+}
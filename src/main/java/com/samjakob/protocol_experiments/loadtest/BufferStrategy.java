@@ -0,0 +1,31 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+/**
+ * How a FrameConnection encodes the frames it sends, and where it keeps the
+ * bytes it receives - the thing being compared between load test runs.
+ */
+public enum BufferStrategy {
+
+    /**
+     * Frames are written into a ByteSink (a byte[] on the heap) with a
+     * FrameWriter, which back-patches the length prefix, and received into a
+     * heap ByteBuffer. Every write copies the frame into a temporary direct
+     * buffer inside the JDK.
+     */
+    HEAP,
+
+    /**
+     * Frames are measured first and then written, prefix and all, straight
+     * into a direct ByteBuffer owned by the connection, and received into a
+     * direct ByteBuffer.
+     */
+    DIRECT,
+
+    /**
+     * Each frame is written into a PooledByteSink borrowed from the shared
+     * ByteSinkPool for just that frame, and received into a direct
+     * ByteBuffer.
+     */
+    POOLED
+
+}
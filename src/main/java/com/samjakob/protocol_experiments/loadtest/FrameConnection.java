@@ -0,0 +1,171 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import com.samjakob.protocol_experiments.framing.FrameReader;
+import com.samjakob.protocol_experiments.framing.FrameWriter;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSinkPool;
+import com.samjakob.protocol_experiments.utils.PooledByteSink;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * One end of a load test connection: sends and receives length-prefixed
+ * frames over a blocking SocketChannel, using a given BufferStrategy.
+ *
+ * Every frame (in both directions) has the same body:
+ *
+ *     [timestamp: VarLong] [kind: VarInt] [count: VarInt] [count VarInts]
+ *
+ * where the timestamp is the System.nanoTime the request was meant to be
+ * sent at, which the server echoes back along with the sum of the values.
+ *
+ * A connection is only ever used by one thread at a time.
+ */
+final class FrameConnection implements Closeable {
+
+    private final SocketChannel channel;
+
+    private final BufferStrategy buffers;
+
+    private final FrameReader reader;
+
+    /**
+     * The received bytes that haven't been read yet, between its position
+     * and limit.
+     */
+    private final ByteBuffer input;
+
+    /**
+     * For HEAP, the sink (and its writer) that frames are encoded into.
+     */
+    private final ByteSink sink;
+
+    private final FrameWriter writer;
+
+    /**
+     * For DIRECT, the buffer that frames are encoded into.
+     */
+    private final ByteBuffer output;
+
+    /**
+     * Creates a connection.
+     *
+     * @param channel A connected, blocking channel.
+     * @param buffers How to encode and receive frames.
+     * @param maxFrameLength The longest frame body that will be sent or
+     *                       received, in bytes.
+     */
+    FrameConnection(SocketChannel channel, BufferStrategy buffers, int maxFrameLength) {
+        this.channel = channel;
+        this.buffers = buffers;
+        this.reader = new FrameReader(maxFrameLength);
+
+        int capacity = Math.max(maxFrameLength + 5, 4096);
+        this.input = buffers == BufferStrategy.HEAP
+            ? ByteBuffer.allocate(capacity)
+            : ByteBuffer.allocateDirect(capacity);
+        this.input.flip();
+
+        this.sink = buffers == BufferStrategy.HEAP ? new ByteSink(maxFrameLength + 5) : null;
+        this.writer = this.sink != null ? new FrameWriter(this.sink) : null;
+        this.output = buffers == BufferStrategy.DIRECT ? ByteBuffer.allocateDirect(maxFrameLength + 5) : null;
+    }
+
+    /**
+     * Returns the length of the body of a frame holding count values.
+     */
+    static int bodyLength(long timestamp, int kind, int[] values, int count) {
+        int length = varLongSize(timestamp) + varIntSize(kind) + varIntSize(count);
+        for (int i = 0; i < count; i++) length += varIntSize(values[i]);
+        return length;
+    }
+
+    /**
+     * Sends a frame holding the first count values.
+     * @return The length of the frame, including its prefix.
+     */
+    int send(long timestamp, int kind, int[] values, int count) throws IOException {
+        switch (this.buffers) {
+            case HEAP: {
+                this.writer.beginFrame();
+                writeBody(this.sink, timestamp, kind, values, count);
+                int length = this.writer.endFrame();
+
+                this.sink.writeTo(this.channel);
+                this.sink.clear();
+                return length;
+            }
+            case DIRECT: {
+                ByteBuffer output = this.output.clear();
+                writeVarInt(output, bodyLength(timestamp, kind, values, count));
+                writeVarLong(output, timestamp);
+                writeVarInt(output, kind);
+                writeVarInt(output, count);
+                for (int i = 0; i < count; i++) writeVarInt(output, values[i]);
+
+                output.flip();
+                int length = output.remaining();
+                while (output.hasRemaining()) this.channel.write(output);
+                return length;
+            }
+            case POOLED: {
+                int bodyLength = bodyLength(timestamp, kind, values, count);
+                try (PooledByteSink sink = ByteSinkPool.shared().acquire(varIntSize(bodyLength) + bodyLength)) {
+                    writeVarInt(sink, bodyLength);
+                    writeBody(sink, timestamp, kind, values, count);
+
+                    int length = sink.available();
+                    sink.writeTo(this.channel);
+                    return length;
+                }
+            }
+            default:
+                throw new IllegalStateException("Unknown buffer strategy: " + this.buffers);
+        }
+    }
+
+    private static void writeBody(WriterInterface writer, long timestamp, int kind, int[] values, int count) {
+        writeVarLong(writer, timestamp);
+        writeVarInt(writer, kind);
+        writeVarInt(writer, count);
+        for (int i = 0; i < count; i++) writeVarInt(writer, values[i]);
+    }
+
+    /**
+     * Waits for the next frame and returns its body, which is only valid
+     * until the next call.
+     *
+     * @return The body of the frame, or null if the peer closed the
+     * connection cleanly (i.e., between frames).
+     * @throws EOFException If the peer closed the connection part-way
+     * through a frame.
+     */
+    ByteBuffer nextFrame() throws IOException {
+        while (true) {
+            ByteBuffer body = this.reader.nextFrame(this.input);
+            if (body != null) return body;
+
+            this.input.compact();
+            int read = this.channel.read(this.input);
+            this.input.flip();
+
+            if (read < 0) {
+                if (this.input.hasRemaining()) throw new EOFException("Connection closed part-way through a frame");
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size histogram of latencies (or any non-negative longs), recorded
+ * in log-linear buckets in the style of HdrHistogram: every power of two is
+ * split into the same number of equal sub-buckets, so each bucket is at most
+ * 1/128th (under 0.8%) as wide as the values in it, whether those are
+ * microseconds or minutes.
+ *
+ * That makes recording a value one numberOfLeadingZeros, a shift and an
+ * atomic increment, with nothing allocated, and the whole histogram (for
+ * the entire range of long) a fixed 7296 counters.
+ *
+ * Any number of threads may record at once. Reading (percentiles and so on)
+ * whilst values are being recorded gives a view that may be slightly out of
+ * date, but never one that is wildly wrong.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Values below 2^SUB_BUCKET_BITS each get a bucket of their own; above
+     * that, each power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 8;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private static final int BUCKET_COUNT =
+        SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value The value to record, e.g., a latency in nanoseconds.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        this.counts.getAndIncrement(bucketOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Adds every value recorded in other to this histogram.
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) this.counts.getAndAdd(i, count);
+        }
+        this.count.add(other.count.sum());
+        this.sum.add(other.sum.sum());
+        this.max.accumulate(other.max.get());
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) this.counts.set(i, 0);
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+
+    /**
+     * Returns the number of values recorded.
+     * @return The number of values.
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * Returns the largest value recorded (exactly, not rounded to a bucket).
+     * @return The largest value, or 0 if none have been recorded.
+     */
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     * @return The mean, or 0 if none have been recorded.
+     */
+    public double mean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Returns the value that percentile percent of the recorded values are
+     * less than or equal to - or rather, the largest value that is in the
+     * same bucket as it, so the result is never an underestimate.
+     *
+     * @param percentile The percentile, from 0 to 100 (e.g., 99.9).
+     * @return The value at that percentile, or 0 if none have been recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) total += this.counts.get(i);
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) return Math.min(highestValueIn(i), max());
+        }
+
+        return max();
+    }
+
+    /**
+     * Returns the index of the bucket that holds value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+
+        // The values from 2^exponent to 2^(exponent + 1) share a bucket width
+        // of 2^(exponent - SUB_BUCKET_BITS + 1), i.e., the top SUB_BUCKET_BITS
+        // bits of the value pick its bucket (the first of which is always 1).
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT
+            + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT
+            + (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the largest value that falls in bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+
+        int exponent = (bucket - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+
+        long lowest = (long) subBucket << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+}
@@ -0,0 +1,399 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * A self-contained load test of the protocol stack: starts a LoopbackServer
+ * on localhost, then has many clients - each on its own (virtual, where
+ * available) thread with its own connection - send it request frames and
+ * wait for the replies, recording the round-trip latency of each.
+ *
+ *     ./gradlew loadTest -PloadTestArgs="connections=2000 seconds=30 buffers=pooled"
+ *
+ * Options are given as key=value arguments:
+ *
+ *  - connections: the number of client connections (default 100).
+ *  - seconds: how long to measure for, after the warmup (default 10).
+ *  - warmup: seconds of load that aren't measured (default 2).
+ *  - rate: the total requests per second across all connections, or 0 for
+ *    as fast as possible (default 0).
+ *  - mix: the kinds of request to send - see MessageMix (default
+ *    70:4,25:64,5:1024).
+ *  - buffers: heap, direct or pooled - see BufferStrategy (default heap).
+ *  - threads: virtual or platform (default virtual).
+ *  - seed: the seed for the random requests (default 1).
+ *
+ * Each connection sends one request at a time. Without a rate, it sends the
+ * next request as soon as the reply arrives, so the latencies are those of
+ * a saturated server. With a rate, each connection sends on a fixed
+ * schedule, and latency is measured from when a request was meant to be
+ * sent rather than when it actually was, so that a stall counts against
+ * every request it held up - not just the one that was in flight (i.e.,
+ * "coordinated omission" is corrected for, as in HdrHistogram and wrk2).
+ *
+ * Virtual threads only exist from Java 21 (or 19 with preview features), so
+ * they are looked up reflectively, with platform threads used instead on
+ * older JVMs.
+ */
+public final class LoadGenerator {
+
+    /**
+     * The settings for a run. See the class description for their meaning.
+     */
+    public static final class Options {
+
+        public int connections = 100;
+
+        public double seconds = 10;
+
+        public double warmup = 2;
+
+        public double rate = 0;
+
+        public String mix = "70:4,25:64,5:1024";
+
+        public BufferStrategy buffers = BufferStrategy.HEAP;
+
+        public boolean virtualThreads = true;
+
+        public long seed = 1;
+
+        /**
+         * Parses key=value arguments over the defaults.
+         * @param args The arguments.
+         * @return The options.
+         * @throws IllegalArgumentException If an argument is invalid.
+         */
+        public static Options parse(String... args) {
+            var options = new Options();
+
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) throw new IllegalArgumentException("Expected key=value, not '" + arg + "'");
+
+                String key = arg.substring(0, separator);
+                String value = arg.substring(separator + 1);
+                switch (key) {
+                    case "connections": options.connections = Integer.parseInt(value); break;
+                    case "seconds": options.seconds = Double.parseDouble(value); break;
+                    case "warmup": options.warmup = Double.parseDouble(value); break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "mix": options.mix = value; break;
+                    case "buffers": options.buffers = BufferStrategy.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "threads":
+                        if (!value.equals("virtual") && !value.equals("platform"))
+                            throw new IllegalArgumentException("Threads must be virtual or platform");
+                        options.virtualThreads = value.equals("virtual");
+                        break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + key);
+                }
+            }
+
+            if (options.connections < 1) throw new IllegalArgumentException("There must be at least 1 connection");
+            if (options.seconds <= 0 || options.warmup < 0 || options.rate < 0)
+                throw new IllegalArgumentException("Durations and rate must not be negative");
+            return options;
+        }
+
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Result {
+
+        /**
+         * The round-trip latencies measured, in nanoseconds.
+         */
+        public final LatencyHistogram latencies;
+
+        public final long messages;
+
+        public final long bytesSent;
+
+        /**
+         * The number of wrong replies and failed connections (on either
+         * end).
+         */
+        public final long errors;
+
+        public final double seconds;
+
+        /**
+         * Whether the clients and server ran on virtual threads.
+         */
+        public final boolean virtualThreads;
+
+        Result(LatencyHistogram latencies, long messages, long bytesSent, long errors, double seconds, boolean virtualThreads) {
+            this.latencies = latencies;
+            this.messages = messages;
+            this.bytesSent = bytesSent;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.virtualThreads = virtualThreads;
+        }
+
+        public double messagesPerSecond() {
+            return this.messages / this.seconds;
+        }
+
+    }
+
+    private final Options options;
+
+    private final MessageMix mix;
+
+    private final int maxFrameLength;
+
+    /**
+     * Latencies are recorded into one of these, picked by connection, so
+     * that thousands of clients aren't all incrementing the same counters.
+     */
+    private final LatencyHistogram[] histograms;
+
+    private final LongAdder messages = new LongAdder();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * The System.nanoTimes between which requests are measured, i.e., from
+     * the end of the warmup to the end of the run. Requests are only
+     * measured if they were meant to be sent in that window, so the result
+     * doesn't depend on how promptly the threads notice that it's over.
+     */
+    private long measureFrom;
+
+    private long measureUntil;
+
+    private volatile boolean stopping;
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+        this.mix = MessageMix.parse(options.mix);
+        // A VarLong timestamp, then the kind, count and values as VarInts of
+        // at most 10 and 5 bytes.
+        this.maxFrameLength = 10 + 5 + 5 + this.mix.maxValueCount() * 5;
+
+        this.histograms = new LatencyHistogram[Math.min(options.connections, Runtime.getRuntime().availableProcessors() * 4)];
+        for (int i = 0; i < this.histograms.length; i++) this.histograms[i] = new LatencyHistogram();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Result result = new LoadGenerator(options).run(System.out);
+        printResult(System.out, options, result);
+    }
+
+    /**
+     * Runs the load test, printing the throughput every second to progress
+     * (if it isn't null).
+     *
+     * @param progress Where to print progress, or null.
+     * @return The measurements.
+     */
+    public Result run(PrintStream progress) throws IOException, InterruptedException {
+        ThreadFactory threads = threadFactory(this.options.virtualThreads, "LoadGenerator");
+        boolean virtual = this.options.virtualThreads && isVirtualThreadFactory(threads);
+
+        try (var server = new LoopbackServer(threads, this.options.buffers, this.maxFrameLength)) {
+            InetSocketAddress address = server.address();
+
+            long start = System.nanoTime();
+            this.measureFrom = start + seconds(this.options.warmup);
+            this.measureUntil = this.measureFrom + seconds(this.options.seconds);
+
+            var finished = new CountDownLatch(this.options.connections);
+            for (int i = 0; i < this.options.connections; i++) {
+                int index = i;
+                threads.newThread(() -> {
+                    try {
+                        runClient(index, address);
+                    } finally {
+                        finished.countDown();
+                    }
+                }).start();
+            }
+
+            long lastMessages = 0;
+            long second = TimeUnit.SECONDS.toNanos(1);
+            for (long tick = start + second; tick - this.measureUntil < 0; tick += second) {
+                sleepUntil(tick);
+                if (progress != null) {
+                    long messages = this.messages.sum();
+                    progress.printf(Locale.ROOT, "%s %,12d msg/s  errors: %d%n",
+                        tick - second - this.measureFrom < 0 ? "warmup " : "measure", messages - lastMessages, this.errors.sum());
+                    lastMessages = messages;
+                }
+            }
+            sleepUntil(this.measureUntil);
+
+            this.stopping = true;
+            finished.await();
+
+            var latencies = new LatencyHistogram();
+            for (LatencyHistogram histogram : this.histograms) latencies.add(histogram);
+
+            return new Result(latencies, latencies.count(), this.bytesSent.sum(),
+                this.errors.sum() + server.failures(), this.options.seconds, virtual);
+        }
+    }
+
+    private void runClient(int index, InetSocketAddress address) {
+        var random = new SplittableRandom(this.options.seed + index);
+        LatencyHistogram histogram = this.histograms[index % this.histograms.length];
+        int[] values = new int[this.mix.maxValueCount()];
+
+        // Each connection's share of the rate, with the first request at a
+        // random point in the first interval so they don't all go at once.
+        long interval = this.options.rate > 0 ? (long) (1e9 * this.options.connections / this.options.rate) : 0;
+        long next = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0);
+
+        try (SocketChannel channel = SocketChannel.open(address);
+             var connection = new FrameConnection(channel, this.options.buffers, this.maxFrameLength)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            while (!this.stopping) {
+                long intended;
+                if (interval > 0) {
+                    intended = next;
+                    next += interval;
+
+                    // A request meant for after the window wouldn't be
+                    // measured, so rather than park until then (which, at
+                    // a low rate, can be many seconds after the run should
+                    // have finished) the client stops here.
+                    if (intended - this.measureUntil >= 0) break;
+
+                    long remaining;
+                    while (!this.stopping && (remaining = intended - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+                    if (this.stopping) break;
+                } else {
+                    intended = System.nanoTime();
+                }
+
+                int kind = this.mix.nextKind(random);
+                int count = this.mix.valueCount(kind);
+                int expected = 0;
+                for (int i = 0; i < count; i++) {
+                    // Spread the values over every VarInt length.
+                    values[i] = random.nextInt() >>> random.nextInt(32);
+                    expected += values[i];
+                }
+
+                int sent = connection.send(intended, kind, values, count);
+
+                ByteBuffer reply = connection.nextFrame();
+                if (reply == null) break;
+
+                long timestamp = readVarLong(reply);
+                int replyKind = readVarInt(reply);
+                int replyCount = readVarInt(reply);
+                int checksum = replyCount == 1 ? readVarInt(reply) : ~expected;
+                long latency = System.nanoTime() - timestamp;
+
+                if (timestamp != intended || replyKind != kind || checksum != expected) this.errors.increment();
+                if (intended - this.measureFrom >= 0 && intended - this.measureUntil < 0) {
+                    histogram.record(latency);
+                    this.bytesSent.add(sent);
+                }
+                this.messages.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!this.stopping) this.errors.increment();
+        }
+    }
+
+    /**
+     * Prints a summary of result.
+     * @param out Where to print it.
+     * @param options The options the result was measured with.
+     * @param result The result to print.
+     */
+    public static void printResult(PrintStream out, Options options, Result result) {
+        LatencyHistogram latencies = result.latencies;
+
+        out.printf(Locale.ROOT, "Connections: %d on %s threads, buffers: %s, mix: %s, rate: %s%n",
+            options.connections, result.virtualThreads ? "virtual" : "platform",
+            options.buffers.name().toLowerCase(Locale.ROOT), options.mix,
+            options.rate > 0 ? String.format(Locale.ROOT, "%,.0f msg/s", options.rate) : "unlimited");
+        out.printf(Locale.ROOT, "Messages:    %,d in %.1f s (%,.0f msg/s, %.1f MiB/s sent), errors: %d%n",
+            result.messages, result.seconds, result.messagesPerSecond(),
+            result.bytesSent / result.seconds / (1024 * 1024), result.errors);
+        out.printf(Locale.ROOT, "Latency:     p50 %s  p99 %s  p99.9 %s  max %s  mean %s%n",
+            formatNanos(latencies.valueAtPercentile(50)), formatNanos(latencies.valueAtPercentile(99)),
+            formatNanos(latencies.valueAtPercentile(99.9)), formatNanos(latencies.max()),
+            formatNanos((long) latencies.mean()));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1f us", nanos / 1e3);
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+    }
+
+    private static long seconds(double seconds) {
+        return (long) (seconds * 1e9);
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+    }
+
+    /**
+     * Returns a factory for virtual threads if virtual is true and the JVM
+     * supports them, or for (daemon) platform threads otherwise.
+     *
+     * @param virtual Whether to try for virtual threads.
+     * @param name The prefix of the threads' names.
+     * @return The thread factory.
+     */
+    static ThreadFactory threadFactory(boolean virtual, String name) {
+        if (virtual) {
+            try {
+                // Thread.ofVirtual().name(name + "-", 0).factory()
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Not supported (or, on 19 and 20, a preview feature that
+                // hasn't been enabled), so fall back to platform threads.
+            }
+        }
+
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static boolean isVirtualThreadFactory(ThreadFactory threads) {
+        Thread thread = threads.newThread(() -> { });
+        try {
+            return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+
+/**
+ * The server half of the load generator: listens on the loopback address
+ * and, for each request frame it receives, decodes every value in it and
+ * replies with a frame holding the request's timestamp and kind, and the
+ * sum of its values (which the client checks).
+ *
+ * Each connection is handled by its own thread from the given factory -
+ * i.e., a virtual thread, when they're available - doing blocking reads and
+ * writes, which is the simplest possible server and (with virtual threads)
+ * one that still scales to thousands of connections.
+ */
+final class LoopbackServer implements Closeable {
+
+    private final ServerSocketChannel serverChannel;
+
+    private final ThreadFactory threads;
+
+    private final BufferStrategy buffers;
+
+    private final int maxFrameLength;
+
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder framesHandled = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final Thread acceptor;
+
+    private volatile boolean closed;
+
+    /**
+     * Starts a server on an ephemeral port of the loopback address.
+     *
+     * @param threads Creates the thread for each connection.
+     * @param buffers How to encode and receive frames.
+     * @param maxFrameLength The longest request body accepted, in bytes.
+     */
+    LoopbackServer(ThreadFactory threads, BufferStrategy buffers, int maxFrameLength) throws IOException {
+        this.threads = threads;
+        this.buffers = buffers;
+        this.maxFrameLength = maxFrameLength;
+
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+
+        this.acceptor = new Thread(this::accept, "LoopbackServer-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    long framesHandled() {
+        return this.framesHandled.sum();
+    }
+
+    /**
+     * Returns the number of connections that ended with an error (other than
+     * being closed by close()).
+     */
+    long failures() {
+        return this.failures.sum();
+    }
+
+    private void accept() {
+        try {
+            while (!this.closed) {
+                SocketChannel channel = this.serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                this.connections.add(channel);
+                this.threads.newThread(() -> handle(channel)).start();
+            }
+        } catch (IOException e) {
+            if (!this.closed) this.failures.increment();
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        int[] checksum = new int[1];
+
+        try (var connection = new FrameConnection(channel, this.buffers, this.maxFrameLength)) {
+            ByteBuffer body;
+            while ((body = connection.nextFrame()) != null) {
+                long timestamp = readVarLong(body);
+                int kind = readVarInt(body);
+                int count = readVarInt(body);
+                if (count < 0 || count > body.remaining())
+                    throw new RuntimeException("Invalid value count: " + count);
+
+                int sum = 0;
+                for (int i = 0; i < count; i++) sum += readVarInt(body);
+                checksum[0] = sum;
+
+                connection.send(timestamp, kind, checksum, 1);
+                this.framesHandled.increment();
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close().
+        } catch (IOException | RuntimeException e) {
+            if (!this.closed) this.failures.increment();
+        } finally {
+            this.connections.remove(channel);
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes every open one.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverChannel.close();
+        for (SocketChannel channel : this.connections) channel.close();
+    }
+
+}
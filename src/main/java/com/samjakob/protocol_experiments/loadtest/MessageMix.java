@@ -0,0 +1,87 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import java.util.SplittableRandom;
+
+/**
+ * The kinds of request a load test sends, and how often it sends each one.
+ * A mix is written as weight:values pairs, e.g., "70:4,25:64,5:1024" sends
+ * requests of 4 VarInts 70% of the time, of 64 VarInts 25% of the time and
+ * of 1024 VarInts the rest of the time. The kind of a request is the index
+ * of its pair.
+ */
+final class MessageMix {
+
+    private final int[] valueCounts;
+
+    /**
+     * The running total of the weights, up to and including each kind.
+     */
+    private final int[] cumulativeWeights;
+
+    private MessageMix(int[] valueCounts, int[] cumulativeWeights) {
+        this.valueCounts = valueCounts;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    /**
+     * Parses a mix of weight:values pairs, separated by commas.
+     * @throws IllegalArgumentException If the mix is invalid.
+     */
+    static MessageMix parse(String mix) {
+        String[] pairs = mix.split(",");
+        int[] valueCounts = new int[pairs.length];
+        int[] cumulativeWeights = new int[pairs.length];
+
+        int total = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            String[] parts = pairs[i].trim().split(":");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Expected weight:values, not '" + pairs[i] + "'");
+
+            int weight = Integer.parseInt(parts[0].trim());
+            int values = Integer.parseInt(parts[1].trim());
+            if (weight < 0 || values < 0)
+                throw new IllegalArgumentException("Weights and value counts must not be negative");
+
+            total = Math.addExact(total, weight);
+            valueCounts[i] = values;
+            cumulativeWeights[i] = total;
+        }
+
+        if (total == 0) throw new IllegalArgumentException("The mix must have a non-zero weight");
+        return new MessageMix(valueCounts, cumulativeWeights);
+    }
+
+    /**
+     * Picks the kind of the next request.
+     */
+    int nextKind(SplittableRandom random) {
+        int weight = random.nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+
+        int kind = 0;
+        while (weight >= this.cumulativeWeights[kind]) kind++;
+        return kind;
+    }
+
+    int valueCount(int kind) {
+        return this.valueCounts[kind];
+    }
+
+    int maxValueCount() {
+        int max = 0;
+        for (int count : this.valueCounts) max = Math.max(max, count);
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        for (int i = 0; i < this.valueCounts.length; i++) {
+            if (i > 0) builder.append(',');
+            int weight = this.cumulativeWeights[i] - (i == 0 ? 0 : this.cumulativeWeights[i - 1]);
+            builder.append(weight).append(':').append(this.valueCounts[i]);
+        }
+        return builder.toString();
+    }
+
+}
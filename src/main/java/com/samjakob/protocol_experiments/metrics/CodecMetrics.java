@@ -0,0 +1,404 @@
+package com.samjakob.protocol_experiments.metrics;
+
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in counters for the codecs: how long the VarInts and VarLongs that are
+ * written and read are, how many bytes go through ByteSink and ByteSource,
+ * and how much invalid input is rejected. A sample of frames written by
+ * FrameWriter (and read by FrameReader) are also reported to Java Flight
+ * Recorder, as FrameEncodeEvent and FrameDecodeEvent.
+ *
+ * Metrics are off unless the JVM is started with
+ *
+ *     -Dprotocol_experiments.metrics=true
+ *
+ * Every hook in the codecs is guarded by the static final ENABLED flag:
+ *
+ *     if (CodecMetrics.ENABLED) CodecMetrics.recordVarIntWritten(value);
+ *
+ * so, once the JIT has compiled the caller, a disabled hook is dead code and
+ * is removed entirely - there is no field load or branch left behind. The
+ * flag can't be changed at run time for the same reason.
+ *
+ * The counters are LongAdders, which are striped across cells when several
+ * threads update them at once, so threads that encode in parallel don't all
+ * contend on the same cache line. Reading them (with snapshot) is
+ * comparatively slow, and should be done every few seconds at most.
+ *
+ * The single-value readers record the length of a value's shortest encoding
+ * (i.e., varIntSize of the value), which only differs from the number of
+ * bytes actually read for padded values, such as FrameWriter's padded
+ * prefixes. The validate methods only count invalid input.
+ */
+public final class CodecMetrics {
+
+    /**
+     * Whether metrics are recorded. Read once, when this class is
+     * initialized.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("protocol_experiments.metrics");
+
+    /**
+     * One in this many frames is reported to JFR (if the event is enabled in
+     * the recording). Set with -Dprotocol_experiments.metrics.frameSampleRate,
+     * where 1 reports every frame.
+     */
+    public static final int FRAME_SAMPLE_RATE = Math.max(1, Integer.getInteger("protocol_experiments.metrics.frameSampleRate", 100));
+
+    /**
+     * The longest VarInt, in bytes.
+     */
+    public static final int MAX_VAR_INT_LENGTH = 5;
+
+    /**
+     * The longest VarLong, in bytes.
+     */
+    public static final int MAX_VAR_LONG_LENGTH = 10;
+
+    /**
+     * The counters for each encoded length, indexed by the length in bytes
+     * (so index 0 is unused).
+     */
+    private static final LongAdder[] VAR_INTS_WRITTEN = adders(MAX_VAR_INT_LENGTH + 1);
+    private static final LongAdder[] VAR_INTS_READ = adders(MAX_VAR_INT_LENGTH + 1);
+    private static final LongAdder[] VAR_LONGS_WRITTEN = adders(MAX_VAR_LONG_LENGTH + 1);
+    private static final LongAdder[] VAR_LONGS_READ = adders(MAX_VAR_LONG_LENGTH + 1);
+
+    private static final LongAdder INVALID_INPUTS = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder BYTES_READ = new LongAdder();
+
+    private CodecMetrics() {}
+
+    public static void recordVarIntWritten(int value) {
+        VAR_INTS_WRITTEN[VarLengthNumbers.varIntSize(value)].increment();
+    }
+
+    public static void recordVarIntRead(int value) {
+        VAR_INTS_READ[VarLengthNumbers.varIntSize(value)].increment();
+    }
+
+    public static void recordVarLongWritten(long value) {
+        VAR_LONGS_WRITTEN[VarLengthNumbers.varLongSize(value)].increment();
+    }
+
+    public static void recordVarLongRead(long value) {
+        VAR_LONGS_READ[VarLengthNumbers.varLongSize(value)].increment();
+    }
+
+    /**
+     * Records count VarInts of length bytes each being written at once, e.g.,
+     * by the bulk encoder's single byte fast path.
+     * @param length The length of each VarInt, from 1 to 5.
+     * @param count The number of VarInts.
+     */
+    public static void recordVarIntsWritten(int length, int count) {
+        VAR_INTS_WRITTEN[length].add(count);
+    }
+
+    /**
+     * Records count VarInts of length bytes each being read at once.
+     * @param length The length of each VarInt, from 1 to 5.
+     * @param count The number of VarInts.
+     */
+    public static void recordVarIntsRead(int length, int count) {
+        VAR_INTS_READ[length].add(count);
+    }
+
+    /**
+     * Records a VarInt or VarLong (or a frame length prefix) being rejected
+     * as invalid.
+     */
+    public static void recordInvalidInput() {
+        INVALID_INPUTS.increment();
+    }
+
+    public static void recordBytesWritten(int count) {
+        BYTES_WRITTEN.add(count);
+    }
+
+    public static void recordBytesRead(int count) {
+        BYTES_READ.add(count);
+    }
+
+    /**
+     * Starts timing a frame being encoded, if this frame is one of the
+     * sampled ones and the event is enabled in a JFR recording.
+     * @return The event to pass to endFrameEncode, or null if the frame
+     * isn't being recorded.
+     */
+    public static FrameEncodeEvent beginFrameEncode() {
+        if (!sampled()) return null;
+
+        FrameEncodeEvent event = new FrameEncodeEvent();
+        if (!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finishes (and commits) an event started by beginFrameEncode.
+     * @param event The event, or null if the frame isn't being recorded.
+     * @param bodyLength The length of the frame's body in bytes.
+     * @param prefixLength The length of the frame's length prefix in bytes.
+     */
+    public static void endFrameEncode(FrameEncodeEvent event, int bodyLength, int prefixLength) {
+        if (event == null) return;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.bodyLength = bodyLength;
+            event.prefixLength = prefixLength;
+            event.commit();
+        }
+    }
+
+    /**
+     * As with beginFrameEncode, but for a frame being decoded.
+     * @return The event to pass to endFrameDecode, or null.
+     */
+    public static FrameDecodeEvent beginFrameDecode() {
+        if (!sampled()) return null;
+
+        FrameDecodeEvent event = new FrameDecodeEvent();
+        if (!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finishes (and commits) an event started by beginFrameDecode.
+     * @param event The event, or null if the frame isn't being recorded.
+     * @param bodyLength The length of the frame's body in bytes.
+     */
+    public static void endFrameDecode(FrameDecodeEvent event, int bodyLength) {
+        if (event == null) return;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.bodyLength = bodyLength;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the current value of every counter. Subtract an earlier snapshot
+     * (with since) to get the rates over the time between them.
+     * @return The current totals.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot(
+            System.nanoTime(),
+            sums(VAR_INTS_WRITTEN), sums(VAR_INTS_READ),
+            sums(VAR_LONGS_WRITTEN), sums(VAR_LONGS_READ),
+            INVALID_INPUTS.sum(), BYTES_WRITTEN.sum(), BYTES_READ.sum()
+        );
+    }
+
+    /**
+     * Sets every counter back to zero. Counts recorded whilst this is running
+     * may or may not be kept.
+     */
+    public static void reset() {
+        for (LongAdder[] adders : new LongAdder[][] { VAR_INTS_WRITTEN, VAR_INTS_READ, VAR_LONGS_WRITTEN, VAR_LONGS_READ }) {
+            for (LongAdder adder : adders) adder.reset();
+        }
+
+        INVALID_INPUTS.reset();
+        BYTES_WRITTEN.reset();
+        BYTES_READ.reset();
+    }
+
+    private static boolean sampled() {
+        return FRAME_SAMPLE_RATE == 1 || ThreadLocalRandom.current().nextInt(FRAME_SAMPLE_RATE) == 0;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) sums[i] = adders[i].sum();
+        return sums;
+    }
+
+    /**
+     * The values of the counters at one point in time (or, from since, the
+     * difference between two points in time).
+     *
+     * The histograms are indexed by encoded length in bytes, so, e.g.,
+     * varIntsWritten()[2] is the number of 2 byte VarInts written.
+     */
+    public static final class Snapshot {
+
+        private final long nanoTime;
+
+        /**
+         * The time covered by this snapshot in nanoseconds - 0 unless it was
+         * created by since.
+         */
+        private final long elapsedNanos;
+
+        private final long[] varIntsWritten;
+        private final long[] varIntsRead;
+        private final long[] varLongsWritten;
+        private final long[] varLongsRead;
+
+        private final long invalidInputs;
+        private final long bytesWritten;
+        private final long bytesRead;
+
+        private Snapshot(long nanoTime, long[] varIntsWritten, long[] varIntsRead, long[] varLongsWritten, long[] varLongsRead,
+                         long invalidInputs, long bytesWritten, long bytesRead) {
+            this(nanoTime, 0, varIntsWritten, varIntsRead, varLongsWritten, varLongsRead, invalidInputs, bytesWritten, bytesRead);
+        }
+
+        private Snapshot(long nanoTime, long elapsedNanos, long[] varIntsWritten, long[] varIntsRead, long[] varLongsWritten,
+                         long[] varLongsRead, long invalidInputs, long bytesWritten, long bytesRead) {
+            this.nanoTime = nanoTime;
+            this.elapsedNanos = elapsedNanos;
+            this.varIntsWritten = varIntsWritten;
+            this.varIntsRead = varIntsRead;
+            this.varLongsWritten = varLongsWritten;
+            this.varLongsRead = varLongsRead;
+            this.invalidInputs = invalidInputs;
+            this.bytesWritten = bytesWritten;
+            this.bytesRead = bytesRead;
+        }
+
+        /**
+         * Returns the change in every counter from earlier to this snapshot,
+         * which can then be turned into rates with perSecond.
+         * @param earlier A snapshot taken before this one.
+         * @return The difference between the snapshots.
+         */
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(
+                this.nanoTime, this.nanoTime - earlier.nanoTime,
+                minus(this.varIntsWritten, earlier.varIntsWritten), minus(this.varIntsRead, earlier.varIntsRead),
+                minus(this.varLongsWritten, earlier.varLongsWritten), minus(this.varLongsRead, earlier.varLongsRead),
+                this.invalidInputs - earlier.invalidInputs,
+                this.bytesWritten - earlier.bytesWritten,
+                this.bytesRead - earlier.bytesRead
+            );
+        }
+
+        public long elapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        /**
+         * Converts a count from this snapshot into a rate per second.
+         * @param count A count from a snapshot created by since.
+         * @return The count per second, or NaN if no time has elapsed.
+         */
+        public double perSecond(long count) {
+            return this.elapsedNanos == 0 ? Double.NaN : count * 1e9 / this.elapsedNanos;
+        }
+
+        public long[] varIntsWritten() {
+            return this.varIntsWritten.clone();
+        }
+
+        public long[] varIntsRead() {
+            return this.varIntsRead.clone();
+        }
+
+        public long[] varLongsWritten() {
+            return this.varLongsWritten.clone();
+        }
+
+        public long[] varLongsRead() {
+            return this.varLongsRead.clone();
+        }
+
+        /**
+         * Returns the total number of VarInts and VarLongs written.
+         * @return The number of values written.
+         */
+        public long valuesWritten() {
+            return total(this.varIntsWritten) + total(this.varLongsWritten);
+        }
+
+        /**
+         * Returns the total number of VarInts and VarLongs read.
+         * @return The number of values read.
+         */
+        public long valuesRead() {
+            return total(this.varIntsRead) + total(this.varLongsRead);
+        }
+
+        /**
+         * Returns the total encoded length of every VarInt and VarLong
+         * written, i.e., the sum of each histogram bucket times its length.
+         * @return The number of bytes of VarInts and VarLongs written.
+         */
+        public long encodedBytesWritten() {
+            return weightedTotal(this.varIntsWritten) + weightedTotal(this.varLongsWritten);
+        }
+
+        /**
+         * As with encodedBytesWritten, but for the values read.
+         * @return The number of bytes of VarInts and VarLongs read.
+         */
+        public long encodedBytesRead() {
+            return weightedTotal(this.varIntsRead) + weightedTotal(this.varLongsRead);
+        }
+
+        public long invalidInputs() {
+            return this.invalidInputs;
+        }
+
+        /**
+         * Returns the number of bytes written to ByteSinks.
+         */
+        public long bytesWritten() {
+            return this.bytesWritten;
+        }
+
+        /**
+         * Returns the number of bytes read from ByteSources.
+         */
+        public long bytesRead() {
+            return this.bytesRead;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "values written: %d (%d bytes), values read: %d (%d bytes), sink bytes: %d, source bytes: %d, invalid: %d",
+                valuesWritten(), encodedBytesWritten(), valuesRead(), encodedBytesRead(),
+                this.bytesWritten, this.bytesRead, this.invalidInputs
+            );
+        }
+
+        private static long[] minus(long[] a, long[] b) {
+            long[] result = new long[a.length];
+            for (int i = 0; i < a.length; i++) result[i] = a[i] - b[i];
+            return result;
+        }
+
+        private static long total(long[] histogram) {
+            long total = 0;
+            for (long count : histogram) total += count;
+            return total;
+        }
+
+        private static long weightedTotal(long[] histogram) {
+            long total = 0;
+            for (int length = 1; length < histogram.length; length++) total += length * histogram[length];
+            return total;
+        }
+
+    }
+
+}
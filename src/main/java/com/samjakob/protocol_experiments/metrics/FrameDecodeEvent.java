@@ -0,0 +1,27 @@
+package com.samjakob.protocol_experiments.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event covering the decoding of a (sampled) frame by a FrameReader.
+ *
+ * @see CodecMetrics#beginFrameDecode()
+ */
+@Name("protocol_experiments.FrameDecode")
+@Label("Frame Decode")
+@Category({ "Protocol Experiments", "Framing" })
+@Description("A sampled frame being decoded by a FrameReader")
+@StackTrace(false)
+public final class FrameDecodeEvent extends Event {
+
+    @Label("Body Length")
+    @DataAmount(DataAmount.BYTES)
+    public int bodyLength;
+
+}
@@ -0,0 +1,32 @@
+package com.samjakob.protocol_experiments.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event covering the encoding of a (sampled) frame by a FrameWriter,
+ * from beginFrame to endFrame (or the whole of writeFrame).
+ *
+ * @see CodecMetrics#beginFrameEncode()
+ */
+@Name("protocol_experiments.FrameEncode")
+@Label("Frame Encode")
+@Category({ "Protocol Experiments", "Framing" })
+@Description("A sampled frame being encoded by a FrameWriter")
+@StackTrace(false)
+public final class FrameEncodeEvent extends Event {
+
+    @Label("Body Length")
+    @DataAmount(DataAmount.BYTES)
+    public int bodyLength;
+
+    @Label("Prefix Length")
+    @DataAmount(DataAmount.BYTES)
+    public int prefixLength;
+
+}
@@ -0,0 +1,242 @@
+package com.samjakob.protocol_experiments.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The consumer end of a FrameRing: a single thread that takes batches of
+ * frames out of the ring and writes each batch to a channel with one
+ * gathering write, so producers never hold a lock around the socket and a
+ * flush costs one system call per batch rather than per frame.
+ *
+ *     var ring = new FrameRing(1024, 2048);
+ *     var writer = new BatchedChannelWriter(ring, socketChannel).start();
+ *     // on any thread:
+ *     ring.offerFrame(encoder, message);
+ *     // on shutdown:
+ *     writer.close();
+ *
+ * A batch is written as soon as it holds maxBatchFrames frames, or once
+ * maxLatencyNanos has passed since its first frame was seen - whichever
+ * comes first. A latency of 0 writes whatever is waiting straight away,
+ * which is best when the frames are mostly sent one at a time.
+ *
+ * The channel must be in blocking mode (or at least always eventually
+ * accept everything): a batch is only released back to the producers once
+ * every byte of it has been written. If a write fails - with an
+ * IOException or anything else the channel throws - the ring is closed (so
+ * producers stop, rather than wait forever) and the exception is rethrown
+ * by close().
+ *
+ * As the ring is a byte[] on the heap, the channel copies each batch into
+ * a direct buffer of its own before writing it - one copy per batch, in
+ * place of encoding into a sink and then writing that.
+ */
+public final class BatchedChannelWriter implements AutoCloseable {
+
+    /**
+     * The most buffers passed to a single gathering write. Operating systems
+     * limit how many they accept at once (e.g., IOV_MAX is 1024 on Linux)
+     * and the JDK splits up anything larger anyway.
+     */
+    public static final int MAX_BATCH_FRAMES = 1024;
+
+    /**
+     * How long the writer thread parks whilst the ring is empty.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final FrameRing ring;
+
+    private final GatheringByteChannel channel;
+
+    private final int maxBatchFrames;
+
+    private final long maxLatencyNanos;
+
+    /**
+     * One view of the ring's array per frame in a batch, re-pointed at each
+     * batch's slots.
+     */
+    private final ByteBuffer[] views;
+
+    private Thread thread;
+
+    private volatile boolean stopping;
+
+    /**
+     * Whatever stopped the writer thread, if it didn't stop normally.
+     */
+    private volatile Throwable failure;
+
+    private volatile long framesWritten;
+
+    private volatile long batchesWritten;
+
+    /**
+     * Creates a writer that writes batches of up to 64 frames, waiting at
+     * most 100 microseconds for a batch to fill up.
+     * @param ring The ring to take frames from.
+     * @param channel The channel to write them to.
+     */
+    public BatchedChannelWriter(FrameRing ring, GatheringByteChannel channel) {
+        this(ring, channel, 64, TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    /**
+     * Creates a writer. Call start to begin writing.
+     *
+     * @param ring The ring to take frames from. This writer must be its only
+     *             consumer.
+     * @param channel The channel to write frames to.
+     * @param maxBatchFrames The most frames to write at once, from 1 to
+     *                       MAX_BATCH_FRAMES.
+     * @param maxLatencyNanos The longest to hold on to a frame whilst waiting
+     *                        for more to batch it with.
+     */
+    public BatchedChannelWriter(FrameRing ring, GatheringByteChannel channel, int maxBatchFrames, long maxLatencyNanos) {
+        if (maxBatchFrames < 1 || maxBatchFrames > MAX_BATCH_FRAMES)
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_FRAMES + " frames");
+        if (maxLatencyNanos < 0)
+            throw new IllegalArgumentException("Latency must not be negative");
+
+        this.ring = ring;
+        this.channel = channel;
+        this.maxBatchFrames = Math.min(maxBatchFrames, ring.slotCount());
+        this.maxLatencyNanos = maxLatencyNanos;
+
+        this.views = new ByteBuffer[this.maxBatchFrames];
+        for (int i = 0; i < this.views.length; i++) this.views[i] = ByteBuffer.wrap(ring.array());
+    }
+
+    /**
+     * Starts the writer thread.
+     * @return This writer.
+     */
+    public synchronized BatchedChannelWriter start() {
+        if (this.thread != null) throw new IllegalStateException("The writer has already been started");
+
+        this.thread = new Thread(this::run, "BatchedChannelWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * Returns the number of frames written so far.
+     * @return The number of frames.
+     */
+    public long framesWritten() {
+        return this.framesWritten;
+    }
+
+    /**
+     * Returns the number of gathering writes made so far (not counting any
+     * extra writes needed to finish a partly written batch).
+     * @return The number of batches.
+     */
+    public long batchesWritten() {
+        return this.batchesWritten;
+    }
+
+    /**
+     * Closes the ring, waits for the writer thread to write every frame that
+     * was published before then, and stops it. The channel is left open.
+     *
+     * @throws IOException If a write failed, or an InterruptedIOException if
+     * interrupted whilst waiting (in which case the writer thread is left to
+     * finish on its own). A RuntimeException or Error that stopped the
+     * writer thread is rethrown as it is.
+     */
+    @Override
+    public void close() throws IOException {
+        this.ring.close();
+        this.stopping = true;
+
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted whilst waiting for the writer to finish");
+            }
+        }
+
+        Throwable failure = this.failure;
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                int count = nextBatch();
+                if (count == 0) {
+                    if (this.stopping && this.ring.available(1) == 0) return;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+
+                write(count);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // Whatever went wrong, the frames can no longer be written, so
+            // stop the producers and leave the exception for close().
+            this.failure = e;
+            this.ring.close();
+        }
+    }
+
+    /**
+     * Waits (up to maxLatencyNanos) for a batch to fill up, and returns how
+     * many frames are in it - 0 if the ring is empty.
+     */
+    private int nextBatch() {
+        int count = this.ring.available(this.maxBatchFrames);
+        if (count == 0 || count == this.maxBatchFrames || this.maxLatencyNanos == 0) return count;
+
+        long deadline = System.nanoTime() + this.maxLatencyNanos;
+        while (!this.stopping && System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+
+            int more = this.ring.available(this.maxBatchFrames);
+            if (more == this.maxBatchFrames) return more;
+            count = more;
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes the count frames at the head of the ring with gathering writes,
+     * then releases them.
+     */
+    private void write(int count) throws IOException {
+        for (int i = 0; i < count; i++) this.ring.view(i, this.views[i]);
+
+        // A write can stop part-way through (e.g., when the socket's send
+        // buffer fills up), so skip over the buffers that are done and carry
+        // on from there.
+        int first = 0;
+        while (first < count) {
+            this.channel.write(this.views, first, count - first);
+            while (first < count && !this.views[first].hasRemaining()) first++;
+        }
+
+        this.ring.release(count);
+        this.framesWritten += count;
+        this.batchesWritten++;
+    }
+
+}
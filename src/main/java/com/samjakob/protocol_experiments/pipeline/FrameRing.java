@@ -0,0 +1,298 @@
+package com.samjakob.protocol_experiments.pipeline;
+
+import com.samjakob.protocol_experiments.data.MessageEncoder;
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free ring of fixed-size slots that any number of threads
+ * encode frames into, and a single thread (usually a BatchedChannelWriter)
+ * takes them out of, in the order they were claimed.
+ *
+ * All the slots share one preallocated byte[], so a producer encodes its
+ * frame straight into the ring - there is no per-thread sink to copy out of,
+ * and nothing is allocated per frame:
+ *
+ *     long sequence = ring.claim();
+ *     int end = encoder.encode(message, ring.array(), ring.offset(sequence));
+ *     ring.publish(sequence, end - ring.offset(sequence));
+ *
+ * (or just ring.offerFrame(encoder, message), which also adds the VarInt
+ * length prefix).
+ *
+ * Each slot has a sequence number (as in Dmitry Vyukov's bounded MPMC queue)
+ * that says whose turn it is: a producer may claim slot i for sequence s
+ * when its sequence is s, publishing sets it to s + 1, and the consumer
+ * releases it back to producers, for sequence s + slotCount, by setting it
+ * to that. Producers race for the next sequence with a single CAS; the
+ * consumer never needs one.
+ *
+ * When every slot is full, claim waits (spinning briefly, then parking) for
+ * the consumer to release one - this is the backpressure on producers that
+ * get ahead of the socket. tryClaim returns -1 instead, for producers that
+ * would rather drop or coalesce the frame.
+ */
+public final class FrameRing {
+
+    /**
+     * How many times claim spins before it starts parking between attempts.
+     */
+    private static final int SPIN_LIMIT = 100;
+
+    /**
+     * How long claim parks between attempts whilst the ring is full.
+     */
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    private static final VarHandle SEQUENCES =
+        MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(FrameRing.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int slotCount;
+
+    private final int slotSize;
+
+    private final int mask;
+
+    private final byte[] data;
+
+    /**
+     * The sequence number of each slot - see the class description.
+     */
+    private final long[] sequences;
+
+    /**
+     * The length of the frame published into each slot.
+     */
+    private final int[] lengths;
+
+    /**
+     * The next sequence for a producer to claim. Only updated with TAIL.
+     */
+    @SuppressWarnings("unused")
+    private volatile long tail;
+
+    /**
+     * The next sequence for the consumer to take. Only the consumer thread
+     * uses this.
+     */
+    private long head;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a ring.
+     *
+     * @param slotCount The number of slots, which must be a power of 2. This
+     *                  is how many frames can be waiting to be written
+     *                  before producers are held back.
+     * @param slotSize The size of each slot in bytes, i.e., the largest frame
+     *                 (including its length prefix) that can be sent.
+     */
+    public FrameRing(int slotCount, int slotSize) {
+        if (slotCount < 1 || Integer.bitCount(slotCount) != 1)
+            throw new IllegalArgumentException("Slot count must be a power of 2");
+        if (slotSize < 1 || (long) slotCount * slotSize > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Slots must be between 1 byte and 2 GiB in total");
+
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.mask = slotCount - 1;
+        this.data = new byte[slotCount * slotSize];
+        this.sequences = new long[slotCount];
+        this.lengths = new int[slotCount];
+
+        for (int i = 0; i < slotCount; i++) this.sequences[i] = i;
+    }
+
+    public int slotCount() {
+        return this.slotCount;
+    }
+
+    public int slotSize() {
+        return this.slotSize;
+    }
+
+    /**
+     * Returns the array that all the slots are in. A producer may only write
+     * to the slotSize bytes from offset(sequence), for a sequence it has
+     * claimed and not yet published.
+     * @return The ring's backing array.
+     */
+    public byte[] array() {
+        return this.data;
+    }
+
+    /**
+     * Returns the index in array() of the first byte of a sequence's slot.
+     * @param sequence A sequence returned by claim.
+     * @return The offset of the slot.
+     */
+    public int offset(long sequence) {
+        return (int) (sequence & this.mask) * this.slotSize;
+    }
+
+    /**
+     * Claims the next slot, waiting for one to be released if the ring is
+     * full.
+     *
+     * @return The sequence of the claimed slot, which must be published.
+     * @throws IllegalStateException If the ring is (or becomes) closed.
+     */
+    public long claim() {
+        for (int attempt = 0; ; attempt++) {
+            long sequence = tryClaim();
+            if (sequence >= 0) return sequence;
+
+            if (this.closed) throw new IllegalStateException("The ring has been closed");
+            if (attempt < SPIN_LIMIT) Thread.onSpinWait();
+            else LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Claims the next slot if there is one free.
+     *
+     * @return The sequence of the claimed slot, which must be published, or
+     * -1 if the ring is full.
+     * @throws IllegalStateException If the ring has been closed.
+     */
+    public long tryClaim() {
+        if (this.closed) throw new IllegalStateException("The ring has been closed");
+
+        long tail = (long) TAIL.getVolatile(this);
+        while (true) {
+            long sequence = (long) SEQUENCES.getAcquire(this.sequences, (int) (tail & this.mask));
+            long difference = sequence - tail;
+
+            if (difference == 0) {
+                long witness = (long) TAIL.compareAndExchange(this, tail, tail + 1);
+                if (witness == tail) return tail;
+                tail = witness;
+            } else if (difference < 0) {
+                // The slot still holds a frame from a lap ago.
+                return -1;
+            } else {
+                // Another producer has claimed this sequence already.
+                tail = (long) TAIL.getVolatile(this);
+            }
+        }
+    }
+
+    /**
+     * Hands a claimed slot over to the consumer. Every claimed slot must be
+     * published, even if encoding the frame failed (with a length of 0), as
+     * the consumer can't get past it until it is.
+     *
+     * @param sequence The sequence returned by claim.
+     * @param length The number of bytes written into the slot.
+     * @throws IllegalArgumentException If length is more than slotSize, in
+     * which case the slot is published empty.
+     */
+    public void publish(long sequence, int length) {
+        boolean valid = length >= 0 && length <= this.slotSize;
+
+        int index = (int) (sequence & this.mask);
+        this.lengths[index] = valid ? length : 0;
+        SEQUENCES.setRelease(this.sequences, index, sequence + 1);
+
+        if (!valid)
+            throw new IllegalArgumentException("Frame length " + length + " does not fit in a " + this.slotSize + " byte slot");
+    }
+
+    /**
+     * Writes a length-prefixed frame (as FrameWriter#writeFrame would) for
+     * message into the next slot, waiting for one if the ring is full.
+     *
+     * @param encoder The encoder for the message type.
+     * @param message The message to write as the body of the frame.
+     * @param <T> The message type.
+     * @return The total length of the frame, including the prefix.
+     * @throws IllegalArgumentException If the frame doesn't fit in a slot.
+     */
+    public <T> int offerFrame(MessageEncoder<T> encoder, T message) {
+        int bodyLength = encoder.measure(message);
+        int frameLength = VarLengthNumbers.varIntSize(bodyLength) + bodyLength;
+        if (frameLength > this.slotSize)
+            throw new IllegalArgumentException("Frame of " + frameLength + " bytes does not fit in a " + this.slotSize + " byte slot");
+
+        long sequence = claim();
+        int offset = offset(sequence);
+        try {
+            encoder.encode(message, this.data, VarLengthNumbers.writeVarInt(this.data, offset, bodyLength));
+        } catch (RuntimeException e) {
+            publish(sequence, 0);
+            throw e;
+        }
+
+        publish(sequence, frameLength);
+        return frameLength;
+    }
+
+    /**
+     * Stops any more slots from being claimed. Frames that have already
+     * been published can still be taken.
+     */
+    public void close() {
+        this.closed = true;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Returns the number of frames that are published and waiting at the
+     * head of the ring, up to max. Only the consumer thread may call this.
+     *
+     * Frames are taken strictly in sequence order, so a frame that has been
+     * claimed but not published yet holds back the ones after it.
+     *
+     * @param max The most frames to look for.
+     * @return The number of frames that can be taken.
+     */
+    int available(int max) {
+        int count = 0;
+        while (count < max) {
+            long sequence = this.head + count;
+            if ((long) SEQUENCES.getAcquire(this.sequences, (int) (sequence & this.mask)) != sequence + 1) break;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Points view at the i-th waiting frame (from the head), without taking
+     * it. Only the consumer thread may call this.
+     */
+    void view(int i, ByteBuffer view) {
+        int index = (int) ((this.head + i) & this.mask);
+        int offset = index * this.slotSize;
+        view.limit(offset + this.lengths[index]).position(offset);
+    }
+
+    /**
+     * Releases the count frames at the head back to producers, once they've
+     * been written. Only the consumer thread may call this.
+     */
+    void release(int count) {
+        for (int i = 0; i < count; i++, this.head++) {
+            SEQUENCES.setRelease(this.sequences, (int) (this.head & this.mask), this.head + this.slotCount);
+        }
+    }
+
+}
@@ -1,16 +1,34 @@
 package com.samjakob.protocol_experiments.utils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.IntStream;
+import com.samjakob.protocol_experiments.data.MessageEncoder;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * Simulates a byte-by-byte writeable stream for demonstration purposes.
  * Equivalent to a DataInputStream.
+ *
+ * The bytes are stored in a plain byte[] that grows (by 50% at a time) as
+ * needed. Clearing the sink keeps the backing array, so a sink that is
+ * re-used for many messages stops allocating once it has grown to fit the
+ * largest of them.
  */
-public class ByteSink {
+public class ByteSink implements WriterInterface {
+
+    /**
+     * The capacity used when one isn't specified.
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private byte[] buffer;
 
-    private final List<Byte> bytes;
+    private int size;
 
     /**
      * Simulates a sink of bytes, where data can be written a certain number of
@@ -18,7 +36,21 @@ public class ByteSink {
      * This is useful for simulating DataOutputStreams.
      */
     public ByteSink() {
-        this.bytes = new ArrayList<>();
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a sink whose backing array initially holds initialCapacity
+     * bytes. If the size of the data is known (or can be estimated) up
+     * front, this avoids growing the array whilst writing.
+     *
+     * @param initialCapacity The initial size of the backing array.
+     */
+    public ByteSink(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Initial capacity must not be negative");
+        this.buffer = new byte[initialCapacity];
+        this.size = 0;
     }
 
     /**
@@ -26,15 +58,38 @@ public class ByteSink {
      * getBytes.
      * @param value The byte to add.
      */
+    @Override
     public void writeByte(byte value) {
-        this.bytes.add(value);
+        if (this.size == this.buffer.length) grow(1);
+        this.buffer[this.size++] = value;
+        if (CodecMetrics.ENABLED) CodecMetrics.recordBytesWritten(1);
+    }
+
+    /**
+     * Writes length bytes from source, starting at offset, into the sink.
+     */
+    @Override
+    public void writeBytes(byte[] source, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(source, offset, this.buffer, this.size, length);
+        this.size += length;
+        if (CodecMetrics.ENABLED) CodecMetrics.recordBytesWritten(length);
     }
 
     /**
      * Empties all the stored bytes.
+     * The backing array is kept, so this doesn't free any memory.
      */
     public void clear() {
-        this.bytes.clear();
+        this.size = 0;
+    }
+
+    /**
+     * An alias for clear(). Resets the sink to empty, keeping the backing
+     * array so that it can be re-used without allocating.
+     */
+    public void reset() {
+        clear();
     }
 
     /**
@@ -46,7 +101,101 @@ public class ByteSink {
      * @see ByteSink#getBytes()
      */
     public int available() {
-        return bytes.size();
+        return this.size;
+    }
+
+    /**
+     * Returns the number of bytes that can be held before the backing array
+     * needs to grow.
+     * @return The length of the backing array.
+     */
+    public int capacity() {
+        return this.buffer.length;
+    }
+
+    /**
+     * Makes sure that at least additional more bytes can be written without
+     * growing the backing array.
+     * @param additional The number of bytes that are about to be written.
+     */
+    public void ensureCapacity(int additional) {
+        if (additional > this.buffer.length - this.size) grow(additional);
+    }
+
+    /**
+     * Measures message with encoder, grows the sink (at most once) to fit it,
+     * and then encodes it straight into the backing array.
+     *
+     * @param encoder The encoder for the message type.
+     * @param message The message to write.
+     * @param <T> The message type.
+     * @return The number of bytes written.
+     */
+    public <T> int write(MessageEncoder<T> encoder, T message) {
+        int size = encoder.measure(message);
+        ensureCapacity(size);
+
+        int end = encoder.encode(message, this.buffer, this.size);
+        if (end - this.size != size)
+            throw new IllegalStateException("Encoder wrote " + (end - this.size) + " bytes, but measured " + size);
+
+        this.size = end;
+        if (CodecMetrics.ENABLED) CodecMetrics.recordBytesWritten(size);
+        return size;
+    }
+
+    /**
+     * Skips over length bytes, leaving them to be filled in later with
+     * writeByteAt (e.g., for a length prefix that isn't known until the rest
+     * of the data has been written).
+     *
+     * @param length The number of bytes to reserve.
+     * @return The index of the first reserved byte.
+     */
+    public int reserve(int length) {
+        ensureCapacity(length);
+        int start = this.size;
+        this.size += length;
+        return start;
+    }
+
+    /**
+     * Returns the backing array, so that an encoder can write straight into
+     * the space returned by reserve (e.g., StringCodec#writeString). The
+     * array is replaced whenever the sink grows, so it must be fetched again
+     * after every write or reserve.
+     *
+     * @return The backing array, whose first available() bytes have been
+     * written.
+     */
+    public byte[] array() {
+        return this.buffer;
+    }
+
+    /**
+     * Overwrites a byte that has already been written (or reserved).
+     *
+     * @param index The index of the byte, from the start of the sink.
+     * @param value The new value of the byte.
+     */
+    public void writeByteAt(int index, byte value) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " is outside of the written bytes (" + this.size + ")");
+        this.buffer[index] = value;
+    }
+
+    /**
+     * Removes the bytes from index from (inclusive) to index to (exclusive),
+     * moving any bytes after them back to fill the gap.
+     *
+     * @param from The index of the first byte to remove.
+     * @param to The index after the last byte to remove.
+     */
+    public void removeRange(int from, int to) {
+        if (from < 0 || from > to || to > this.size)
+            throw new IndexOutOfBoundsException("Range " + from + " to " + to + " is outside of the written bytes (" + this.size + ")");
+        System.arraycopy(this.buffer, to, this.buffer, from, this.size - to);
+        this.size -= to - from;
     }
 
     /**
@@ -55,12 +204,69 @@ public class ByteSink {
      * @return The written bytes.
      */
     public byte[] getBytes() {
-        byte[] result = new byte[bytes.size()];
-        IntStream.range(0, bytes.size())
-                .parallel()
-                .forEach(i -> result[i] = bytes.get(i));
+        byte[] result = toByteArray();
         clear();
         return result;
     }
 
+    /**
+     * Copies all the bytes that were written since the stream was last
+     * cleared, without clearing the stream.
+     * @return A copy of the written bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    /**
+     * Returns a read-only ByteBuffer over the written bytes without copying
+     * them. The buffer's position is 0 and its limit is the number of
+     * available bytes.
+     *
+     * The view shares the sink's backing array, so it's only valid until the
+     * sink is next written to or cleared.
+     *
+     * @return A read-only view of the written bytes.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(this.buffer, 0, this.size).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes all the available bytes to channel, without copying them or
+     * clearing the sink.
+     *
+     * @param channel The channel to write the bytes to.
+     * @throws IOException If the channel throws an IOException.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = ByteBuffer.wrap(this.buffer, 0, this.size);
+        while (view.hasRemaining()) channel.write(view);
+    }
+
+    /**
+     * Writes all the available bytes to stream, without copying them or
+     * clearing the sink.
+     *
+     * @param stream The stream to write the bytes to.
+     * @throws IOException If the stream throws an IOException.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        stream.write(this.buffer, 0, this.size);
+    }
+
+    /**
+     * Grows the backing array so that at least additional more bytes fit.
+     * @param additional The number of bytes that need to fit.
+     */
+    private void grow(int additional) {
+        int required = this.size + additional;
+        if (required < 0)
+            throw new OutOfMemoryError("ByteSink cannot hold more than Integer.MAX_VALUE bytes");
+
+        int newCapacity = this.buffer.length + (this.buffer.length >> 1);
+        if (newCapacity < required || newCapacity < 0) newCapacity = required;
+        this.buffer = Arrays.copyOf(this.buffer, Math.max(newCapacity, DEFAULT_CAPACITY));
+    }
+
 }
@@ -0,0 +1,340 @@
+package com.samjakob.protocol_experiments.utils;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of PooledByteSinks backed by slabs of direct (off-heap) memory, so
+ * that encoding an outgoing message doesn't need to allocate a fresh sink (or
+ * any heap memory at all) once the pool has warmed up.
+ *
+ * Slabs come in size classes of 256 bytes, 1 KiB, 4 KiB, and so on, up to
+ * 1 MiB. A sink that outgrows its slab swaps it for one from the next size
+ * class that fits. Anything larger than the biggest class is allocated
+ * separately and simply dropped when released.
+ *
+ * Released sinks are first kept in a small per-thread cache, and otherwise in
+ * a fixed number of shared slots per size class that are claimed with
+ * atomic swaps - so neither acquiring nor releasing ever takes a lock.
+ *
+ * In debug mode (see the constructor or the
+ * protocol_experiments.pool.debug system property), every acquired sink is
+ * tracked, and any sink that is garbage collected without having been
+ * released is reported along with where it was acquired - as a WARNING to
+ * the System.Logger named after this class, so it ends up wherever the
+ * application sends its logs.
+ */
+public class ByteSinkPool {
+
+    /**
+     * The size of the smallest slab is 1 &lt;&lt; MIN_SIZE_SHIFT = 256 bytes.
+     */
+    private static final int MIN_SIZE_SHIFT = 8;
+
+    /**
+     * The number of size classes. Each is 4x the size of the previous one, so
+     * the largest is 256 * 4^6 = 1 MiB.
+     */
+    static final int SIZE_CLASSES = 7;
+
+    /**
+     * Used in place of a size class for slabs that are too large to pool.
+     */
+    static final int OVERSIZED = SIZE_CLASSES;
+
+    /**
+     * The number of released sinks of each size class that each thread keeps
+     * for itself.
+     */
+    private static final int THREAD_CACHE_DEPTH = 4;
+
+    /**
+     * The number of released sinks of each size class that are shared between
+     * all threads.
+     */
+    private static final int SHARED_SLOTS = 64;
+
+    private static final System.Logger LOGGER = System.getLogger(ByteSinkPool.class.getName());
+
+    private static final ByteSinkPool SHARED =
+        new ByteSinkPool(Boolean.getBoolean("protocol_experiments.pool.debug"));
+
+    /**
+     * Only created if a pool with leak detection is ever used.
+     */
+    private static volatile Cleaner leakCleaner;
+
+    private final boolean leakDetection;
+
+    private final ThreadLocal<PooledByteSink[][]> threadCaches =
+        ThreadLocal.withInitial(() -> new PooledByteSink[SIZE_CLASSES][THREAD_CACHE_DEPTH]);
+
+    private final AtomicReferenceArray<PooledByteSink>[] sharedSlots;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Creates a pool with leak detection disabled.
+     */
+    public ByteSinkPool() {
+        this(false);
+    }
+
+    /**
+     * Creates a pool.
+     * @param leakDetection Whether sinks that are garbage collected without
+     *                      being released should be reported. This has a
+     *                      cost on every acquire, so is meant for debugging.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ByteSinkPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        this.sharedSlots = new AtomicReferenceArray[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            this.sharedSlots[i] = new AtomicReferenceArray<>(SHARED_SLOTS);
+        }
+    }
+
+    /**
+     * Returns a process-wide pool. Leak detection is enabled for it if the
+     * protocol_experiments.pool.debug system property is set to true.
+     * @return The shared pool.
+     */
+    public static ByteSinkPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * An alias for acquire(0), i.e., a sink from the smallest size class.
+     * @return An empty sink.
+     */
+    public PooledByteSink acquire() {
+        return acquire(0);
+    }
+
+    /**
+     * Fetches an empty sink with room for at least expectedSize bytes. The
+     * sink can still grow beyond that if needed.
+     *
+     * @param expectedSize The number of bytes that are expected to be written.
+     * @return An empty sink, which must later be released.
+     */
+    public PooledByteSink acquire(int expectedSize) {
+        PooledByteSink sink = take(sizeClassFor(expectedSize), expectedSize);
+        sink.inUse = true;
+
+        if (this.leakDetection) {
+            LeakReport report = new LeakReport(this.leaks);
+            report.cleanable = leakCleaner().register(sink, report);
+            sink.leakReport = report;
+        }
+
+        return sink;
+    }
+
+    /**
+     * Returns sink to the pool. The sink must not be used again afterwards.
+     * @param sink A sink that was acquired from this pool.
+     */
+    public void release(PooledByteSink sink) {
+        if (!sink.inUse)
+            throw new IllegalStateException("Sink has already been released");
+        sink.inUse = false;
+
+        if (sink.leakReport != null) {
+            sink.leakReport.released = true;
+            sink.leakReport.cleanable.clean();
+            sink.leakReport = null;
+        }
+
+        give(sink);
+    }
+
+    /**
+     * The number of sinks that were served from the pool.
+     * @return The number of pool hits.
+     */
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * The number of sinks (or larger slabs) that had to be allocated because
+     * the pool had none to spare.
+     * @return The number of pool misses.
+     */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * The number of sinks that were garbage collected without being released.
+     * This is always 0 unless leak detection is enabled.
+     * @return The number of detected leaks.
+     */
+    public long leaks() {
+        return this.leaks.sum();
+    }
+
+    /**
+     * Moves sink onto a slab with room for at least additional more bytes,
+     * copying across what has been written so far and returning the old slab
+     * to the pool.
+     */
+    void grow(PooledByteSink sink, int additional) {
+        int required = sink.buffer.position() + additional;
+        if (required < 0)
+            throw new OutOfMemoryError("PooledByteSink cannot hold more than Integer.MAX_VALUE bytes");
+
+        // Grow by at least 50%, so that an oversized sink (which gets a slab
+        // of exactly the requested size) isn't re-allocated on every write.
+        int capacity = sink.buffer.capacity();
+        int target = Math.max(required, capacity + (capacity >> 1));
+        if (target < 0) target = required;
+
+        PooledByteSink larger = take(sizeClassFor(target), target);
+        larger.buffer.clear();
+        larger.buffer.put(sink.buffer.flip());
+
+        // Swap the slabs (and their size classes) over, so that the caller's
+        // sink keeps its identity and the spare sink takes the old slab back
+        // to the pool.
+        ByteBuffer buffer = sink.buffer;
+        int sizeClass = sink.sizeClass;
+        sink.buffer = larger.buffer;
+        sink.sizeClass = larger.sizeClass;
+        larger.buffer = buffer;
+        larger.sizeClass = sizeClass;
+
+        give(larger);
+    }
+
+    /**
+     * Fetches a free sink of sizeClass from the thread cache or the shared
+     * slots, or allocates a new one.
+     */
+    private PooledByteSink take(int sizeClass, int size) {
+        if (sizeClass == OVERSIZED) {
+            this.misses.increment();
+            return new PooledByteSink(this, ByteBuffer.allocateDirect(size), OVERSIZED);
+        }
+
+        PooledByteSink[] cache = this.threadCaches.get()[sizeClass];
+        for (int i = 0; i < THREAD_CACHE_DEPTH; i++) {
+            PooledByteSink sink = cache[i];
+            if (sink != null) {
+                cache[i] = null;
+                this.hits.increment();
+                sink.clear();
+                return sink;
+            }
+        }
+
+        // Start looking at a different slot for each thread, so that threads
+        // don't all fight over the first few slots.
+        AtomicReferenceArray<PooledByteSink> slots = this.sharedSlots[sizeClass];
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SHARED_SLOTS; i++) {
+            int index = (start + i) & (SHARED_SLOTS - 1);
+            if (slots.get(index) != null) {
+                PooledByteSink sink = slots.getAndSet(index, null);
+                if (sink != null) {
+                    this.hits.increment();
+                    sink.clear();
+                    return sink;
+                }
+            }
+        }
+
+        this.misses.increment();
+        return new PooledByteSink(this, ByteBuffer.allocateDirect(1 << (MIN_SIZE_SHIFT + 2 * sizeClass)), sizeClass);
+    }
+
+    /**
+     * Puts a free sink back in the thread cache or the shared slots. If both
+     * are full (or the slab is oversized), it's left for the garbage
+     * collector.
+     */
+    private void give(PooledByteSink sink) {
+        if (sink.sizeClass == OVERSIZED) return;
+
+        PooledByteSink[] cache = this.threadCaches.get()[sink.sizeClass];
+        for (int i = 0; i < THREAD_CACHE_DEPTH; i++) {
+            if (cache[i] == null) {
+                cache[i] = sink;
+                return;
+            }
+        }
+
+        AtomicReferenceArray<PooledByteSink> slots = this.sharedSlots[sink.sizeClass];
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SHARED_SLOTS; i++) {
+            int index = (start + i) & (SHARED_SLOTS - 1);
+            if (slots.get(index) == null && slots.compareAndSet(index, null, sink)) return;
+        }
+    }
+
+    /**
+     * Finds the smallest size class whose slabs can hold size bytes.
+     * @return The size class, or OVERSIZED if size is larger than the largest.
+     */
+    static int sizeClassFor(int size) {
+        if (size <= 1 << MIN_SIZE_SHIFT) return 0;
+
+        // The number of bits needed to represent size - 1 is the power of two
+        // that size rounds up to. Each class covers two powers of two.
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+        return Math.min((bits - MIN_SIZE_SHIFT + 1) >>> 1, OVERSIZED);
+    }
+
+    private static Cleaner leakCleaner() {
+        Cleaner cleaner = leakCleaner;
+        if (cleaner == null) {
+            synchronized (ByteSinkPool.class) {
+                cleaner = leakCleaner;
+                if (cleaner == null) leakCleaner = cleaner = Cleaner.create();
+            }
+        }
+        return cleaner;
+    }
+
+    /**
+     * The clean-up action registered for each acquired sink in debug mode. It
+     * runs either when the sink is released (in which case there's nothing to
+     * report) or when the sink is garbage collected without being released.
+     *
+     * This must not hold a reference to the sink, otherwise it would never
+     * become unreachable.
+     */
+    static final class LeakReport implements Runnable {
+
+        private final LongAdder leaks;
+
+        private final Throwable acquiredAt;
+
+        volatile boolean released;
+
+        Cleaner.Cleanable cleanable;
+
+        LeakReport(LongAdder leaks) {
+            this.leaks = leaks;
+            this.acquiredAt = new Throwable("PooledByteSink was acquired here");
+        }
+
+        @Override
+        public void run() {
+            if (this.released) return;
+
+            this.leaks.increment();
+            LOGGER.log(System.Logger.Level.WARNING, "A PooledByteSink was garbage collected without being released", this.acquiredAt);
+        }
+
+    }
+
+}
@@ -1,10 +1,13 @@
 package com.samjakob.protocol_experiments.utils;
 
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+import com.samjakob.protocol_experiments.metrics.CodecMetrics;
+
 /**
  * Simulates a byte-by-byte readable stream for demonstration purposes.
  * Equivalent to a DataInputStream.
  */
-public class ByteSource {
+public class ByteSource implements ReaderInterface {
 
     private final byte[] data;
 
@@ -44,9 +47,41 @@ public class ByteSource {
      * @return The next byte
      */
     public byte getNextByte() {
+        if (CodecMetrics.ENABLED) CodecMetrics.recordBytesRead(1);
         return this.data[pointer++];
     }
 
+    /**
+     * An alias for getNextByte, allowing a ByteSource to be passed directly
+     * wherever a ReaderInterface is expected.
+     * @return The next byte
+     */
+    @Override
+    public byte readByte() {
+        return getNextByte();
+    }
+
+    /**
+     * Copies the next length bytes into destination in one go and advances
+     * the pointer past them.
+     */
+    @Override
+    public void readBytes(byte[] destination, int offset, int length) {
+        if (length > available())
+            throw new IndexOutOfBoundsException("Cannot read " + length + " bytes, only " + available() + " available");
+        System.arraycopy(this.data, this.pointer, destination, offset, length);
+        this.pointer += length;
+        if (CodecMetrics.ENABLED) CodecMetrics.recordBytesRead(length);
+    }
+
+    /**
+     * An alias for available();
+     */
+    @Override
+    public int remaining() {
+        return available();
+    }
+
     /**
      * Sets the pointer into the data byte array to the specified value.
      * @param pointer The new pointer value.
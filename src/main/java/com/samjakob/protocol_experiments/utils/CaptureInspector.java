@@ -0,0 +1,341 @@
+package com.samjakob.protocol_experiments.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Dumps binary data (e.g., a capture of traffic) as lines of hex or binary,
+ * with the boundaries and values of the VarInts (or VarLongs) in it marked
+ * inline:
+ *
+ *     00000000  08 96-01 ac-02 ff-ff-ff-ff-0f 80-80-80-80-04 68  |...............h|  8 150 300 -1 1073741824 104
+ *     00000010  69 80                                            |i.              |  105 truncated
+ *
+ * Bytes joined by '-' belong to the same value - i.e., the byte before each
+ * '-' has its continuation bit set - and the values that end on a line are
+ * listed at the end of it (so a value that runs over two lines is listed on
+ * the second, and its first byte there starts with '-'). Values that are
+ * too long (or have too many bits in their last byte) are listed as
+ * "invalid", and one left unfinished at the end of the data as "truncated".
+ *
+ * Everything is written a line at a time from a reusable char[], and input
+ * streams are read through a reusable byte[], so a dump of any size runs in
+ * constant memory and allocates nothing per byte (or per line).
+ *
+ * An inspector holds its buffers and the state of the current dump, so it
+ * must only be used by one thread at a time - but it can be reused for any
+ * number of dumps.
+ *
+ * To dump a file from the command line:
+ *
+ *     java com.samjakob.protocol_experiments.utils.CaptureInspector capture.bin [hex|binary] [varint|varlong|none]
+ */
+public final class CaptureInspector {
+
+    public enum Radix {
+        HEX, BINARY
+    }
+
+    public enum Annotation {
+        NONE, VAR_INT, VAR_LONG
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Wide enough for any note: "-9223372036854775808" or "truncated", plus
+     * the space before it.
+     */
+    private static final int MAX_NOTE_LENGTH = 21;
+
+    private final Radix radix;
+
+    private final Annotation annotation;
+
+    private final int bytesPerLine;
+
+    /**
+     * The characters of each byte's cell: a separator and its digits.
+     */
+    private final int cellWidth;
+
+    /**
+     * Where the cells start in line (after the offset, which is at least 8
+     * hex digits and then a space).
+     */
+    private final int cellsStart;
+
+    private final char[] line;
+
+    private final char[] ascii;
+
+    private final char[] notes;
+
+    private final char[] digits = new char[20];
+
+    private final byte[] chunk = new byte[8192];
+
+    // ---- The state of the current dump ----
+
+    private Writer out;
+
+    /**
+     * The offset of the next byte.
+     */
+    private long offset;
+
+    private int lineBytes;
+
+    private int notesLength;
+
+    /**
+     * The VarInt (or VarLong) being decoded: the bits so far, and how many
+     * bytes it's had.
+     */
+    private long value;
+
+    private int valueBytes;
+
+    /**
+     * Creates an inspector that dumps 16 bytes per line in hex, annotated
+     * with VarInts.
+     */
+    public CaptureInspector() {
+        this(Radix.HEX, Annotation.VAR_INT, 16);
+    }
+
+    /**
+     * Creates an inspector.
+     *
+     * @param radix Whether to show the bytes in hex or binary.
+     * @param annotation What to decode the bytes as, if anything.
+     * @param bytesPerLine The number of bytes on each line.
+     */
+    public CaptureInspector(Radix radix, Annotation annotation, int bytesPerLine) {
+        if (bytesPerLine < 1 || bytesPerLine > 1024)
+            throw new IllegalArgumentException("Bytes per line must be between 1 and 1024");
+
+        this.radix = radix;
+        this.annotation = annotation;
+        this.bytesPerLine = bytesPerLine;
+
+        this.cellWidth = radix == Radix.HEX ? 3 : 9;
+        this.cellsStart = 16 + 1;
+        this.line = new char[this.cellsStart + bytesPerLine * this.cellWidth + 4 + bytesPerLine + 1];
+        this.ascii = new char[bytesPerLine];
+        // Every byte on a line could end a value (and one more could be
+        // marked truncated at the very end), each with a note.
+        this.notes = new char[1 + (bytesPerLine + 1) * MAX_NOTE_LENGTH + 1];
+    }
+
+    /**
+     * Dumps length bytes of data, from offset.
+     * @param data The bytes to dump.
+     * @param offset The index of the first byte.
+     * @param length The number of bytes.
+     * @param out Where to write the dump.
+     */
+    public void inspect(byte[] data, int offset, int length, Writer out) throws IOException {
+        begin(out);
+        for (int i = 0; i < length; i++) next(data[offset + i]);
+        end();
+    }
+
+    /**
+     * Dumps the bytes between data's position and limit, without changing
+     * its position.
+     * @param data The bytes to dump.
+     * @param out Where to write the dump.
+     */
+    public void inspect(ByteBuffer data, Writer out) throws IOException {
+        begin(out);
+        for (int i = data.position(); i < data.limit(); i++) next(data.get(i));
+        end();
+    }
+
+    /**
+     * Dumps everything left in in, reading it in chunks. The stream is not
+     * closed.
+     * @param in The bytes to dump.
+     * @param out Where to write the dump.
+     * @return The number of bytes dumped.
+     */
+    public long inspect(InputStream in, Writer out) throws IOException {
+        begin(out);
+
+        int read;
+        while ((read = in.read(this.chunk)) >= 0) {
+            for (int i = 0; i < read; i++) next(this.chunk[i]);
+        }
+
+        long length = this.offset;
+        end();
+        return length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: CaptureInspector <file> [hex|binary] [varint|varlong|none]");
+            System.exit(1);
+        }
+
+        Radix radix = args.length > 1 && args[1].equalsIgnoreCase("binary") ? Radix.BINARY : Radix.HEX;
+        Annotation annotation = Annotation.VAR_INT;
+        if (args.length > 2) {
+            switch (args[2].toLowerCase(Locale.ROOT)) {
+                case "varint": annotation = Annotation.VAR_INT; break;
+                case "varlong": annotation = Annotation.VAR_LONG; break;
+                case "none": annotation = Annotation.NONE; break;
+                default: throw new IllegalArgumentException("Unknown annotation: " + args[2]);
+            }
+        }
+
+        var inspector = new CaptureInspector(radix, annotation, radix == Radix.HEX ? 16 : 8);
+        try (InputStream in = Files.newInputStream(Path.of(args[0]))) {
+            // Not closed, as that would close System.out.
+            var out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            inspector.inspect(in, out);
+            out.flush();
+        }
+    }
+
+    private void begin(Writer out) {
+        this.out = out;
+        this.offset = 0;
+        this.lineBytes = 0;
+        this.notesLength = 0;
+        this.value = 0;
+        this.valueBytes = 0;
+    }
+
+    private void end() throws IOException {
+        if (this.valueBytes > 0) note("truncated");
+        if (this.lineBytes > 0) flushLine();
+
+        this.out.flush();
+        this.out = null;
+    }
+
+    private void next(byte b) throws IOException {
+        // A full line is only written once the next byte arrives, so that a
+        // value left truncated at the end of the data is noted on the line
+        // it was truncated on.
+        if (this.lineBytes == this.bytesPerLine) flushLine();
+
+        // Anything but the first byte of a value is joined to the last.
+        char separator = this.valueBytes > 0 ? '-' : ' ';
+
+        int cell = this.cellsStart + this.lineBytes * this.cellWidth;
+        this.line[cell] = separator;
+        if (this.radix == Radix.HEX) {
+            this.line[cell + 1] = HEX_DIGITS[(b >> 4) & 0xF];
+            this.line[cell + 2] = HEX_DIGITS[b & 0xF];
+        } else {
+            for (int bit = 0; bit < 8; bit++) this.line[cell + 1 + bit] = (b & (0x80 >> bit)) != 0 ? '1' : '0';
+        }
+        this.ascii[this.lineBytes] = b >= 0x20 && b < 0x7F ? (char) b : '.';
+
+        if (this.annotation != Annotation.NONE) decode(b);
+
+        this.offset++;
+        this.lineBytes++;
+    }
+
+    /**
+     * Adds b to the value being decoded, following the same rules as
+     * VarLengthNumbers: the low 7 bits of each byte hold the value (least
+     * significant first), and the high bit (CONTINUE_BIT) is set on every
+     * byte but the last.
+     */
+    private void decode(byte b) {
+        boolean varInt = this.annotation == Annotation.VAR_INT;
+        int maxBytes = varInt ? 5 : 10;
+
+        this.value |= (long) (b & 0b0111_1111) << (7 * this.valueBytes);
+        this.valueBytes++;
+
+        if ((b & 0b1000_0000) == 0) {
+            // The last byte of the longest value can't have any bits set
+            // beyond the 32 (or 64) that fit.
+            boolean tooBig = this.valueBytes == maxBytes && (b & (varInt ? 0b1111_0000 : 0b1111_1110)) != 0;
+            if (tooBig) note("invalid");
+            else note(varInt ? (int) this.value : this.value);
+        } else if (this.valueBytes == maxBytes) {
+            note("invalid");
+        } else {
+            return;
+        }
+
+        this.value = 0;
+        this.valueBytes = 0;
+    }
+
+    private void note(String text) {
+        this.notes[this.notesLength++] = ' ';
+        text.getChars(0, text.length(), this.notes, this.notesLength);
+        this.notesLength += text.length();
+    }
+
+    private void note(long number) {
+        this.notes[this.notesLength++] = ' ';
+
+        // Written backwards into digits, then copied over.
+        boolean negative = number < 0;
+        int position = this.digits.length;
+        do {
+            this.digits[--position] = (char) ('0' + Math.abs(number % 10));
+            number /= 10;
+        } while (number != 0);
+        if (negative) this.digits[--position] = '-';
+
+        int length = this.digits.length - position;
+        System.arraycopy(this.digits, position, this.notes, this.notesLength, length);
+        this.notesLength += length;
+    }
+
+    /**
+     * Writes the current line: the offset of its first byte, its cells
+     * (padded out to the full width), the bytes as ASCII and any notes.
+     */
+    private void flushLine() throws IOException {
+        long lineOffset = this.offset - this.lineBytes;
+
+        // The offset, right-aligned in 16 characters, with at least 8 digits.
+        int position = 16;
+        int digitCount = Math.max(8, (Long.SIZE - Long.numberOfLeadingZeros(lineOffset) + 3) / 4);
+        for (int i = 0; i < digitCount; i++) {
+            this.line[--position] = HEX_DIGITS[(int) (lineOffset >>> (4 * i)) & 0xF];
+        }
+        int start = position;
+        this.line[16] = ' ';
+
+        int end = this.cellsStart + this.bytesPerLine * this.cellWidth;
+        for (int i = this.cellsStart + this.lineBytes * this.cellWidth; i < end; i++) this.line[i] = ' ';
+
+        this.line[end++] = ' ';
+        this.line[end++] = ' ';
+        this.line[end++] = '|';
+        System.arraycopy(this.ascii, 0, this.line, end, this.lineBytes);
+        for (int i = this.lineBytes; i < this.bytesPerLine; i++) this.line[end + i] = ' ';
+        end += this.bytesPerLine;
+        this.line[end++] = '|';
+
+        this.out.write(this.line, start, end - start);
+        if (this.notesLength > 0) {
+            this.out.write(' ');
+            this.out.write(this.notes, 0, this.notesLength);
+        }
+        this.out.write('\n');
+
+        this.lineBytes = 0;
+        this.notesLength = 0;
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.samjakob.protocol_experiments.utils;
+
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A source of bytes read from a memory-mapped file, e.g., a packet capture
+ * or replay log, without loading the file onto the heap.
+ *
+ * A single MappedByteBuffer can't be larger than 2 GiB, so the file is mapped
+ * one window at a time, and the next window is mapped as soon as the current
+ * one has been read to the end. This means files of any size can be scanned,
+ * with only one window mapped (by this source) at once.
+ *
+ * Note that Java doesn't allow a mapping to be released explicitly, so each
+ * window is unmapped when it is garbage collected.
+ */
+public class MappedFileByteSource implements ReaderInterface, Closeable {
+
+    /**
+     * The window size used when one isn't specified (256 MiB).
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int windowSize;
+
+    /**
+     * The offset in the file of the first byte of window.
+     */
+    private long windowStart;
+
+    private ByteBuffer window;
+
+    /**
+     * An alias for new MappedFileByteSource(path, DEFAULT_WINDOW_SIZE);
+     * @param path The file to read.
+     * @throws IOException If the file can't be opened or mapped.
+     */
+    public MappedFileByteSource(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens and maps the first window of the file at path.
+     *
+     * @param path The file to read.
+     * @param windowSize The number of bytes of the file to map at once.
+     * @throws IOException If the file can't be opened or mapped.
+     */
+    public MappedFileByteSource(Path path, int windowSize) throws IOException {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive");
+
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = this.channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * Reads the next byte from the file, mapping the next window if the
+     * current one has been read to the end.
+     * @return The next byte.
+     * @throws UncheckedIOException If the end of the file has been reached.
+     */
+    @Override
+    public byte readByte() {
+        if (!this.window.hasRemaining()) nextWindow();
+        return this.window.get();
+    }
+
+    /**
+     * Copies the next length bytes into destination, across as many windows
+     * as needed.
+     */
+    @Override
+    public void readBytes(byte[] destination, int offset, int length) {
+        while (length > 0) {
+            if (!this.window.hasRemaining()) nextWindow();
+
+            int chunk = Math.min(length, this.window.remaining());
+            this.window.get(destination, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Returns the number of bytes left in the file, capped at
+     * Integer.MAX_VALUE. Use bytesRemaining for the exact number.
+     */
+    @Override
+    public int remaining() {
+        return (int) Math.min(Integer.MAX_VALUE, bytesRemaining());
+    }
+
+    /**
+     * Reads a VarInt. If the whole value is certain to be within the current
+     * window, it's decoded straight from the mapped buffer, otherwise it's
+     * read one byte at a time (which handles crossing into the next window).
+     * @return The decoded value.
+     */
+    public int readVarInt() {
+        if (this.window.remaining() >= 5) return VarLengthNumbers.readVarInt(this.window);
+        return VarLengthNumbers.readVarInt(this);
+    }
+
+    /**
+     * Reads a VarLong.
+     * @return The decoded value.
+     * @see MappedFileByteSource#readVarInt()
+     */
+    public long readVarLong() {
+        if (this.window.remaining() >= 10) return VarLengthNumbers.readVarLong(this.window);
+        return VarLengthNumbers.readVarLong(this);
+    }
+
+    /**
+     * Whether there is another byte to read in the file.
+     * @return True if there is, otherwise false.
+     */
+    public boolean hasNextByte() {
+        return bytesRemaining() > 0;
+    }
+
+    /**
+     * Returns the exact number of bytes left in the file.
+     * @return The number of unread bytes.
+     */
+    public long bytesRemaining() {
+        return this.size - position();
+    }
+
+    /**
+     * Returns the offset in the file of the next byte to be read.
+     * @return The current position.
+     */
+    public long position() {
+        return this.windowStart + this.window.position();
+    }
+
+    /**
+     * Returns the size of the file.
+     * @return The size of the file in bytes.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Moves to position in the file, re-mapping if it isn't within the
+     * current window.
+     * @param position The offset in the file of the next byte to read.
+     */
+    public void seek(long position) {
+        if (position < 0 || position > this.size)
+            throw new IllegalArgumentException("Position must be between 0 and the size of the file");
+
+        if (position >= this.windowStart && position - this.windowStart <= this.window.limit()) {
+            this.window.position((int) (position - this.windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void nextWindow() {
+        long next = this.windowStart + this.window.limit();
+        if (next >= this.size)
+            throw new UncheckedIOException(new EOFException("Reached the end of the file"));
+        map(next);
+    }
+
+    private void map(long start) {
+        try {
+            this.window = this.channel.map(
+                FileChannel.MapMode.READ_ONLY, start, Math.min(this.windowSize, this.size - start)
+            );
+            this.windowStart = start;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.samjakob.protocol_experiments.utils;
+
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A WriterInterface that, like ByteSink (though it isn't one), collects the
+ * bytes written to it - but holds them in a slab of direct (off-heap) memory
+ * that is borrowed from a ByteSinkPool, rather than in a byte[] on the heap.
+ *
+ * Sinks are obtained with ByteSinkPool#acquire and must be handed back with
+ * close() (or ByteSinkPool#release) once the data has been sent, e.g.,
+ *
+ *     try (var sink = pool.acquire(128)) {
+ *         writeVarInt(sink, value);
+ *         sink.writeTo(channel);
+ *     }
+ *
+ * A sink must not be used again after it has been closed, as its slab may
+ * already have been handed out to someone else.
+ */
+public final class PooledByteSink implements WriterInterface, AutoCloseable {
+
+    /**
+     * The pool this sink (and its slab) belongs to.
+     */
+    private final ByteSinkPool pool;
+
+    /**
+     * The slab of direct memory. The buffer's position is the number of
+     * bytes written, and its limit is always its capacity.
+     */
+    ByteBuffer buffer;
+
+    /**
+     * The index of the size class of buffer in the pool, or
+     * ByteSinkPool.OVERSIZED if it was too big to be pooled.
+     */
+    int sizeClass;
+
+    /**
+     * Whether this sink has been acquired and not yet released.
+     */
+    boolean inUse;
+
+    /**
+     * Only set when the pool has leak detection enabled - reports the sink
+     * if it's garbage collected without having been released.
+     */
+    ByteSinkPool.LeakReport leakReport;
+
+    PooledByteSink(ByteSinkPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    /**
+     * Writes a byte into the sink, moving to a larger slab if this one is
+     * full.
+     * @param value The byte to add.
+     */
+    @Override
+    public void writeByte(byte value) {
+        if (!this.buffer.hasRemaining()) this.pool.grow(this, 1);
+        this.buffer.put(value);
+    }
+
+    /**
+     * Writes length bytes from source, starting at offset, into the sink.
+     */
+    @Override
+    public void writeBytes(byte[] source, int offset, int length) {
+        ensureCapacity(length);
+        this.buffer.put(source, offset, length);
+    }
+
+    /**
+     * Makes sure that at least additional more bytes can be written without
+     * moving to a larger slab.
+     * @param additional The number of bytes that are about to be written.
+     */
+    public void ensureCapacity(int additional) {
+        if (additional > this.buffer.remaining()) this.pool.grow(this, additional);
+    }
+
+    /**
+     * Returns the slab itself, so that an encoder can write straight into it
+     * (e.g., FrameCompressor deflating into it). Its position is the number
+     * of bytes written and its limit is its capacity; anything put after the
+     * position (and the position moved past it) becomes part of the sink.
+     *
+     * The slab is replaced whenever the sink moves to a larger one (e.g., in
+     * ensureCapacity), so it must be fetched again after that.
+     *
+     * @return The current slab.
+     */
+    public ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Empties all the stored bytes, keeping the current slab.
+     */
+    public void clear() {
+        this.buffer.clear();
+    }
+
+    /**
+     * Returns the number of bytes that have been written since the sink was
+     * last cleared.
+     * @return The number of available bytes.
+     */
+    public int available() {
+        return this.buffer.position();
+    }
+
+    /**
+     * Returns the number of bytes that can be held before the sink needs to
+     * move to a larger slab.
+     * @return The size of the current slab.
+     */
+    public int capacity() {
+        return this.buffer.capacity();
+    }
+
+    /**
+     * Copies the written bytes onto the heap. This is mostly useful for tests
+     * and debugging, as it defeats the point of a pooled sink.
+     * @return A copy of the written bytes.
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[available()];
+        this.buffer.get(0, result);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view of the written bytes, without copying them.
+     *
+     * The view itself is a (small) heap object, so on an allocation-free path
+     * use writeTo instead. The view is only valid until the sink is next
+     * written to, cleared or closed.
+     *
+     * @return A read-only view of the written bytes.
+     */
+    public ByteBuffer asByteBuffer() {
+        return this.buffer.asReadOnlyBuffer().flip();
+    }
+
+    /**
+     * Writes all the available bytes to channel, without copying them or
+     * clearing the sink.
+     *
+     * @param channel The channel to write the bytes to.
+     * @throws IOException If the channel throws an IOException.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        int size = this.buffer.position();
+
+        // Temporarily flip the slab rather than creating a view, then put the
+        // position and limit back so that writing can continue afterwards.
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) channel.write(this.buffer);
+        } finally {
+            this.buffer.limit(this.buffer.capacity()).position(size);
+        }
+    }
+
+    /**
+     * Returns this sink (and its slab) to the pool it came from.
+     */
+    @Override
+    public void close() {
+        this.pool.release(this);
+    }
+
+}
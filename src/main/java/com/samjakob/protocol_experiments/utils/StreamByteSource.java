@@ -0,0 +1,183 @@
+package com.samjakob.protocol_experiments.utils;
+
+import com.samjakob.protocol_experiments.data.VarLengthNumbers;
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A source of bytes read from an InputStream or a (blocking)
+ * ReadableByteChannel through a fixed-size buffer, which is refilled from
+ * the stream whenever it runs out. This allows data of any length to be
+ * decoded in constant memory.
+ *
+ * This is only suitable for blocking streams and channels, as it will
+ * simply keep calling read until enough bytes arrive.
+ */
+public class StreamByteSource implements ReaderInterface, Closeable {
+
+    /**
+     * The buffer size used when one isn't specified (64 KiB).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+
+    /**
+     * The buffered bytes, always in 'read mode', i.e., the unread bytes are
+     * between the position and the limit.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The total number of bytes read from the channel into buffer.
+     */
+    private long bytesFetched;
+
+    /**
+     * An alias for new StreamByteSource(Channels.newChannel(stream));
+     * @param stream The stream to read from.
+     */
+    public StreamByteSource(InputStream stream) {
+        this(Channels.newChannel(stream), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * An alias for new StreamByteSource(channel, DEFAULT_BUFFER_SIZE);
+     * @param channel The channel to read from.
+     */
+    public StreamByteSource(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a source that reads from channel, bufferSize bytes at a time.
+     *
+     * @param channel The channel to read from.
+     * @param bufferSize The size of the buffer. This must be at least 10
+     *                   bytes, so that a whole VarLong can be buffered.
+     */
+    public StreamByteSource(ReadableByteChannel channel, int bufferSize) {
+        if (bufferSize < 10)
+            throw new IllegalArgumentException("Buffer size must be at least 10 bytes");
+
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize).flip();
+    }
+
+    /**
+     * Reads the next byte, refilling the buffer if it's empty.
+     * @return The next byte.
+     * @throws UncheckedIOException If the end of the stream has been reached,
+     * or the stream throws an IOException.
+     */
+    @Override
+    public byte readByte() {
+        if (!this.buffer.hasRemaining() && !refill(1))
+            throw new UncheckedIOException(new EOFException("Reached the end of the stream"));
+        return this.buffer.get();
+    }
+
+    /**
+     * Copies the next length bytes into destination, refilling the buffer as
+     * many times as needed.
+     */
+    @Override
+    public void readBytes(byte[] destination, int offset, int length) {
+        while (length > 0) {
+            if (!this.buffer.hasRemaining() && !refill(1))
+                throw new UncheckedIOException(new EOFException("Reached the end of the stream"));
+
+            int chunk = Math.min(length, this.buffer.remaining());
+            this.buffer.get(destination, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Returns the number of bytes that are currently buffered, i.e., that can
+     * be read without reading from the stream.
+     */
+    @Override
+    public int remaining() {
+        return this.buffer.remaining();
+    }
+
+    /**
+     * Reads a VarInt. The buffer is topped up first if needed, so that (unless
+     * the stream is about to end) the whole value is decoded straight from
+     * the buffer.
+     * @return The decoded value.
+     */
+    public int readVarInt() {
+        if (this.buffer.remaining() < 5) refill(5);
+        if (this.buffer.remaining() >= 5) return VarLengthNumbers.readVarInt(this.buffer);
+        return VarLengthNumbers.readVarInt(this);
+    }
+
+    /**
+     * Reads a VarLong.
+     * @return The decoded value.
+     * @see StreamByteSource#readVarInt()
+     */
+    public long readVarLong() {
+        if (this.buffer.remaining() < 10) refill(10);
+        if (this.buffer.remaining() >= 10) return VarLengthNumbers.readVarLong(this.buffer);
+        return VarLengthNumbers.readVarLong(this);
+    }
+
+    /**
+     * Whether there is another byte to read, reading from the stream if
+     * necessary to find out.
+     * @return True if there is, otherwise false.
+     */
+    public boolean hasNextByte() {
+        return this.buffer.hasRemaining() || refill(1);
+    }
+
+    /**
+     * Returns the number of bytes that have been read from this source so far.
+     * @return The current position in the stream.
+     */
+    public long position() {
+        return this.bytesFetched - this.buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Moves any unread bytes to the start of the buffer and reads from the
+     * channel until at least needed bytes are buffered, or the stream ends.
+     *
+     * @param needed The number of bytes that should be buffered.
+     * @return Whether at least needed bytes are now buffered.
+     */
+    private boolean refill(int needed) {
+        this.buffer.compact();
+        try {
+            while (this.buffer.position() < needed) {
+                int read = this.channel.read(this.buffer);
+                if (read < 0) break;
+                this.bytesFetched += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            this.buffer.flip();
+        }
+
+        return this.buffer.remaining() >= needed;
+    }
+
+}
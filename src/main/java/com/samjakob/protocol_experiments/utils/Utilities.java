@@ -1,10 +1,13 @@
 package com.samjakob.protocol_experiments.utils;
 
-import java.util.Arrays;
-import java.util.stream.IntStream;
-
 public class Utilities {
 
+    /**
+     * The number of bytes of output that printBinaryArray builds up before
+     * writing them out.
+     */
+    private static final int PRINT_CHUNK_SIZE = 8192;
+
     public static String formatBinary(byte b) {
         return String.format(
             "%8s",
@@ -16,13 +19,41 @@ public class Utilities {
         System.out.println(formatBinary(b));
     }
 
+    /**
+     * Prints every byte of byteArray in binary, as a list - e.g.,
+     * [00001000, 10010110, 00000001].
+     *
+     * The output is built up in a fixed-size chunk and written out whenever
+     * that fills up, so this works in constant memory (without a String per
+     * byte) for arrays of any size. For large dumps that need to be read,
+     * CaptureInspector is more useful: it writes lines with offsets and can
+     * mark where each VarInt starts and ends.
+     *
+     * @param byteArray The bytes to print.
+     */
     public static void printBinaryArray(byte[] byteArray) {
-        String[] binaryStringArray = new String[byteArray.length];
-        IntStream.range(0, byteArray.length)
-                .parallel()
-                .forEach(i -> binaryStringArray[i] = formatBinary(byteArray[i]));
+        byte[] chunk = new byte[PRINT_CHUNK_SIZE];
+        int length = 0;
+
+        chunk[length++] = '[';
+        for (int i = 0; i < byteArray.length; i++) {
+            // Each byte needs 10 characters at most (", " and 8 digits), and
+            // there must be room for the closing bracket after the last one.
+            if (length > PRINT_CHUNK_SIZE - 11) {
+                System.out.write(chunk, 0, length);
+                length = 0;
+            }
+
+            if (i > 0) {
+                chunk[length++] = ',';
+                chunk[length++] = ' ';
+            }
+            for (int bit = 7; bit >= 0; bit--) chunk[length++] = (byte) ('0' + ((byteArray[i] >> bit) & 1));
+        }
+        chunk[length++] = ']';
 
-        System.out.println(Arrays.toString(binaryStringArray));
+        System.out.write(chunk, 0, length);
+        System.out.println();
     }
 
 }
@@ -0,0 +1,118 @@
+package com.samjakob.protocol_experiments.codec;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the codecs generated (by the codegen project's annotation processor)
+ * for the records below.
+ */
+public class MessageCodecTests {
+
+    enum Direction { NORTH, EAST, SOUTH, WEST }
+
+    @Message
+    record Move(int entityId, @ZigZag int dx, @ZigZag int dy, Direction facing) {}
+
+    @Message
+    record Position(double x, double y, float yaw, @Fixed long chunk) {}
+
+    @Message
+    record Everything(
+        boolean flag, byte b, short s, char c, int varInt, long varLong,
+        @ZigZag long sVarLong, @Fixed int fixedInt, String name, byte[] payload,
+        Position position
+    ) {}
+
+    @Test
+    void matchesHandWrittenEncoding() {
+        var move = new Move(300, -1, 2, Direction.WEST);
+
+        // What the codec replaces.
+        var sink = new ByteSink();
+        writeVarInt(sink, 300);
+        writeSVarInt(sink, -1);
+        writeSVarInt(sink, 2);
+        writeVarInt(sink, Direction.WEST.ordinal());
+
+        assertArrayEquals(sink.getBytes(), MessageCodecTests_MoveCodec.INSTANCE.encode(move));
+        assertEquals(move, MessageCodecTests_MoveCodec.INSTANCE.decode(ByteBuffer.wrap(MessageCodecTests_MoveCodec.INSTANCE.encode(move))));
+    }
+
+    @Test
+    void precomputesFixedSizes() {
+        // 8 + 8 + 4 + 8 bytes, known without looking at the message.
+        assertEquals(28, MessageCodecTests_PositionCodec.SIZE);
+
+        var position = new Position(1.5, -2.25, 90f, 0x0123_4567_89AB_CDEFL);
+        byte[] encoded = MessageCodecTests_PositionCodec.INSTANCE.encode(position);
+        assertEquals(28, encoded.length);
+        assertEquals(position, MessageCodecTests_PositionCodec.INSTANCE.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void roundTripsEveryComponentType() {
+        var message = new Everything(
+            true, (byte) -5, (short) -12345, 'é', Integer.MIN_VALUE, 1L << 40,
+            -7L, 0xCAFEBABE, "héllo 😀 wörld", new byte[] { 1, 2, 3 },
+            new Position(0, 1, 2, 3)
+        );
+
+        var codec = MessageCodecTests_EverythingCodec.INSTANCE;
+        var sink = new ByteSink();
+        int size = sink.write(codec, message);
+        assertEquals(codec.measure(message), size);
+
+        // Decode from a direct buffer with a non-zero position, and make sure
+        // exactly the message is consumed.
+        var buffer = ByteBuffer.allocateDirect(size + 3).position(1);
+        buffer.put(sink.getBytes()).put((byte) 42).flip().position(1);
+        Everything decoded = codec.decode(buffer);
+        assertEquals(42, buffer.get());
+
+        assertEquals(message.flag(), decoded.flag());
+        assertEquals(message.b(), decoded.b());
+        assertEquals(message.s(), decoded.s());
+        assertEquals(message.c(), decoded.c());
+        assertEquals(message.varInt(), decoded.varInt());
+        assertEquals(message.varLong(), decoded.varLong());
+        assertEquals(message.sVarLong(), decoded.sVarLong());
+        assertEquals(message.fixedInt(), decoded.fixedInt());
+        assertEquals(message.name(), decoded.name());
+        assertArrayEquals(message.payload(), decoded.payload());
+        assertEquals(message.position(), decoded.position());
+    }
+
+    @Test
+    void rejectsInvalidOrdinals() {
+        for (int ordinal : new int[] { 4, -1, Integer.MAX_VALUE }) {
+            var sink = new ByteSink();
+            writeVarInt(sink, 300);
+            writeSVarInt(sink, -1);
+            writeSVarInt(sink, 2);
+            writeVarInt(sink, ordinal);
+
+            var thrown = assertThrows(IllegalArgumentException.class,
+                () -> MessageCodecTests_MoveCodec.INSTANCE.decode(ByteBuffer.wrap(sink.getBytes())));
+            assertTrue(thrown.getMessage().contains("ordinal " + ordinal + " for facing"), thrown.getMessage());
+        }
+    }
+
+    @Test
+    void measuresStringsLikeGetBytes() {
+        for (String value : new String[] { "", "ascii", "éè", "世界", "😀", "\ud83d", "a\ude00b" }) {
+            assertEquals(value.getBytes(StandardCharsets.UTF_8).length, CodecSupport.utf8Length(value), "Wrong length for " + value);
+
+            byte[] encoded = new byte[CodecSupport.stringSize(value)];
+            assertEquals(encoded.length, CodecSupport.writeString(encoded, 0, value));
+            assertEquals(new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), CodecSupport.readString(ByteBuffer.wrap(encoded)));
+        }
+    }
+
+}
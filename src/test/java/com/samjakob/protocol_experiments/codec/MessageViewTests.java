@@ -0,0 +1,96 @@
+package com.samjakob.protocol_experiments.codec;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageViewTests {
+
+    @Message
+    record Header(int version, @Fixed long sessionId) {}
+
+    @Message
+    record Chat(int sender, int channel, @ZigZag long timestamp, Header header, String text, byte[] attachment, double score) {}
+
+    private static final MessageLayout LAYOUT = MessageViewTests_ChatCodec.LAYOUT;
+
+    private static final int SENDER = LAYOUT.indexOf("sender");
+    private static final int TIMESTAMP = LAYOUT.indexOf("timestamp");
+    private static final int HEADER = LAYOUT.indexOf("header");
+    private static final int TEXT = LAYOUT.indexOf("text");
+    private static final int ATTACHMENT = LAYOUT.indexOf("attachment");
+    private static final int SCORE = LAYOUT.indexOf("score");
+
+    private final Chat chat = new Chat(
+        123_456, 7, -1_000_000_000_000L, new Header(3, 0xDEAD_BEEF_0000_0001L),
+        "hello, wörld", new byte[] { 9, 8, 7 }, 0.75
+    );
+
+    @Test
+    void readsFieldsInAnyOrder() {
+        byte[] encoded = MessageViewTests_ChatCodec.INSTANCE.encode(chat);
+
+        // Pad the message on both sides, to make sure offsets are relative to
+        // where the message starts.
+        byte[] padded = new byte[encoded.length + 10];
+        System.arraycopy(encoded, 0, padded, 4, encoded.length);
+
+        var view = new MessageView(LAYOUT).wrap(padded, 4, encoded.length + 6);
+        assertEquals(chat.score(), view.getDouble(SCORE));
+        assertEquals(chat.text(), view.getString(TEXT));
+        assertEquals(chat.sender(), view.getVarInt(SENDER));
+        assertEquals(chat.timestamp(), view.getSVarLong(TIMESTAMP));
+        assertEquals(ByteBuffer.wrap(chat.attachment()), view.getBytes(ATTACHMENT));
+        assertEquals(ByteBuffer.wrap(chat.text().getBytes(StandardCharsets.UTF_8)), view.getBytes(TEXT));
+        assertEquals(encoded.length, view.length());
+
+        var header = view.getMessage(HEADER, new MessageView(MessageViewTests_HeaderCodec.LAYOUT));
+        assertEquals(3, header.getVarInt(0));
+        assertEquals(chat.header().sessionId(), header.getLong(1));
+        assertEquals(9, header.length());
+
+        assertThrows(IllegalArgumentException.class, () -> view.getVarInt(TEXT));
+    }
+
+    @Test
+    void forwardsOriginalBytes() {
+        byte[] encoded = MessageViewTests_ChatCodec.INSTANCE.encode(chat);
+        var view = new MessageView(LAYOUT).wrap(ByteBuffer.wrap(encoded));
+
+        var sink = new ByteSink();
+        view.writeTo(sink);
+        assertArrayEquals(encoded, sink.getBytes());
+
+        byte[] copy = new byte[encoded.length + 2];
+        assertEquals(encoded.length + 2, view.copyTo(copy, 2));
+        assertEquals(chat.text(), MessageViewTests_ChatCodec.INSTANCE.decode(ByteBuffer.wrap(copy, 2, encoded.length)).text());
+
+        // Rewriting a field changes its length, but nothing else.
+        view.writeWithVarInt(SENDER, 1, sink);
+        Chat rewritten = MessageViewTests_ChatCodec.INSTANCE.decode(ByteBuffer.wrap(sink.getBytes()));
+        assertEquals(1, rewritten.sender());
+        assertEquals(chat.text(), rewritten.text());
+        assertEquals(chat.score(), rewritten.score());
+    }
+
+    @Test
+    void canBeReusedAndDetectsTruncation() {
+        var view = new MessageView(LAYOUT);
+
+        for (int sender = 0; sender < 1000; sender += 99) {
+            byte[] encoded = MessageViewTests_ChatCodec.INSTANCE.encode(new Chat(sender, 1, 2, new Header(0, 0), "", new byte[0], 0));
+            assertEquals(sender, view.wrap(encoded).getVarInt(SENDER));
+            assertEquals(0.0, view.getDouble(SCORE));
+        }
+
+        byte[] encoded = MessageViewTests_ChatCodec.INSTANCE.encode(chat);
+        view.wrap(encoded, 0, encoded.length - 1);
+        assertEquals(chat.text(), view.getString(TEXT));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.getDouble(SCORE));
+    }
+
+}
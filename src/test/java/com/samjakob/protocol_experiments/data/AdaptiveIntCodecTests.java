@@ -0,0 +1,141 @@
+package com.samjakob.protocol_experiments.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveIntCodecTests {
+
+    private static final int FRAME_SIZE = 100;
+
+    @Test
+    void picksAFormatForEachDistribution() {
+        var random = new Random(6969);
+
+        assertEquals(AdaptiveIntCodec.Format.VAR_INT, settle(() -> random.nextInt(128)));
+        assertEquals(AdaptiveIntCodec.Format.ZIG_ZAG, settle(() -> random.nextInt(128) - 64));
+        assertEquals(AdaptiveIntCodec.Format.STREAM_VBYTE, settle(() -> (1 << 21) + random.nextInt(1 << 23)));
+        assertEquals(AdaptiveIntCodec.Format.FIXED, settle(random::nextInt));
+    }
+
+    @Test
+    void decoderFollowsFormatSwitches() {
+        var random = new Random(420);
+        var codec = new AdaptiveIntCodec();
+        byte[] encoded = new byte[AdaptiveIntCodec.maxEncodedSize(FRAME_SIZE) * 60];
+
+        // Small positive values, then small negative deltas, then random
+        // ints - all in one stream, decoded frame by frame.
+        int[][] frames = new int[60][];
+        int offset = 0;
+        for (int frame = 0; frame < frames.length; frame++) {
+            int[] values = new int[FRAME_SIZE];
+            for (int i = 0; i < values.length; i++) {
+                if (frame < 20) values[i] = random.nextInt(100);
+                else if (frame < 40) values[i] = random.nextInt(100) - 50;
+                else values[i] = random.nextInt();
+            }
+
+            frames[frame] = values;
+            offset = codec.encode(values, encoded, offset, values.length);
+        }
+
+        assertTrue(codec.switches() >= 2, "The encoder should have switched format as the values changed");
+
+        int position = 0;
+        for (int[] values : frames) {
+            int[] decoded = new int[AdaptiveIntCodec.count(encoded, position)];
+            position = AdaptiveIntCodec.decode(encoded, position, decoded);
+            assertArrayEquals(values, decoded);
+        }
+
+        assertEquals(offset, position);
+    }
+
+    @Test
+    void framesAddAtMostSamplesPerFrame() {
+        for (int count : new int[] { 33, 63, 100, 1000 }) {
+            // Fill the window with 1 byte VarInts...
+            var codec = new AdaptiveIntCodec(0);
+            byte[] encoded = new byte[AdaptiveIntCodec.maxEncodedSize(count)];
+            int[] zeroes = new int[AdaptiveIntCodec.SAMPLES_PER_FRAME];
+            for (int i = 0; i < AdaptiveIntCodec.WINDOW_SIZE / zeroes.length; i++) codec.encode(zeroes, encoded, 0, zeroes.length);
+            assertEquals(1.0, codec.estimatedCost(AdaptiveIntCodec.Format.VAR_INT), 1e-9);
+
+            // ...then replace some of them with 5 byte ones.
+            int[] values = new int[count];
+            Arrays.fill(values, -1);
+            codec.encode(values, encoded, 0, count);
+
+            int stride = (count + AdaptiveIntCodec.SAMPLES_PER_FRAME - 1) / AdaptiveIntCodec.SAMPLES_PER_FRAME;
+            int sampled = (count + stride - 1) / stride;
+            assertTrue(sampled <= AdaptiveIntCodec.SAMPLES_PER_FRAME);
+            assertEquals(1.0 + 4.0 * sampled / AdaptiveIntCodec.WINDOW_SIZE, codec.estimatedCost(AdaptiveIntCodec.Format.VAR_INT), 1e-9,
+                "A frame of " + count + " values should add " + sampled + " samples");
+        }
+    }
+
+    @Test
+    void framesHaveAFormatHeaderAndCount() {
+        var codec = new AdaptiveIntCodec();
+        byte[] encoded = new byte[AdaptiveIntCodec.maxEncodedSize(3)];
+        int end = codec.encode(new int[] { 1, 2, 300 }, encoded, 0, 3);
+
+        assertArrayEquals(new byte[] {
+            (byte) AdaptiveIntCodec.Format.VAR_INT.ordinal(),
+            3,
+            1, 2, (byte) 0xAC, 0x02
+        }, Arrays.copyOf(encoded, end));
+
+        // An empty frame is just the header and a count of 0.
+        assertEquals(2, codec.encode(new int[0], encoded, 0, 0));
+        assertEquals(2, AdaptiveIntCodec.decode(encoded, 0, new int[0]));
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        byte[] encoded = { 99, 0 };
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveIntCodec.decode(encoded, 0, new int[0]));
+        assertThrows(IndexOutOfBoundsException.class, () -> AdaptiveIntCodec.decode(new byte[] { 0, 5, 1, 2, 3, 4, 5 }, 0, new int[4]));
+    }
+
+    @Test
+    void sizeOnlyWeightPicksTheSmallestFormat() {
+        // Values that take 2 bytes as a VarInt, but 1.25 on average with
+        // StreamVByte.
+        var codec = new AdaptiveIntCodec(0);
+        int[] values = new int[FRAME_SIZE];
+        Arrays.fill(values, 200);
+
+        byte[] encoded = new byte[AdaptiveIntCodec.maxEncodedSize(FRAME_SIZE)];
+        codec.encode(values, encoded, 0, values.length);
+        assertEquals(AdaptiveIntCodec.Format.STREAM_VBYTE, codec.format());
+        assertEquals(1.25, codec.estimatedCost(AdaptiveIntCodec.Format.STREAM_VBYTE), 1e-9);
+    }
+
+    /**
+     * Encodes (and checks) frames of values from next until the encoder has
+     * seen a whole window of them, and returns the format it settled on.
+     */
+    private static AdaptiveIntCodec.Format settle(IntSupplier next) {
+        var codec = new AdaptiveIntCodec();
+        byte[] encoded = new byte[AdaptiveIntCodec.maxEncodedSize(FRAME_SIZE)];
+        int[] values = new int[FRAME_SIZE];
+        int[] decoded = new int[FRAME_SIZE];
+
+        for (int frame = 0; frame < 20; frame++) {
+            for (int i = 0; i < values.length; i++) values[i] = next.getAsInt();
+
+            int end = codec.encode(values, encoded, 0, values.length);
+            assertEquals(end, AdaptiveIntCodec.decode(encoded, 0, decoded));
+            assertArrayEquals(values, decoded);
+        }
+
+        return codec.format();
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.samjakob.protocol_experiments.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupVarIntTests {
+
+    @Test
+    void encodesKnownLayout() {
+        byte[] encoded = new byte[GroupVarInt.maxEncodedSize(5)];
+        int end = GroupVarInt.encode(new int[] { 1, 256, 65536, -1, 7 }, encoded, 0, 5);
+
+        // Lengths 1, 2, 3 and 4 -> 0b11_10_01_00, then a group of one int.
+        assertArrayEquals(new byte[] {
+            (byte) 0b11_10_01_00,
+            1,
+            0, 1,
+            0, 0, 1,
+            -1, -1, -1, -1,
+            0,
+            7
+        }, Arrays.copyOf(encoded, end));
+    }
+
+    @Test
+    void roundTripsEveryCount() {
+        Random random = new Random(13);
+
+        for (int count = 0; count <= 64; count++) {
+            int[] values = randomValues(random, count);
+
+            byte[] encoded = new byte[GroupVarInt.maxEncodedSize(count) + 3];
+            int end = GroupVarInt.encode(values, encoded, 3, count);
+            assertEquals(3 + GroupVarInt.encodedSize(values, 0, count), end);
+
+            // Decode from an exactly-sized copy so that the tail (byte at a
+            // time) path is hit right up against the end of the array.
+            byte[] exact = Arrays.copyOfRange(encoded, 3, end);
+            int[] decoded = new int[count];
+            assertEquals(exact.length, GroupVarInt.decode(exact, 0, decoded, count));
+            assertArrayEquals(values, decoded, "Wrong values for count " + count);
+        }
+    }
+
+    @Test
+    void doesNotWritePastTheEnd() {
+        byte[] encoded = new byte[16];
+        Arrays.fill(encoded, (byte) 0x55);
+
+        int end = GroupVarInt.encode(new int[] { 1, 2, 3 }, encoded, 0, 3);
+        assertEquals(4, end);
+        for (int i = end; i < encoded.length; i++) assertEquals((byte) 0x55, encoded[i]);
+    }
+
+    /**
+     * Values with a random number of significant bytes (0 to 4), so that
+     * every length (and combination of lengths) turns up.
+     */
+    static int[] randomValues(Random random, int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            int bytes = random.nextInt(5);
+            values[i] = bytes == 4 ? random.nextInt() : random.nextInt() & ((1 << (bytes * 8)) - 1);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.framing.FrameReader;
+import com.samjakob.protocol_experiments.framing.FrameWriter;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageEncoderTests {
+
+    /**
+     * An example message, with a variable length list of IDs.
+     */
+    private static final class Move {
+
+        final int entityId;
+
+        final long timestamp;
+
+        final int dx;
+
+        final int[] targets;
+
+        Move(int entityId, long timestamp, int dx, int[] targets) {
+            this.entityId = entityId;
+            this.timestamp = timestamp;
+            this.dx = dx;
+            this.targets = targets;
+        }
+
+    }
+
+    private static final MessageEncoder<Move> MOVE_ENCODER = new MessageEncoder<>() {
+        @Override
+        public int measure(Move move) {
+            return varIntSize(move.entityId)
+                + varLongSize(move.timestamp)
+                + sVarIntSize(move.dx)
+                + varIntSize(move.targets.length)
+                + varIntsSize(move.targets, 0, move.targets.length);
+        }
+
+        @Override
+        public int encode(Move move, byte[] destination, int offset) {
+            offset = writeVarInt(destination, offset, move.entityId);
+            offset = writeVarLong(destination, offset, move.timestamp);
+            offset = writeSVarInt(destination, offset, move.dx);
+            offset = writeVarInt(destination, offset, move.targets.length);
+            return encodeVarInts(move.targets, destination, offset, move.targets.length);
+        }
+    };
+
+    private static final Move MOVE = new Move(6969, 1_700_000_000_000L, -3, new int[] { 1, 200, 30000, -1 });
+
+    /**
+     * The same message, written one value at a time through WriterInterface.
+     */
+    private static byte[] expectedMoveBytes() {
+        var sink = new ByteSink();
+        writeVarInt(sink, MOVE.entityId);
+        writeVarLong(sink, MOVE.timestamp);
+        writeSVarInt(sink, MOVE.dx);
+        writeVarInt(sink, MOVE.targets.length);
+        for (int target : MOVE.targets) writeVarInt(sink, target);
+        return sink.getBytes();
+    }
+
+    @Test
+    void encodesIntoExactlySizedArray() {
+        byte[] expected = expectedMoveBytes();
+
+        assertEquals(expected.length, MOVE_ENCODER.measure(MOVE));
+        assertArrayEquals(expected, MOVE_ENCODER.encode(MOVE));
+    }
+
+    @Test
+    void sinkGrowsOnceToFitMessage() {
+        byte[] expected = expectedMoveBytes();
+
+        var sink = new ByteSink(0);
+        sink.writeByte((byte) 42);
+        assertEquals(expected.length, sink.write(MOVE_ENCODER, MOVE));
+        assertEquals(1 + expected.length, sink.available());
+
+        byte[] bytes = sink.getBytes();
+        assertEquals(42, bytes[0]);
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], bytes[i + 1]);
+    }
+
+    @Test
+    void framesMeasuredMessagesWithoutBackPatching() {
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink);
+        int frameLength = writer.writeFrame(MOVE_ENCODER, MOVE);
+
+        var source = ByteBuffer.wrap(sink.getBytes());
+        assertEquals(frameLength, source.remaining());
+
+        ByteBuffer body = new FrameReader().nextFrame(source);
+        byte[] bodyBytes = new byte[body.remaining()];
+        body.get(bodyBytes);
+        assertArrayEquals(expectedMoveBytes(), bodyBytes);
+    }
+
+    @Test
+    void sizeFunctionsCoverEveryLength() {
+        // Check the boundary either side of every multiple of 7 bits.
+        for (int bits = 0; bits <= 32; bits++) {
+            int value = bits == 0 ? 0 : 1 << (bits - 1);
+            assertEquals(Math.max(1, (bits + 6) / 7), varIntSize(value), "Wrong size for " + bits + " bits");
+        }
+
+        for (int bits = 0; bits <= 64; bits++) {
+            long value = bits == 0 ? 0 : 1L << (bits - 1);
+            assertEquals(Math.max(1, (bits + 6) / 7), varLongSize(value), "Wrong size for " + bits + " bits");
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSource;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefixVarIntTests {
+
+    /**
+     * Values at either side of every length boundary, plus random values of
+     * every length.
+     */
+    private static long[] longValues() {
+        var random = new Random(24);
+        long[] values = new long[64 * 3 + 1000];
+        int count = 0;
+        for (int bits = 0; bits < 64; bits++) {
+            values[count++] = 1L << bits;
+            values[count++] = (1L << bits) - 1;
+            values[count++] = -(1L << bits);
+        }
+        while (count < values.length) values[count++] = random.nextLong() >>> random.nextInt(64);
+        return values;
+    }
+
+    @Test
+    void knownEncodings() {
+        byte[] array = new byte[16];
+
+        assertEquals(1, PrefixVarInt.writeVarInt(array, 0, 0));
+        assertEquals(0b0000_0001, array[0]);
+
+        assertEquals(1, PrefixVarInt.writeVarInt(array, 0, 127));
+        assertEquals((byte) 0b1111_1111, array[0]);
+
+        // 128 = 0b10_000000_0, shifted up by 2 with 0b10 as the length bits.
+        assertEquals(2, PrefixVarInt.writeVarInt(array, 0, 128));
+        assertEquals((byte) 0b0000_0010, array[0]);
+        assertEquals((byte) 0b0000_0010, array[1]);
+
+        assertEquals(5, PrefixVarInt.writeVarInt(array, 0, -1));
+        assertEquals(0b0001_0000, array[0] & 0b0001_1111);
+
+        assertEquals(9, PrefixVarInt.writeVarLong(array, 0, -1L));
+        assertEquals(0, array[0]);
+        for (int i = 1; i < 9; i++) assertEquals((byte) -1, array[i]);
+    }
+
+    @Test
+    void sizesMatchWhatIsWritten() {
+        byte[] array = new byte[16];
+        for (long value : longValues()) {
+            int length = PrefixVarInt.writeVarLong(array, 3, value) - 3;
+            assertEquals(PrefixVarInt.varLongSize(value), length, "Size of " + value);
+            assertEquals(length, PrefixVarInt.encodedLength(array[3]), "Encoded length of " + value);
+
+            int intLength = PrefixVarInt.writeVarInt(array, 3, (int) value) - 3;
+            assertEquals(PrefixVarInt.varIntSize((int) value), intLength, "Size of " + (int) value);
+            assertEquals(intLength, PrefixVarInt.encodedLength(array[3]));
+        }
+    }
+
+    @Test
+    void everyPathRoundTrips() {
+        long[] values = longValues();
+
+        // Write every value through every path, and check they all agree.
+        var sink = new ByteSink();
+        byte[] array = new byte[values.length * 14];
+        var heap = ByteBuffer.allocate(array.length);
+        var direct = ByteBuffer.allocateDirect(array.length);
+        int position = 0;
+        for (long value : values) {
+            PrefixVarInt.writeVarLong(sink, value);
+            PrefixVarInt.writeVarInt(sink, (int) value);
+            position = PrefixVarInt.writeVarLong(array, position, value);
+            position = PrefixVarInt.writeVarInt(array, position, (int) value);
+            PrefixVarInt.writeVarLong(heap, value);
+            PrefixVarInt.writeVarInt(heap, (int) value);
+            PrefixVarInt.writeVarLong(direct, value);
+            PrefixVarInt.writeVarInt(direct, (int) value);
+        }
+
+        byte[] written = sink.getBytes();
+        assertEquals(position, written.length);
+        assertEquals(ByteBuffer.wrap(written), ByteBuffer.wrap(array, 0, position));
+        assertEquals(ByteBuffer.wrap(written), heap.flip());
+        assertEquals(ByteBuffer.wrap(written), direct.flip());
+
+        // Read them back, using the exact-length array so that the last
+        // values are read near the end, without a whole word to load.
+        var source = new ByteSource(written);
+        var buffer = ByteBuffer.wrap(written);
+        position = 0;
+        for (long value : values) {
+            assertEquals(value, PrefixVarInt.readVarLong(source));
+            assertEquals((int) value, PrefixVarInt.readVarInt(source));
+
+            assertEquals(value, PrefixVarInt.readVarLong(written, position));
+            position += PrefixVarInt.encodedLength(written[position]);
+            assertEquals((int) value, PrefixVarInt.readVarInt(written, position));
+            position += PrefixVarInt.encodedLength(written[position]);
+
+            assertEquals(value, PrefixVarInt.readVarLong(buffer));
+            assertEquals((int) value, PrefixVarInt.readVarInt(buffer));
+            assertEquals(value, PrefixVarInt.readVarLong(direct));
+            assertEquals((int) value, PrefixVarInt.readVarInt(direct));
+        }
+
+        assertEquals(written.length, position);
+        assertFalse(buffer.hasRemaining());
+        assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    void invalidIntsAreRejected() {
+        // 6 bytes is too long for an int.
+        byte[] tooLong = { 0b0010_0000, 0, 0, 0, 0, 0, 0, 0 };
+        assertThrows(VarIntFormatException.class, () -> PrefixVarInt.readVarInt(tooLong, 0));
+        assertThrows(VarIntFormatException.class, () -> PrefixVarInt.readVarInt(new ByteSource(tooLong)));
+        assertThrows(VarIntFormatException.class, () -> PrefixVarInt.readVarInt(ByteBuffer.wrap(tooLong, 0, 6)));
+
+        // 5 bytes with more than 32 bits set.
+        byte[] tooBig = { (byte) 0b1111_0000, -1, -1, -1, -1 };
+        assertThrows(VarIntFormatException.class, () -> PrefixVarInt.readVarInt(tooBig, 0));
+        var buffer = ByteBuffer.wrap(tooBig);
+        assertThrows(VarIntFormatException.class, () -> PrefixVarInt.readVarInt(buffer));
+        assertEquals(0, buffer.position(), "Position should be left unchanged");
+
+        // But the same bytes are a valid long.
+        assertEquals((1L << 35) - 1, PrefixVarInt.readVarLong(tooBig, 0));
+    }
+
+    @Test
+    void truncatedValuesAreRejected() {
+        byte[] truncated = { 0b0000_1000, 1, 2 };
+        assertThrows(IndexOutOfBoundsException.class, () -> PrefixVarInt.readVarInt(truncated, 0));
+
+        var buffer = ByteBuffer.wrap(truncated);
+        assertThrows(IndexOutOfBoundsException.class, () -> PrefixVarInt.readVarLong(buffer));
+        assertEquals(0, buffer.position());
+
+        var full = ByteBuffer.allocate(8);
+        assertThrows(IndexOutOfBoundsException.class, () -> PrefixVarInt.writeVarLong(full, -1L));
+        assertEquals(0, full.position());
+    }
+
+}
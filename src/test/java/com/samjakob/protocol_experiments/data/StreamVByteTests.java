@@ -0,0 +1,59 @@
+package com.samjakob.protocol_experiments.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamVByteTests {
+
+    @Test
+    void encodesKnownLayout() {
+        byte[] encoded = new byte[StreamVByte.maxEncodedSize(5)];
+        int end = StreamVByte.encode(new int[] { 1, 256, 65536, -1, 7 }, encoded, 0, 5);
+
+        // Both control bytes come first, then all the data.
+        assertArrayEquals(new byte[] {
+            (byte) 0b11_10_01_00,
+            0,
+            1,
+            0, 1,
+            0, 0, 1,
+            -1, -1, -1, -1,
+            7
+        }, Arrays.copyOf(encoded, end));
+    }
+
+    @Test
+    void roundTripsEveryCount() {
+        Random random = new Random(14);
+
+        for (int count = 0; count <= 64; count++) {
+            int[] values = GroupVarIntTests.randomValues(random, count);
+
+            byte[] encoded = new byte[StreamVByte.maxEncodedSize(count) + 3];
+            int end = StreamVByte.encode(values, encoded, 3, count);
+            assertEquals(3 + StreamVByte.encodedSize(values, 0, count), end);
+
+            byte[] exact = Arrays.copyOfRange(encoded, 3, end);
+            int[] decoded = new int[count];
+            assertEquals(exact.length, StreamVByte.decode(exact, 0, decoded, count));
+            assertArrayEquals(values, decoded, "Wrong values for count " + count);
+        }
+    }
+
+    @Test
+    void decodesLargeBatches() {
+        int[] values = GroupVarIntTests.randomValues(new Random(15), 10_000);
+
+        byte[] encoded = new byte[StreamVByte.maxEncodedSize(values.length)];
+        int end = StreamVByte.encode(values, encoded, 0, values.length);
+
+        int[] decoded = new int[values.length];
+        assertEquals(end, StreamVByte.decode(encoded, 0, decoded, values.length));
+        assertArrayEquals(values, decoded);
+    }
+
+}
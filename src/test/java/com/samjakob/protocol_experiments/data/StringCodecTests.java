@@ -0,0 +1,232 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.interfaces.ReaderInterface;
+import com.samjakob.protocol_experiments.interfaces.WriterInterface;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSource;
+import com.samjakob.protocol_experiments.utils.StreamByteSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringCodecTests {
+
+    private static final String[] SAMPLES = {
+        "",
+        "hello",
+        "general-chat",
+        "a string that is long enough to need more than one word",
+        "café",
+        "日本語のチャンネル",
+        "emoji 😀 pair",
+        "ascii then é then ascii again",
+        "x".repeat(300) + "é" + "y".repeat(300)
+    };
+
+    @Test
+    void matchesGetBytes() {
+        for (String sample : SAMPLES) {
+            byte[] expected = sample.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, StringCodec.utf8Length(sample), sample);
+
+            byte[] encoded = new byte[StringCodec.stringSize(sample)];
+            assertEquals(encoded.length, StringCodec.writeString(encoded, 0, sample));
+
+            int bodyStart = VarLengthNumbers.skipVarInt(encoded, 0);
+            assertEquals(expected.length, VarLengthNumbers.readVarInt(encoded, 0));
+            assertArrayEquals(expected, Arrays.copyOfRange(encoded, bodyStart, encoded.length), sample);
+
+            assertEquals(sample, StringCodec.readString(ByteBuffer.wrap(encoded)));
+        }
+    }
+
+    @Test
+    void unpairedSurrogatesBecomeQuestionMarks() {
+        String sample = "a\ud800b\udc00";
+        assertEquals(4, StringCodec.utf8Length(sample));
+
+        byte[] encoded = new byte[StringCodec.stringSize(sample)];
+        StringCodec.writeString(encoded, 0, sample);
+        assertEquals("a?b?", StringCodec.readString(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void writersGetTheSameBytes() {
+        for (String sample : SAMPLES) {
+            byte[] expected = new byte[StringCodec.stringSize(sample)];
+            StringCodec.writeString(expected, 0, sample);
+
+            // Straight into a ByteSink's array...
+            var sink = new ByteSink(1);
+            sink.writeByte((byte) 7);
+            StringCodec.writeString(sink, sample);
+            byte[] written = sink.toByteArray();
+            assertEquals(7, written[0]);
+            assertArrayEquals(expected, Arrays.copyOfRange(written, 1, written.length), sample);
+
+            // ...or in chunks through any other writer.
+            var stream = new ByteArrayOutputStream();
+            WriterInterface writer = value -> stream.write(value);
+            StringCodec.writeString(writer, sample);
+            assertArrayEquals(expected, stream.toByteArray(), sample);
+
+            assertEquals(sample, StringCodec.readString(new ByteSource(expected)));
+        }
+    }
+
+    @Test
+    void surrogatePairsSurviveChunkBoundaries() {
+        // Put a pair across every possible chunk boundary.
+        for (int prefix = 120; prefix < 140; prefix++) {
+            String sample = "a".repeat(prefix) + "😀" + "b";
+
+            var stream = new ByteArrayOutputStream();
+            StringCodec.writeString((WriterInterface) value -> stream.write(value), sample);
+            assertEquals(sample, StringCodec.readString(ByteBuffer.wrap(stream.toByteArray())));
+        }
+    }
+
+    @Test
+    void readsFromDirectBuffers() {
+        var buffer = ByteBuffer.allocateDirect(64);
+        for (String sample : new String[] { "hello", "café" }) {
+            byte[] encoded = new byte[StringCodec.stringSize(sample)];
+            StringCodec.writeString(encoded, 0, sample);
+            buffer.put(encoded);
+        }
+        buffer.flip();
+
+        assertEquals("hello", StringCodec.readString(buffer));
+        assertEquals("café", StringCodec.readString(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void rejectsTruncatedStrings() {
+        var buffer = ByteBuffer.wrap(new byte[] { 5, 'a', 'b' });
+        assertThrows(IndexOutOfBoundsException.class, () -> StringCodec.readString(buffer));
+        assertEquals(0, buffer.position(), "The position should be left at the length prefix");
+    }
+
+    @Test
+    void readsFromStreamsInSegments() {
+        String longString = "é".repeat(1500);
+        byte[] longBytes = new byte[100_000];
+        new Random(21).nextBytes(longBytes);
+
+        var sink = new ByteSink();
+        StringCodec.writeString(sink, longString);
+        StringCodec.writeBytes(sink, longBytes);
+        StringCodec.writeString(sink, "after");
+        byte[] encoded = sink.getBytes();
+
+        // Like a socket, the channel returns at most 1460 bytes per read, so
+        // neither value is ever buffered in full before it's read.
+        var channel = new ReadableByteChannel() {
+            int position;
+
+            @Override
+            public int read(ByteBuffer destination) {
+                if (this.position == encoded.length) return -1;
+                int length = Math.min(Math.min(1460, destination.remaining()), encoded.length - this.position);
+                destination.put(encoded, this.position, length);
+                this.position += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        var source = new StreamByteSource(channel, 4096);
+        assertEquals(longString, StringCodec.readString(source));
+        assertArrayEquals(longBytes, StringCodec.readBytes(source));
+        assertEquals("after", StringCodec.readString(source));
+
+        // A string cut short fails at the end of the stream.
+        var truncated = new StreamByteSource(new ByteArrayInputStream(Arrays.copyOf(encoded, 2000)));
+        assertThrows(UncheckedIOException.class, () -> StringCodec.readString(truncated));
+    }
+
+    @Test
+    void rejectsLengthsOverTheMaximum() {
+        // Nothing is allocated for a length that is too long, however it
+        // is read.
+        ReaderInterface huge = new ByteSource(new byte[] { -1, -1, -1, -1, 0x07 });
+        assertThrows(IndexOutOfBoundsException.class, () -> StringCodec.readString(huge));
+
+        var sink = new ByteSink();
+        StringCodec.writeString(sink, "x".repeat(101));
+        StringCodec.writeBytes(sink, new byte[101]);
+        var source = new ByteSource(sink.getBytes());
+        assertThrows(IndexOutOfBoundsException.class, () -> StringCodec.readString(source, null, 100));
+        source.readBytes(new byte[101], 0, 101);
+        assertThrows(IndexOutOfBoundsException.class, () -> StringCodec.readBytes(source, 100));
+    }
+
+    @Test
+    void asciiCheckFindsAnyHighByte() {
+        var random = new Random(6969);
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) random.nextInt(0x80);
+
+        assertTrue(StringCodec.isAscii(bytes, 0, bytes.length));
+        for (int i = 0; i < bytes.length; i++) {
+            byte original = bytes[i];
+            bytes[i] = (byte) 0x80;
+            assertFalse(StringCodec.isAscii(bytes, 0, bytes.length), "Byte " + i);
+            assertTrue(StringCodec.isAscii(bytes, i + 1, bytes.length - i - 1));
+            bytes[i] = original;
+        }
+    }
+
+    @Test
+    void cacheReturnsTheSameInstance() {
+        var cache = new StringCache(64, 16);
+        byte[] encoded = new byte[32];
+        int end = StringCodec.writeString(encoded, 0, "lobby");
+        StringCodec.writeString(encoded, end, "café");
+
+        String first = StringCodec.readString(ByteBuffer.wrap(encoded), cache);
+        String second = StringCodec.readString(ByteBuffer.wrap(encoded), cache);
+        assertEquals("lobby", first);
+        assertSame(first, second, "A repeated string should come from the cache");
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        var buffer = ByteBuffer.wrap(encoded, end, encoded.length - end);
+        assertEquals("café", StringCodec.readString(buffer, cache));
+    }
+
+    @Test
+    void cacheSkipsLongStringsAndSurvivesCollisions() {
+        var cache = new StringCache(1, 8);
+
+        // Anything longer than maxLength is decoded every time.
+        byte[] longName = "a-very-long-channel-name".getBytes(StandardCharsets.UTF_8);
+        assertNotSame(cache.get(longName, 0, longName.length), cache.get(longName, 0, longName.length));
+        assertEquals(0, cache.hits() + cache.misses());
+
+        // With a single entry, every string collides with every other, but
+        // lookups must still return the right string.
+        for (String name : new String[] { "alice", "bob", "alice", "carol" }) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            assertEquals(name, cache.get(bytes, 0, bytes.length));
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VarIntDecoderTests {
+
+    @Test
+    void decodesVarIntsSplitAtAnyPoint() {
+        int[] values = {
+            0, 1, 127, 128, 255, 6969, 2097151, Integer.MAX_VALUE,
+            -1, -128, Integer.MIN_VALUE
+        };
+
+        var sink = new ByteSink();
+        for (int value : values) writeVarInt(sink, value);
+        byte[] bytes = sink.getBytes();
+
+        // Split the data into two 'reads' at every possible point, and make
+        // sure every value is still decoded.
+        for (int split = 0; split <= bytes.length; split++) {
+            var decoder = new VarIntDecoder();
+            var first = ByteBuffer.wrap(bytes, 0, split);
+            var second = ByteBuffer.wrap(bytes, split, bytes.length - split);
+
+            int decoded = 0;
+            for (var read : new ByteBuffer[] { first, second }) {
+                long result;
+                while ((result = decoder.decode(read)) != VarIntDecoder.NEED_MORE) {
+                    assertEquals(values[decoded], (int) result, "Wrong value at index " + decoded + " when split at " + split);
+                    decoded++;
+                }
+            }
+
+            assertEquals(values.length, decoded, "Every value should have been decoded when split at " + split);
+            assertFalse(decoder.isPartial());
+        }
+    }
+
+    @Test
+    void feedingOneByteAtATime() {
+        var decoder = new VarIntDecoder();
+
+        // 300 is written as 0b1010_1100 0b0000_0010.
+        assertEquals(VarIntDecoder.NEED_MORE, decoder.decode((byte) 0b1010_1100));
+        assertTrue(decoder.isPartial());
+        assertEquals(300, decoder.decode((byte) 0b0000_0010));
+        assertFalse(decoder.isPartial());
+    }
+
+    @Test
+    void refusesInvalidVarIntAcrossReads() {
+        var decoder = new VarIntDecoder();
+
+        byte[] invalid = { -1, -1, -1, -1, -1 };
+        assertEquals(VarIntDecoder.NEED_MORE, decoder.decode(ByteBuffer.wrap(invalid, 0, 3)));
+        assertThrows(RuntimeException.class, () -> decoder.decode(ByteBuffer.wrap(invalid, 3, 2)));
+
+        // The decoder should be usable again afterwards.
+        assertFalse(decoder.isPartial());
+        assertEquals(5, decoder.decode(ByteBuffer.wrap(new byte[] { 5 })));
+    }
+
+}
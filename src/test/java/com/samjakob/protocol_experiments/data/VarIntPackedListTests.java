@@ -0,0 +1,103 @@
+package com.samjakob.protocol_experiments.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VarIntPackedListTests {
+
+    @Test
+    void storesSortedAndUnsortedValues() {
+        Random random = new Random(15);
+
+        long[] unsorted = new long[1000];
+        for (int i = 0; i < unsorted.length; i++) unsorted[i] = random.nextLong() >> random.nextInt(64);
+
+        long[] sorted = unsorted.clone();
+        Arrays.sort(sorted);
+
+        for (long[] values : new long[][] { unsorted, sorted, { 42 }, { Long.MIN_VALUE, Long.MAX_VALUE } }) {
+            var list = VarIntPackedList.of(values);
+            assertEquals(values.length, list.size());
+            assertArrayEquals(values, list.toLongArray());
+            for (int i = 0; i < values.length; i++) assertEquals(values[i], list.get(i), "Wrong value at " + i);
+        }
+
+        assertFalse(VarIntPackedList.of(unsorted).isSorted());
+        assertTrue(VarIntPackedList.of(sorted).isSorted());
+        assertEquals(0, VarIntPackedList.of(new int[0]).size());
+    }
+
+    @Test
+    void packsSortedIdsCompactly() {
+        int[] ids = new int[100_000];
+        for (int i = 1; i < ids.length; i++) ids[i] = ids[i - 1] + 1 + (i % 50);
+
+        var list = VarIntPackedList.of(ids);
+        assertArrayEquals(ids, list.toIntArray());
+        assertEquals(ids[777], list.getInt(777));
+
+        // Each gap fits in a single byte, so this should be about a quarter of
+        // the size of the int[].
+        assertTrue(list.sizeInBytes() < ids.length * Integer.BYTES / 3, "Packed size was " + list.sizeInBytes());
+    }
+
+    @Test
+    void cursorReadsInOrderAndSeeks() {
+        long[] values = new long[500];
+        for (int i = 0; i < values.length; i++) values[i] = (i * 7919L) % 1000 - 500;
+        var list = VarIntPackedList.of(values);
+
+        var cursor = list.cursor();
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(cursor.hasNext());
+            assertEquals(i, cursor.nextIndex());
+            assertEquals(values[i], cursor.next());
+        }
+        assertFalse(cursor.hasNext());
+        assertThrows(NoSuchElementException.class, cursor::next);
+
+        for (int index : new int[] { 0, 1, 127, 128, 129, 300, 499 }) {
+            cursor.seek(index);
+            assertEquals(values[index], cursor.next());
+        }
+
+        assertThrows(IllegalStateException.class, () -> list.cursor().advanceTo(0));
+    }
+
+    @Test
+    void advanceToFindsFirstValueAtLeastTarget() {
+        // Lots of duplicates, including runs that cross block boundaries.
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) values[i] = (i / 200) * 10L + (i % 3 == 0 ? 1 : 0) + i / 7;
+        Arrays.sort(values);
+        var list = VarIntPackedList.of(values);
+
+        for (long target = values[0] - 1; target <= values[values.length - 1] + 1; target++) {
+            var cursor = list.cursor();
+            int expected = 0;
+            while (expected < values.length && values[expected] < target) expected++;
+
+            if (expected == values.length) {
+                assertFalse(cursor.advanceTo(target));
+                continue;
+            }
+
+            assertTrue(cursor.advanceTo(target), "Should have found " + target);
+            assertEquals(expected, cursor.nextIndex(), "Wrong index for " + target);
+            assertEquals(values[expected], cursor.next());
+        }
+
+        // advanceTo only ever moves forwards.
+        var cursor = list.cursor();
+        assertTrue(cursor.advanceTo(values[600]));
+        int index = cursor.nextIndex();
+        assertTrue(cursor.advanceTo(values[10]));
+        assertEquals(index, cursor.nextIndex());
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.samjakob.protocol_experiments.data;
+
+import com.samjakob.protocol_experiments.utils.ByteSource;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Feeds random (mostly invalid or truncated) input to the tryRead, validate
+ * and throwing readers, and checks that they all agree with the original
+ * byte-at-a-time reader.
+ */
+public class VarLengthNumbersFuzzTests {
+
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void tryReadVarIntMatchesReference() {
+        Random random = new Random(0x5EED);
+        long[] outcomes = new long[3];
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            byte[] input = randomInput(random);
+            long expected = referenceVarInt(input);
+            outcomes[expected < 0 ? (int) -expected : 0]++;
+
+            // byte[] tryRead and validate.
+            long result = tryReadVarInt(input, 0, input.length);
+            assertEquals(expected, result, () -> "tryReadVarInt(byte[]) disagrees on " + hex(input));
+            assertEquals(expected < 0 ? (int) expected : tryReadLength(expected), validateVarInt(input, 0, input.length));
+
+            // ByteBuffer tryRead, which must only advance on success.
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            assertEquals(expected, tryReadVarInt(buffer), () -> "tryReadVarInt(ByteBuffer) disagrees on " + hex(input));
+            assertEquals(expected < 0 ? 0 : tryReadLength(expected), buffer.position());
+
+            // The throwing readers.
+            if (expected == MALFORMED) {
+                assertThrows(VarIntFormatException.class, () -> readVarInt(input, 0));
+                assertThrows(VarIntFormatException.class, () -> readVarInt(ByteBuffer.wrap(input)));
+            } else if (expected >= 0) {
+                assertEquals(tryReadValue(expected), readVarInt(input, 0));
+                assertEquals(tryReadValue(expected), readVarInt(ByteBuffer.wrap(input)));
+            }
+        }
+
+        // Make sure the input actually exercised every outcome.
+        assertTrue(outcomes[0] > 0 && outcomes[(int) -TRUNCATED] > 0 && outcomes[(int) -MALFORMED] > 0);
+    }
+
+    @Test
+    void tryReadVarLongMatchesReference() {
+        Random random = new Random(0xBEEF);
+        long[] value = new long[1];
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            byte[] input = randomInput(random);
+            long[] expected = new long[1];
+            int expectedLength = referenceVarLong(input, expected);
+
+            value[0] = 0;
+            assertEquals(expectedLength, tryReadVarLong(input, 0, input.length, value), () -> "tryReadVarLong(byte[]) disagrees on " + hex(input));
+            if (expectedLength > 0) assertEquals(expected[0], value[0]);
+            assertEquals(expectedLength, validateVarLong(input, 0, input.length));
+
+            value[0] = 0;
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            assertEquals(expectedLength, tryReadVarLong(buffer, value), () -> "tryReadVarLong(ByteBuffer) disagrees on " + hex(input));
+            assertEquals(Math.max(expectedLength, 0), buffer.position());
+            if (expectedLength > 0) assertEquals(expected[0], value[0]);
+
+            if (expectedLength == MALFORMED) {
+                assertThrows(VarIntFormatException.class, () -> readVarLong(input, 0));
+                assertThrows(VarIntFormatException.class, () -> readVarLong(ByteBuffer.wrap(input)));
+            } else if (expectedLength > 0) {
+                assertEquals(expected[0], readVarLong(input, 0));
+                assertEquals(expected[0], readVarLong(ByteBuffer.wrap(input)));
+            }
+        }
+    }
+
+    @Test
+    void tryReadRespectsOffsetAndLimit() {
+        byte[] input = { (byte) 0xFF, (byte) 0x80, (byte) 0x80, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+
+        // The VarInt starting at 1 is 3 bytes long, so a limit of 3 cuts it off
+        // even though the array carries on.
+        assertEquals(TRUNCATED, tryReadVarInt(input, 1, 3));
+        assertEquals(TRUNCATED, validateVarInt(input, 1, 3));
+        assertEquals(3, validateVarInt(input, 1, 4));
+        assertEquals(1 << 14, tryReadValue(tryReadVarInt(input, 1, input.length)));
+
+        ByteBuffer buffer = ByteBuffer.wrap(input, 1, 2);
+        assertEquals(TRUNCATED, tryReadVarInt(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    void formatExceptionIsStackless() {
+        byte[] input = { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 };
+
+        VarIntFormatException intException = assertThrows(VarIntFormatException.class, () -> readVarInt(input, 0));
+        VarIntFormatException longException = assertThrows(VarIntFormatException.class, () -> readVarLong(input, 0));
+
+        assertEquals(0, intException.getStackTrace().length);
+        assertEquals(0, longException.getStackTrace().length);
+
+        // The same instance is thrown every time, so nothing is allocated.
+        assertSame(intException, assertThrows(VarIntFormatException.class, () -> readVarInt(ByteBuffer.wrap(input))));
+    }
+
+    /**
+     * Generates 0 to 16 bytes, heavily biased towards continuation bytes so
+     * that long (and over-long) VarInts are common.
+     */
+    private static byte[] randomInput(Random random) {
+        byte[] input = new byte[random.nextInt(17)];
+        for (int i = 0; i < input.length; i++) {
+            int b = random.nextInt(256);
+            if (random.nextInt(4) != 0) b |= 0x80;
+            input[i] = (byte) b;
+        }
+        return input;
+    }
+
+    /**
+     * Decodes input with the original reader, mapping running out of bytes to
+     * TRUNCATED and an exception to MALFORMED.
+     */
+    private static long referenceVarInt(byte[] input) {
+        ByteSource source = new ByteSource(input);
+        try {
+            int value = readVarInt(source);
+            return ((long) (input.length - source.available()) << 32) | (value & 0xFFFF_FFFFL);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return TRUNCATED;
+        } catch (VarIntFormatException ex) {
+            return MALFORMED;
+        }
+    }
+
+    private static int referenceVarLong(byte[] input, long[] value) {
+        ByteSource source = new ByteSource(input);
+        try {
+            value[0] = readVarLong(source);
+            return input.length - source.available();
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return TRUNCATED;
+        } catch (VarIntFormatException ex) {
+            return MALFORMED;
+        }
+    }
+
+    private static String hex(byte[] input) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : input) builder.append(String.format("%02x ", b));
+        return builder.toString().trim();
+    }
+
+}
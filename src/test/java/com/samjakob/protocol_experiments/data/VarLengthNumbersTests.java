@@ -5,6 +5,12 @@ import com.samjakob.protocol_experiments.utils.ByteSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -244,4 +250,316 @@ public class VarLengthNumbersTests {
         );
     }
 
+    @Test
+    void bufferOverloadsMatchWriterInterface() {
+        int[] intValues = {
+            0, 1, 127, 128, 255, 6969, 2097151, Integer.MAX_VALUE,
+            -1, -128, Integer.MIN_VALUE
+        };
+        long[] longValues = {
+            0, 1, 127, 128, 2097151, Integer.MAX_VALUE, Long.MAX_VALUE,
+            -1, -128, Integer.MIN_VALUE, Long.MIN_VALUE
+        };
+
+        for (int value : intValues) writeVarInt(sink::writeByte, value);
+        for (long value : longValues) writeVarLong(sink::writeByte, value);
+        byte[] expected = sink.getBytes();
+
+        // Writing into a byte[] should produce exactly the same bytes, and
+        // return the position after the last byte.
+        byte[] array = new byte[expected.length];
+        int position = 0;
+        for (int value : intValues) position = writeVarInt(array, position, value);
+        for (long value : longValues) position = writeVarLong(array, position, value);
+        assertEquals(expected.length, position, "Returned position should be the end of the written data");
+        assertArrayEquals(expected, array, "byte[] encoding should match the WriterInterface encoding");
+
+        // ...and reading it back with the byte[] overloads (using skipVarInt
+        // to advance) should yield the original values.
+        position = 0;
+        for (int value : intValues) {
+            assertEquals(value, readVarInt(array, position));
+            position = skipVarInt(array, position);
+        }
+        for (long value : longValues) {
+            assertEquals(value, readVarLong(array, position));
+            position = skipVarLong(array, position);
+        }
+        assertEquals(expected.length, position, "There should be no bytes left over.");
+
+        // Both heap and direct buffers should behave identically.
+        for (ByteBuffer buffer : new ByteBuffer[] {
+            ByteBuffer.allocate(expected.length), ByteBuffer.allocateDirect(expected.length)
+        }) {
+            for (int value : intValues) writeVarInt(buffer, value);
+            for (long value : longValues) writeVarLong(buffer, value);
+            assertFalse(buffer.hasRemaining(), "Buffer should have been filled exactly");
+
+            buffer.flip();
+            byte[] written = new byte[expected.length];
+            buffer.duplicate().get(written);
+            assertArrayEquals(expected, written, "ByteBuffer encoding should match the WriterInterface encoding");
+
+            for (int value : intValues) assertEquals(value, readVarInt(buffer));
+            for (long value : longValues) assertEquals(value, readVarLong(buffer));
+            assertFalse(buffer.hasRemaining(), "There should be no bytes left over.");
+        }
+    }
+
+    @Test
+    void bufferWriteDoesNotMovePositionWhenFull() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        assertThrows(IndexOutOfBoundsException.class, () -> writeVarInt(buffer, Integer.MAX_VALUE));
+        assertEquals(0, buffer.position(), "Position should be unchanged after a failed write");
+    }
+
+    @Test
+    void sourceAndSinkCanBeUsedAsInterfaces() {
+        // ByteSink and ByteSource implement WriterInterface and
+        // ReaderInterface directly, as well as via method references.
+        writeVarInt(sink, 6969);
+        sink.writeBytes(new byte[] { 1, 2, 3 });
+
+        var source = new ByteSource(sink.getBytes());
+        assertEquals(6969, readVarInt(source));
+        assertEquals(3, source.remaining());
+
+        byte[] rest = new byte[3];
+        source.readBytes(rest);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, rest);
+        assertEquals(0, source.remaining(), "There should be no bytes left over.");
+    }
+
+    @Test
+    void wordDecoderMatchesByteLoop() {
+        // Values of every encoded length (and a few random ones) are each
+        // decoded twice - once with plenty of trailing bytes so the 8-byte
+        // word loads are used, and once from an exactly sized array so the
+        // byte-by-byte loop near the end of the data is used.
+        Random random = new Random(6969);
+        long[] values = new long[256];
+        for (int i = 0; i < 64; i++) values[i] = 1L << i;
+        for (int i = 64; i < 128; i++) values[i] = (1L << (i - 64)) - 1;
+        for (int i = 128; i < values.length; i++) values[i] = random.nextLong() >> random.nextInt(64);
+
+        for (long value : values) {
+            writeVarLong(sink::writeByte, value);
+            byte[] exact = sink.getBytes();
+            byte[] padded = Arrays.copyOf(exact, exact.length + 16);
+            // Fill the padding with continuation bytes to make sure they
+            // aren't mistaken for part of the value.
+            Arrays.fill(padded, exact.length, padded.length, (byte) 0xFF);
+
+            assertEquals(value, readVarLong(exact, 0));
+            assertEquals(value, readVarLong(padded, 0));
+
+            ByteBuffer buffer = ByteBuffer.wrap(padded).order(ByteOrder.BIG_ENDIAN);
+            assertEquals(value, readVarLong(buffer));
+            assertEquals(exact.length, buffer.position(), "Position should be advanced past the VarLong only");
+
+            int intValue = (int) value;
+            writeVarInt(sink::writeByte, intValue);
+            exact = sink.getBytes();
+            padded = Arrays.copyOf(exact, exact.length + 8);
+            Arrays.fill(padded, exact.length, padded.length, (byte) 0xFF);
+
+            assertEquals(intValue, readVarInt(exact, 0));
+            assertEquals(intValue, readVarInt(padded, 0));
+
+            buffer = ByteBuffer.allocateDirect(padded.length).put(padded).flip();
+            assertEquals(intValue, readVarInt(buffer));
+            assertEquals(exact.length, buffer.position(), "Position should be advanced past the VarInt only");
+        }
+    }
+
+    @Test
+    void wordDecoderRefusesInvalidValues() {
+        // A VarInt whose fifth byte has any of its top 4 bits set, or whose
+        // fifth byte has the continuation bit set, is invalid.
+        byte[][] invalidVarInts = {
+            { -1, -1, -1, -1, 0b0001_0000 },
+            { -1, -1, -1, -1, 0b0100_0000 },
+            { -1, -1, -1, -1, -1, 0 },
+        };
+        // Likewise for a VarLong whose tenth byte has anything other than
+        // the lowest bit set.
+        byte[][] invalidVarLongs = {
+            { -1, -1, -1, -1, -1, -1, -1, -1, -1, 0b0000_0010 },
+            { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0 },
+        };
+
+        for (byte[] invalid : invalidVarInts) {
+            byte[] padded = Arrays.copyOf(invalid, 16);
+            assertThrows(RuntimeException.class, () -> readVarInt(invalid, 0));
+            assertThrows(RuntimeException.class, () -> readVarInt(padded, 0));
+            assertThrows(RuntimeException.class, () -> readVarInt(ByteBuffer.wrap(padded)));
+        }
+
+        for (byte[] invalid : invalidVarLongs) {
+            byte[] padded = Arrays.copyOf(invalid, 24);
+            assertThrows(RuntimeException.class, () -> readVarLong(invalid, 0));
+            assertThrows(RuntimeException.class, () -> readVarLong(padded, 0));
+            assertThrows(RuntimeException.class, () -> readVarLong(ByteBuffer.wrap(padded)));
+        }
+
+        // The largest permitted last bytes should still be accepted.
+        byte[] maxVarInt = Arrays.copyOf(new byte[] { -1, -1, -1, -1, 0b0000_1111 }, 16);
+        assertEquals(-1, readVarInt(maxVarInt, 0));
+        byte[] maxVarLong = Arrays.copyOf(new byte[] { -1, -1, -1, -1, -1, -1, -1, -1, -1, 0b0000_0001 }, 24);
+        assertEquals(-1L, readVarLong(maxVarLong, 0));
+    }
+
+    @Test
+    void bulkCodecMatchesSingleValueCodec() {
+        // Mix long runs of single byte values (to exercise the packed path)
+        // with values of every other length.
+        Random random = new Random(420);
+        int[] values = new int[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i / 64) % 2 == 0
+                ? random.nextInt(128)
+                : random.nextInt() >> random.nextInt(32);
+        }
+
+        for (int value : values) writeVarInt(sink::writeByte, value);
+        byte[] expected = sink.getBytes();
+
+        byte[] encoded = new byte[expected.length];
+        assertEquals(expected.length, encodeVarInts(values, encoded, 0, values.length));
+        assertArrayEquals(expected, encoded, "Bulk encoding should match writeVarInt byte-for-byte");
+
+        int[] decoded = new int[values.length];
+        assertEquals(expected.length, decodeVarInts(encoded, 0, decoded, values.length));
+        assertArrayEquals(values, decoded, "Bulk decoding should match the values written");
+
+        // Decoding only some of the values should stop at the right place.
+        int[] partial = new int[3];
+        int end = decodeVarInts(encoded, 0, partial, 3);
+        assertArrayEquals(Arrays.copyOf(values, 3), partial);
+        assertEquals(values[3], readVarInt(encoded, end));
+
+        // Invalid input should still be refused.
+        byte[] invalid = { 1, 2, 3, -1, -1, -1, -1, -1, 0, 0, 0, 0, 0, 0, 0, 0 };
+        assertThrows(RuntimeException.class, () -> decodeVarInts(invalid, 0, new int[4], 4));
+    }
+
+    @Test
+    void canWriteAndReadSignedVarNumbers() {
+        int[] intValues = {
+            0, 1, -1, 63, -64, 64, -65, 6969, -6969,
+            Integer.MAX_VALUE, Integer.MIN_VALUE
+        };
+        long[] longValues = {
+            0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Long.MAX_VALUE, Long.MIN_VALUE
+        };
+
+        // Small negative numbers should now only use 1 byte.
+        writeSVarInt(sink::writeByte, -1);
+        assertEquals(1, sink.available(), "-1 should only use 1 byte as an SVarInt");
+        sink.clear();
+        writeSVarLong(sink::writeByte, -64);
+        assertEquals(1, sink.available(), "-64 should only use 1 byte as an SVarLong");
+        sink.clear();
+
+        for (int value : intValues) writeSVarInt(sink::writeByte, value);
+        for (long value : longValues) writeSVarLong(sink::writeByte, value);
+
+        byte[] bytes = sink.getBytes();
+        var source = new ByteSource(bytes);
+        for (int value : intValues) assertEquals(value, readSVarInt(source::getNextByte));
+        for (long value : longValues) assertEquals(value, readSVarLong(source::getNextByte));
+        assertEquals(0, source.available(), "There should be no bytes left over.");
+
+        var buffer = ByteBuffer.wrap(bytes);
+        for (int value : intValues) assertEquals(value, readSVarInt(buffer));
+        for (long value : longValues) assertEquals(value, readSVarLong(buffer));
+        assertFalse(buffer.hasRemaining(), "There should be no bytes left over.");
+    }
+
+    @Test
+    void sizeFunctionsMatchEncodedLength() {
+        Random random = new Random(8008);
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong() >> random.nextInt(64);
+
+            writeVarInt(sink, (int) value);
+            assertEquals(sink.available(), varIntSize((int) value), "varIntSize is wrong for " + (int) value);
+            sink.clear();
+
+            writeVarLong(sink, value);
+            assertEquals(sink.available(), varLongSize(value), "varLongSize is wrong for " + value);
+            sink.clear();
+
+            writeSVarInt(sink, (int) value);
+            assertEquals(sink.available(), sVarIntSize((int) value), "sVarIntSize is wrong for " + (int) value);
+            sink.clear();
+
+            writeSVarLong(sink, value);
+            assertEquals(sink.available(), sVarLongSize(value), "sVarLongSize is wrong for " + value);
+            sink.clear();
+        }
+
+        assertEquals(1, varIntSize(0));
+        assertEquals(5, varIntSize(-1));
+        assertEquals(10, varLongSize(-1));
+        assertEquals(1, sVarIntSize(-1));
+        assertEquals(1, sVarLongSize(-1));
+    }
+
+    @Test
+    void parallelDecodeMatchesBulkDecode() {
+        Random random = new Random(1414);
+        int[] values = new int[1_000_000];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextInt() >> random.nextInt(32);
+
+        byte[] encoded = new byte[values.length * 5 + 3];
+        int end = encodeVarInts(values, encoded, 3, values.length);
+
+        var pool = new ForkJoinPool(4);
+        try {
+            assertArrayEquals(values, decodeVarIntsParallel(pool, encoded, 3, end - 3));
+
+            // Small inputs are decoded on the calling thread.
+            assertArrayEquals(Arrays.copyOf(values, 1000), decodeVarIntsParallel(pool, encoded, 3, varIntsSize(values, 0, 1000)));
+            assertEquals(0, decodeVarIntsParallel(pool, encoded, 3, 0).length);
+
+            // Cutting the last value off is an error, rather than silently
+            // dropping it.
+            assertThrows(VarIntFormatException.class, () -> decodeVarIntsParallel(pool, encoded, 3, end - 4));
+
+            // As is a run of continuation bits that's too long to be a VarInt.
+            byte[] invalid = Arrays.copyOf(encoded, end);
+            Arrays.fill(invalid, invalid.length / 2, invalid.length / 2 + 16, (byte) 0xFF);
+            assertThrows(VarIntFormatException.class, () -> decodeVarIntsParallel(pool, invalid, 3, invalid.length - 3));
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(values.length, countVarInts(encoded, 3, end));
+    }
+
+    @Test
+    void skipVarIntsMatchesSkipVarInt() {
+        Random random = new Random(1717);
+        int[] values = new int[200];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextInt() >> random.nextInt(32);
+
+        byte[] encoded = new byte[values.length * 5];
+        int end = encodeVarInts(values, encoded, 0, values.length);
+
+        for (int start = 0; start < 20; start++) {
+            int startOffset = 0;
+            for (int i = 0; i < start; i++) startOffset = skipVarInt(encoded, startOffset);
+
+            int expected = startOffset;
+            for (int count = 0; start + count <= values.length; count++) {
+                assertEquals(expected, skipVarInts(encoded, startOffset, count), "Wrong end skipping " + count + " from " + start);
+                if (start + count < values.length) expected = skipVarInt(encoded, expected);
+            }
+        }
+
+        assertEquals(end, skipVarInts(encoded, 0, values.length));
+    }
+
 }
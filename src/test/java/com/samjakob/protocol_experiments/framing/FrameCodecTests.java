@@ -0,0 +1,130 @@
+package com.samjakob.protocol_experiments.framing;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameCodecTests {
+
+    /**
+     * Writes frames with bodies of 0, 1, 127, 128 and 20000 bytes (so that
+     * the prefix needs 1, 2 and 3 bytes) and reads them back.
+     */
+    private void roundTripFrames(FrameWriter writer, ByteSink sink) {
+        int[] bodyLengths = { 0, 1, 127, 128, 20000 };
+
+        for (int bodyLength : bodyLengths) {
+            writer.beginFrame();
+            for (int i = 0; i < bodyLength; i++) sink.writeByte((byte) i);
+            writer.endFrame();
+        }
+
+        var reader = new FrameReader();
+        var source = ByteBuffer.wrap(sink.getBytes());
+        for (int bodyLength : bodyLengths) {
+            ByteBuffer body = reader.nextFrame(source);
+            assertNotNull(body, "Frame of " + bodyLength + " bytes should be complete");
+            assertEquals(bodyLength, body.remaining());
+            for (int i = 0; i < bodyLength; i++) assertEquals((byte) i, body.get(i));
+        }
+
+        assertFalse(source.hasRemaining(), "There should be no bytes left over.");
+        assertNull(reader.nextFrame(source));
+    }
+
+    @Test
+    void minimalPrefixesMatchSeparatelyEncodedFrames() {
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink);
+
+        writer.beginFrame();
+        writeVarInt(sink, 300);
+        writeVarLong(sink, -1);
+        assertEquals(1 + 2 + 10, writer.endFrame(), "Frame should be the body plus a 1 byte prefix");
+
+        // This should be exactly the same as encoding the body separately and
+        // writing its length first.
+        var body = new ByteSink();
+        writeVarInt(body, 300);
+        writeVarLong(body, -1);
+        var expected = new ByteSink();
+        writeVarInt(expected, body.available());
+        expected.writeBytes(body.getBytes());
+
+        assertArrayEquals(expected.getBytes(), sink.getBytes());
+
+        roundTripFrames(writer, sink);
+    }
+
+    @Test
+    void paddedPrefixesAreReadable() {
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink, 3, true);
+
+        writer.beginFrame();
+        sink.writeByte((byte) 42);
+        assertEquals(4, writer.endFrame(), "Padded prefix should always use 3 bytes");
+        assertEquals(1, readVarInt(ByteBuffer.wrap(sink.toByteArray())));
+
+        sink.clear();
+        roundTripFrames(writer, sink);
+
+        // A 3 byte prefix can't hold a length of 2^21.
+        writer.beginFrame();
+        sink.reserve(1 << 21);
+        assertThrows(IllegalStateException.class, writer::endFrame);
+    }
+
+    @Test
+    void framesThatDoNotFitAreDropped() {
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink, 1, false);
+
+        writer.beginFrame();
+        sink.writeByte((byte) 1);
+        writer.endFrame();
+        byte[] first = sink.toByteArray();
+
+        // 128 bytes needs a 2 byte prefix.
+        writer.beginFrame();
+        sink.writeBytes(new byte[128]);
+        assertThrows(IllegalStateException.class, writer::endFrame);
+        assertArrayEquals(first, sink.toByteArray(), "The frame that didn't fit should have been removed");
+
+        // The writer carries on with the next frame.
+        writer.beginFrame();
+        sink.writeBytes(new byte[127]);
+        assertEquals(128, writer.endFrame());
+        assertEquals(first.length + 128, sink.available());
+    }
+
+    @Test
+    void incompleteFramesAreLeftInBuffer() {
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink);
+        writer.beginFrame();
+        sink.writeBytes(new byte[200]);
+        writer.endFrame();
+        byte[] frame = sink.getBytes();
+
+        var reader = new FrameReader();
+
+        // Part of the prefix only.
+        var partial = ByteBuffer.wrap(frame, 0, 1);
+        assertNull(reader.nextFrame(partial));
+        assertEquals(0, partial.position());
+
+        // The prefix and part of the body.
+        partial = ByteBuffer.wrap(frame, 0, 100);
+        assertNull(reader.nextFrame(partial));
+        assertEquals(0, partial.position());
+
+        // Frames longer than the maximum should be refused.
+        assertThrows(RuntimeException.class, () -> new FrameReader(100).nextFrame(ByteBuffer.wrap(frame)));
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.samjakob.protocol_experiments.framing;
+
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSinkPool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameCompressorTests {
+
+    /**
+     * A body of length bytes of (compressible) repeated text.
+     */
+    private static ByteBuffer body(int length) {
+        var body = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) body.put(i, (byte) ("abcdefgh".charAt(i % 8) + (i / 64) % 4));
+        return body;
+    }
+
+    private static void assertRoundTrips(FrameCompressor compressor, ByteBuffer body, ByteBuffer compressed) {
+        assertEquals(body.limit(), compressor.uncompressedLength(compressed));
+
+        var decompressed = ByteBuffer.allocateDirect(body.limit() + 16);
+        assertEquals(body.limit(), compressor.decompress(compressed, decompressed));
+        assertFalse(compressed.hasRemaining(), "The whole body should have been read");
+
+        decompressed.flip();
+        assertEquals(body.rewind(), decompressed);
+    }
+
+    @Test
+    void framesBelowTheThresholdArePassedThrough() {
+        var compressor = new FrameCompressor(64, Deflater.DEFAULT_COMPRESSION, 1 << 20);
+
+        var compressed = ByteBuffer.allocate(128);
+        assertEquals(1 + 63, compressor.compress(body(63), compressed));
+        compressed.flip();
+
+        assertEquals(0, compressed.get(0), "Data length should be 0 for an uncompressed frame");
+        assertEquals(body(63), compressed.duplicate().position(1));
+        assertRoundTrips(compressor, body(63), compressed);
+    }
+
+    @Test
+    void framesAtTheThresholdAreCompressed() {
+        var compressor = new FrameCompressor(64, Deflater.DEFAULT_COMPRESSION, 1 << 20);
+
+        for (int length : new int[] { 64, 300, 20000 }) {
+            var compressed = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(length));
+            int written = compressor.compress(body(length), compressed);
+            compressed.flip();
+
+            assertEquals(length, readVarInt(compressed.duplicate()), "Data length should be the uncompressed length");
+            if (length > 64) assertTrue(written < length, "Repeated text should compress");
+            assertRoundTrips(compressor, body(length), compressed);
+        }
+    }
+
+    @Test
+    void incompressibleFramesFitInTheBound() {
+        var compressor = new FrameCompressor();
+
+        var random = new Random(22);
+        for (int length : new int[] { 256, 4096, 100_000 }) {
+            var body = ByteBuffer.allocate(length);
+            random.nextBytes(body.array());
+
+            var compressed = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(length));
+            compressor.compress(body, compressed);
+            compressed.flip();
+            assertRoundTrips(compressor, body, compressed);
+        }
+    }
+
+    @Test
+    void sinksMatchBuffers() {
+        var compressor = new FrameCompressor(32, 6, 1 << 20);
+        var pool = new ByteSinkPool(true);
+
+        for (int length : new int[] { 0, 31, 32, 5000 }) {
+            var expected = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(length));
+            compressor.compress(body(length), expected);
+            expected.flip();
+
+            // Existing contents of the sink should be left alone.
+            var sink = new ByteSink(4);
+            sink.writeByte((byte) 42);
+            assertEquals(expected.remaining(), compressor.compress(body(length), sink));
+            assertEquals(ByteBuffer.wrap(sink.toByteArray(), 1, sink.available() - 1), expected);
+
+            try (var pooled = pool.acquire(4)) {
+                pooled.writeByte((byte) 42);
+                assertEquals(expected.remaining(), compressor.compress(body(length), pooled));
+                assertEquals(pooled.asByteBuffer().position(1), expected);
+            }
+        }
+    }
+
+    @Test
+    void compressedFramesCanBeFramed() {
+        var compressor = new FrameCompressor(16, Deflater.BEST_SPEED, 1 << 20);
+
+        var sink = new ByteSink();
+        var writer = new FrameWriter(sink);
+        for (int length : new int[] { 10, 1000 }) {
+            compressor.compress(body(length), writer.beginFrame());
+            writer.endFrame();
+        }
+
+        var reader = new FrameReader();
+        var source = ByteBuffer.wrap(sink.getBytes());
+        for (int length : new int[] { 10, 1000 }) {
+            assertRoundTrips(compressor, body(length), reader.nextFrame(source));
+        }
+    }
+
+    @Test
+    void destinationThatIsTooSmallIsLeftAlone() {
+        var compressor = new FrameCompressor();
+
+        var random = new Random(7);
+        var body = ByteBuffer.allocate(1000);
+        random.nextBytes(body.array());
+
+        var compressed = ByteBuffer.allocate(500);
+        assertThrows(BufferOverflowException.class, () -> compressor.compress(body, compressed));
+        assertEquals(0, body.position());
+        assertEquals(0, compressed.position());
+
+        // Too small for even the data length.
+        var tiny = ByteBuffer.allocate(1);
+        assertThrows(BufferOverflowException.class, () -> compressor.compress(body, tiny));
+        assertEquals(0, body.position());
+        assertEquals(0, tiny.position());
+    }
+
+    @Test
+    void compressorsShareTheThreadsDeflater() {
+        // Each compressor's level is applied to the shared Deflater per
+        // frame, so alternating between them gives the same output as using
+        // each on its own.
+        var stored = new FrameCompressor(16, Deflater.NO_COMPRESSION, 1 << 20);
+        var best = new FrameCompressor(16, Deflater.BEST_COMPRESSION, 1 << 20);
+
+        var storedFirst = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(5000));
+        int storedLength = stored.compress(body(5000), storedFirst);
+        var bestFirst = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(5000));
+        int bestLength = best.compress(body(5000), bestFirst);
+        assertTrue(bestLength < storedLength / 10, "Level 9 should compress far better than level 0");
+
+        var storedAgain = ByteBuffer.allocate(FrameCompressor.maxCompressedSize(5000));
+        assertEquals(storedLength, stored.compress(body(5000), storedAgain));
+        assertEquals(storedFirst.flip(), storedAgain.flip());
+        assertRoundTrips(best, body(5000), bestFirst.flip());
+    }
+
+    @Test
+    void invalidFramesAreRejected() {
+        var compressor = new FrameCompressor(64, Deflater.DEFAULT_COMPRESSION, 4096);
+
+        // A frame that claims more than maxLength.
+        var bomb = ByteBuffer.allocate(1 << 16);
+        var large = new FrameCompressor(64, Deflater.DEFAULT_COMPRESSION, 1 << 20);
+        large.compress(body(1 << 15), bomb);
+        bomb.flip();
+        assertThrows(RuntimeException.class, () -> compressor.decompress(bomb, ByteBuffer.allocate(1 << 16)));
+        assertEquals(0, bomb.position());
+
+        // An uncompressed frame at or above the threshold.
+        var uncompressed = ByteBuffer.allocate(1 + 64);
+        uncompressed.put((byte) 0).put(body(64)).flip();
+        assertThrows(RuntimeException.class, () -> compressor.decompress(uncompressed, ByteBuffer.allocate(128)));
+
+        // A compressed frame whose data length is below the threshold.
+        var small = ByteBuffer.allocate(128);
+        writeVarInt(small, 10);
+        small.flip();
+        assertThrows(RuntimeException.class, () -> compressor.decompress(small, ByteBuffer.allocate(128)));
+
+        // A compressed frame that inflates to more than it claims.
+        var honest = ByteBuffer.allocate(4096);
+        compressor.compress(body(1000), honest);
+        honest.flip();
+        readVarInt(honest);
+        var lying = ByteBuffer.allocate(4096);
+        writeVarInt(lying, 100);
+        lying.put(honest).flip();
+        assertEquals(100, compressor.uncompressedLength(lying));
+        var destination = ByteBuffer.allocate(4096);
+        assertThrows(RuntimeException.class, () -> compressor.decompress(lying, destination));
+        assertTrue(destination.position() <= 100, "Nothing should be written past the claimed length");
+
+        // A compressed frame that has been cut short.
+        var truncated = ByteBuffer.allocate(4096);
+        compressor.compress(body(1000), truncated);
+        truncated.flip().limit(truncated.limit() - 5);
+        assertThrows(RuntimeException.class, () -> compressor.decompress(truncated, ByteBuffer.allocate(4096)));
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTests {
+
+    @Test
+    void bucketsCoverEveryValueInOrder() {
+        // Each bucket's highest value should be just below the next bucket's
+        // lowest, from 0 all the way up to Long.MAX_VALUE.
+        long previous = -1;
+        for (int bucket = 0; previous != Long.MAX_VALUE; bucket++) {
+            long highest = LatencyHistogram.highestValueIn(bucket);
+            assertTrue(highest > previous, "Bucket " + bucket + " should hold larger values than the last");
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            previous = highest;
+        }
+    }
+
+    @Test
+    void bucketsAreNarrow() {
+        var random = new Random(23);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long highest = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 128, "Bucket of " + value + " should be under 1/128th of it wide");
+        }
+    }
+
+    @Test
+    void percentilesAreWithinABucket() {
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) histogram.record(value * 1000);
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000, histogram.max());
+        assertEquals(50_000_500.0, histogram.mean(), 1e-6);
+
+        assertEquals(1000, histogram.valueAtPercentile(0), 1000 / 128.0);
+        assertEquals(50_000_000, histogram.valueAtPercentile(50), 50_000_000 / 128.0);
+        assertEquals(99_000_000, histogram.valueAtPercentile(99), 99_000_000 / 128.0);
+        assertEquals(99_900_000, histogram.valueAtPercentile(99.9), 99_900_000 / 128.0);
+        assertEquals(100_000_000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    void histogramsCanBeAddedAndReset() {
+        var first = new LatencyHistogram();
+        var second = new LatencyHistogram();
+        first.record(10);
+        first.record(-5);
+        second.record(1_000_000);
+
+        first.add(second);
+        assertEquals(3, first.count());
+        assertEquals(1_000_000, first.max());
+        assertEquals(0, first.valueAtPercentile(1));
+        assertEquals(10, first.valueAtPercentile(60));
+
+        first.reset();
+        assertEquals(0, first.count());
+        assertEquals(0, first.valueAtPercentile(99));
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.samjakob.protocol_experiments.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTests {
+
+    /**
+     * Runs a short load test with each buffer strategy, and checks that
+     * replies came back (and were all correct).
+     */
+    @Test
+    void everyBufferStrategyRoundTrips() throws Exception {
+        for (BufferStrategy buffers : BufferStrategy.values()) {
+            var options = LoadGenerator.Options.parse(
+                "connections=8", "seconds=0.3", "warmup=0.1", "mix=60:0,30:16,10:2000",
+                "buffers=" + buffers.name().toLowerCase()
+            );
+
+            LoadGenerator.Result result = new LoadGenerator(options).run(null);
+            assertTrue(result.messages > 0, buffers + " should have measured some messages");
+            assertEquals(0, result.errors, buffers + " should have no errors");
+            assertTrue(result.latencies.valueAtPercentile(50) > 0);
+        }
+    }
+
+    @Test
+    void rateLimitsTheRequests() throws Exception {
+        var options = LoadGenerator.Options.parse(
+            "connections=4", "seconds=0.5", "warmup=0", "rate=200", "threads=platform"
+        );
+
+        LoadGenerator.Result result = new LoadGenerator(options).run(null);
+        assertEquals(0, result.errors);
+        assertTrue(result.messages > 20 && result.messages <= 110, "Expected about 100 messages, not " + result.messages);
+    }
+
+    @Test
+    void slowRateStopsOnTime() throws Exception {
+        // Each connection sends once every 8 seconds, so a client waiting
+        // for its next request must not hold up the end of the run.
+        var options = LoadGenerator.Options.parse(
+            "connections=4", "seconds=0.5", "warmup=0", "rate=0.5", "threads=platform"
+        );
+
+        long start = System.nanoTime();
+        LoadGenerator.Result result = new LoadGenerator(options).run(null);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(0, result.errors);
+        assertTrue(elapsed < 3_000_000_000L, "The run should end soon after 0.5 s, not after " + elapsed / 1_000_000 + " ms");
+    }
+
+    @Test
+    void invalidOptionsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("connections"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("unknown=1"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("threads=green"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse("connections=0"));
+        assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(LoadGenerator.Options.parse("mix=1:2:3")));
+        assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(LoadGenerator.Options.parse("mix=0:5")));
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.samjakob.protocol_experiments.metrics;
+
+import com.samjakob.protocol_experiments.data.VarIntFormatException;
+import com.samjakob.protocol_experiments.framing.FrameReader;
+import com.samjakob.protocol_experiments.utils.ByteSink;
+import com.samjakob.protocol_experiments.utils.ByteSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks what the hooks in the codecs record. These only run in the
+ * metricsTest task, which starts the JVM with metrics enabled - in the
+ * ordinary test run the hooks are compiled out and nothing is recorded.
+ */
+@Tag("metrics")
+public class CodecMetricsEnabledTests {
+
+    private CodecMetrics.Snapshot before;
+
+    @BeforeEach
+    void enabled() {
+        assertTrue(CodecMetrics.ENABLED, "Run with -Dprotocol_experiments.metrics=true (./gradlew metricsTest)");
+        this.before = CodecMetrics.snapshot();
+    }
+
+    private CodecMetrics.Snapshot delta() {
+        return CodecMetrics.snapshot().since(this.before);
+    }
+
+    @Test
+    void singleValuesAreCounted() {
+        // Through a sink, a byte[] and a ByteBuffer: lengths 1, 2, 10, 5, 2.
+        var sink = new ByteSink();
+        writeVarInt(sink, 1);
+        writeVarInt(sink, 300);
+        writeVarLong(sink, -1L);
+
+        byte[] array = new byte[16];
+        writeVarInt(array, 0, -1);
+        var buffer = ByteBuffer.allocate(16);
+        writeVarInt(buffer, 128);
+
+        var source = new ByteSource(sink.getBytes());
+        assertEquals(1, readVarInt(source));
+        assertEquals(300, readVarInt(source));
+        assertEquals(-1L, readVarLong(source));
+        assertEquals(-1, readVarInt(array, 0));
+        assertEquals(128, readVarInt(buffer.flip()));
+
+        var delta = delta();
+        assertArrayEquals(new long[] { 0, 1, 2, 0, 0, 1 }, delta.varIntsWritten());
+        assertArrayEquals(new long[] { 0, 1, 2, 0, 0, 1 }, delta.varIntsRead());
+        assertEquals(1, delta.varLongsWritten()[10]);
+        assertEquals(1, delta.varLongsRead()[10]);
+        assertEquals(5, delta.valuesWritten());
+        assertEquals(5, delta.valuesRead());
+
+        // Only the sink and source count bytes, one at a time for VarInts.
+        assertEquals(1 + 2 + 10, delta.bytesWritten());
+        assertEquals(1 + 2 + 10, delta.bytesRead());
+        assertEquals(0, delta.invalidInputs());
+    }
+
+    @Test
+    void bulkValuesAreCounted() {
+        // 8 single byte values for the fast path, then 300, 1, 2 and -1.
+        int[] values = { 0, 1, 2, 3, 4, 5, 6, 7, 300, 1, 2, -1 };
+        byte[] array = new byte[64];
+        int end = encodeVarInts(values, array, 0, values.length);
+
+        int[] decoded = new int[values.length];
+        assertEquals(end, decodeVarInts(array, 0, decoded, values.length));
+        assertArrayEquals(values, decoded);
+
+        var sink = new ByteSink();
+        sink.writeBytes(array, 0, end);
+        new ByteSource(sink.getBytes()).readBytes(new byte[end], 0, end);
+
+        var delta = delta();
+        assertArrayEquals(new long[] { 0, 10, 1, 0, 0, 1 }, delta.varIntsWritten());
+        assertArrayEquals(new long[] { 0, 10, 1, 0, 0, 1 }, delta.varIntsRead());
+        assertEquals(end, delta.bytesWritten());
+        assertEquals(end, delta.bytesRead());
+        assertEquals(0, delta.invalidInputs());
+    }
+
+    @Test
+    void tryReadCountsValuesAndInvalidInput() {
+        byte[] valid = { (byte) 0xAC, 0x02 };
+        byte[] truncated = { (byte) 0x80 };
+        byte[] malformed = { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 };
+
+        // Truncated input isn't invalid (more may be on the way), so it
+        // isn't counted at all.
+        assertEquals(300, tryReadValue(tryReadVarInt(valid, 0, valid.length)));
+        assertEquals(TRUNCATED, tryReadVarInt(truncated, 0, truncated.length));
+        assertEquals(MALFORMED, tryReadVarInt(malformed, 0, malformed.length));
+        assertEquals(300, tryReadValue(tryReadVarInt(ByteBuffer.wrap(valid))));
+        assertEquals(TRUNCATED, tryReadVarInt(ByteBuffer.wrap(truncated)));
+        assertEquals(MALFORMED, tryReadVarInt(ByteBuffer.wrap(malformed)));
+
+        long[] value = new long[1];
+        assertEquals(2, tryReadVarLong(valid, 0, valid.length, value));
+        assertEquals(MALFORMED, tryReadVarLong(malformed, 0, malformed.length, value));
+        assertEquals(MALFORMED, validateVarInt(malformed, 0, malformed.length));
+
+        var delta = delta();
+        assertArrayEquals(new long[] { 0, 0, 2, 0, 0, 0 }, delta.varIntsRead());
+        assertEquals(1, delta.varLongsRead()[2]);
+        assertEquals(4, delta.invalidInputs());
+    }
+
+    @Test
+    void rejectedInputIsCounted() {
+        byte[] malformed = { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 };
+
+        assertThrows(VarIntFormatException.class, () -> readVarInt(malformed, 0));
+        assertThrows(VarIntFormatException.class, () -> readVarLong(ByteBuffer.wrap(malformed)));
+        assertThrows(VarIntFormatException.class, () -> readVarInt(new ByteSource(malformed)));
+
+        // A frame length prefix that never ends, and one that is too long.
+        var reader = new FrameReader(100);
+        assertThrows(VarIntFormatException.class, () -> reader.nextFrame(ByteBuffer.wrap(malformed)));
+        assertThrows(RuntimeException.class, () -> reader.nextFrame(ByteBuffer.wrap(new byte[] { (byte) 0xAC, 0x02 })));
+
+        assertEquals(5, delta().invalidInputs());
+    }
+
+}
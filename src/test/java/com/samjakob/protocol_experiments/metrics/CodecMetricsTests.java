@@ -0,0 +1,71 @@
+package com.samjakob.protocol_experiments.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodecMetricsTests {
+
+    // Metrics are disabled in the tests, so the hooks in the codecs don't
+    // record anything and the counters only change when these tests call
+    // the recorders directly. The hooks themselves are tested by
+    // CodecMetricsEnabledTests, in the metricsTest task.
+
+    @Test
+    void snapshotsCountLengthsAndBytes() {
+        var before = CodecMetrics.snapshot();
+
+        CodecMetrics.recordVarIntWritten(1);
+        CodecMetrics.recordVarIntWritten(300);
+        CodecMetrics.recordVarIntWritten(-1);
+        CodecMetrics.recordVarIntsWritten(1, 8);
+        CodecMetrics.recordVarLongWritten(Long.MIN_VALUE);
+        CodecMetrics.recordVarIntRead(127);
+        CodecMetrics.recordVarLongRead(128L);
+        CodecMetrics.recordInvalidInput();
+        CodecMetrics.recordBytesWritten(42);
+        CodecMetrics.recordBytesRead(7);
+
+        var delta = CodecMetrics.snapshot().since(before);
+
+        assertArrayEquals(new long[] { 0, 9, 1, 0, 0, 1 }, delta.varIntsWritten());
+        assertEquals(1, delta.varLongsWritten()[10]);
+        assertEquals(1, delta.varIntsRead()[1]);
+        assertEquals(1, delta.varLongsRead()[2]);
+
+        assertEquals(12, delta.valuesWritten());
+        assertEquals(9 + 2 + 5 + 10, delta.encodedBytesWritten());
+        assertEquals(2, delta.valuesRead());
+        assertEquals(3, delta.encodedBytesRead());
+
+        assertEquals(1, delta.invalidInputs());
+        assertEquals(42, delta.bytesWritten());
+        assertEquals(7, delta.bytesRead());
+    }
+
+    @Test
+    void ratesUseTheElapsedTime() {
+        var before = CodecMetrics.snapshot();
+        assertTrue(Double.isNaN(before.perSecond(100)), "A single snapshot doesn't cover any time");
+
+        CodecMetrics.recordBytesWritten(1000);
+        var delta = CodecMetrics.snapshot().since(before);
+
+        assertTrue(delta.elapsedNanos() >= 0);
+        if (delta.elapsedNanos() > 0) {
+            assertEquals(delta.bytesWritten() * 1e9 / delta.elapsedNanos(), delta.perSecond(delta.bytesWritten()), 1e-6);
+        }
+    }
+
+    @Test
+    void frameEventsCanAlwaysBeEnded() {
+        // Whether an event is returned depends on sampling and on whether a
+        // JFR recording is running, so callers just pass back whatever they
+        // were given - including null, which is ignored.
+        CodecMetrics.endFrameEncode(CodecMetrics.beginFrameEncode(), 10, 1);
+        CodecMetrics.endFrameDecode(CodecMetrics.beginFrameDecode(), 10);
+        CodecMetrics.endFrameEncode(null, 10, 1);
+        CodecMetrics.endFrameDecode(null, 10);
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.samjakob.protocol_experiments.pipeline;
+
+import com.samjakob.protocol_experiments.data.MessageEncoder;
+import com.samjakob.protocol_experiments.framing.FrameReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameRingTests {
+
+    /**
+     * Encodes {producer, counter} as two VarInts.
+     */
+    private static final MessageEncoder<int[]> PAIR_ENCODER = new MessageEncoder<>() {
+        @Override
+        public int measure(int[] pair) {
+            return varIntSize(pair[0]) + varIntSize(pair[1]);
+        }
+
+        @Override
+        public int encode(int[] pair, byte[] destination, int offset) {
+            return writeVarInt(destination, writeVarInt(destination, offset, pair[0]), pair[1]);
+        }
+    };
+
+    @Test
+    void producersWriteThroughAPipe() throws Exception {
+        int producers = 4;
+        int framesPerProducer = 20_000;
+
+        var pipe = Pipe.open();
+        var ring = new FrameRing(256, 16);
+        var writer = new BatchedChannelWriter(ring, pipe.sink(), 32, TimeUnit.MICROSECONDS.toNanos(50)).start();
+
+        // Read every frame back on another thread, checking that each
+        // producer's frames arrive in the order it sent them.
+        var reader = CompletableFuture.supplyAsync(() -> {
+            try {
+                int[] next = new int[producers];
+                var frames = new FrameReader(16);
+                var buffer = ByteBuffer.allocate(4096);
+                int received = 0;
+
+                while (received < producers * framesPerProducer) {
+                    if (pipe.source().read(buffer) < 0) break;
+                    buffer.flip();
+
+                    ByteBuffer frame;
+                    while ((frame = frames.nextFrame(buffer)) != null) {
+                        int producer = readVarInt(frame);
+                        assertEquals(next[producer]++, readVarInt(frame), "Frames from one producer should stay in order");
+                        received++;
+                    }
+                    buffer.compact();
+                }
+
+                return received;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        var start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                int[] pair = { producer, 0 };
+                for (int i = 0; i < framesPerProducer; i++) {
+                    pair[1] = i;
+                    ring.offerFrame(PAIR_ENCODER, pair);
+                }
+            });
+            threads[p].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        writer.close();
+
+        assertEquals(producers * framesPerProducer, (int) reader.get(30, TimeUnit.SECONDS));
+        assertEquals(producers * framesPerProducer, writer.framesWritten());
+        assertTrue(writer.batchesWritten() <= writer.framesWritten());
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    void fullRingHoldsProducersBack() throws Exception {
+        var ring = new FrameRing(4, 8);
+        for (int i = 0; i < 4; i++) ring.publish(ring.tryClaim(), 0);
+        assertEquals(-1, ring.tryClaim(), "A full ring should refuse to hand out another slot");
+
+        // claim waits until the writer has drained a slot.
+        var blocked = CompletableFuture.supplyAsync(ring::claim);
+        Thread.sleep(50);
+        assertFalse(blocked.isDone(), "claim should wait whilst the ring is full");
+
+        var pipe = Pipe.open();
+        var writer = new BatchedChannelWriter(ring, pipe.sink(), 4, 0).start();
+        long sequence = blocked.get(10, TimeUnit.SECONDS);
+        assertEquals(4, sequence);
+        ring.publish(sequence, 0);
+
+        writer.close();
+        assertEquals(5, writer.framesWritten());
+        assertThrows(IllegalStateException.class, ring::tryClaim, "A closed ring should refuse new frames");
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    void failedWriteStopsProducers() throws Exception {
+        var ring = new FrameRing(4, 8);
+        var failure = new IllegalStateException("Broken channel");
+        var channel = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] sources, int offset, int length) {
+                throw failure;
+            }
+
+            @Override
+            public long write(ByteBuffer[] sources) {
+                throw failure;
+            }
+
+            @Override
+            public int write(ByteBuffer source) {
+                throw failure;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        // The first frame kills the writer thread, which must close the
+        // ring rather than leave the producer waiting for space.
+        var writer = new BatchedChannelWriter(ring, channel, 4, 0).start();
+        var producer = CompletableFuture.runAsync(() -> {
+            while (true) ring.publish(ring.claim(), 0);
+        });
+
+        var thrown = assertThrows(ExecutionException.class, () -> producer.get(10, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof IllegalStateException);
+        assertTrue(ring.isClosed());
+        assertSame(failure, assertThrows(IllegalStateException.class, writer::close));
+    }
+
+    @Test
+    void rejectsFramesThatDoNotFit() {
+        var ring = new FrameRing(2, 3);
+        assertThrows(IllegalArgumentException.class, () -> ring.offerFrame(PAIR_ENCODER, new int[] { 300, 300 }));
+        assertThrows(IllegalArgumentException.class, () -> new FrameRing(3, 8));
+
+        // A slot published with a bad length is still handed over (empty), so
+        // it doesn't hold up the frames after it.
+        long sequence = ring.tryClaim();
+        assertThrows(IllegalArgumentException.class, () -> ring.publish(sequence, 4));
+        assertEquals(1, ring.available(2));
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.samjakob.protocol_experiments.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteSinkPoolTests {
+
+    @Test
+    void releasedSinksAreReused() {
+        var pool = new ByteSinkPool();
+
+        var first = pool.acquire(100);
+        writeVarInt(first, 6969);
+        first.close();
+        assertEquals(1, pool.misses(), "The first sink should have been allocated");
+
+        // The next acquire of the same size class should get the same sink
+        // back, emptied.
+        var second = pool.acquire(200);
+        assertSame(first, second, "A released sink should be re-used");
+        assertEquals(0, second.available(), "A re-used sink should be empty");
+        assertEquals(1, pool.hits());
+        second.close();
+
+        assertThrows(IllegalStateException.class, second::close, "Releasing twice should be refused");
+    }
+
+    @Test
+    void sinksGrowAcrossSizeClasses() {
+        var pool = new ByteSinkPool(true);
+
+        try (var sink = pool.acquire()) {
+            int initialCapacity = sink.capacity();
+
+            // Write well past the largest size class, one byte at a time.
+            for (int i = 0; i < 3_000_000; i++) sink.writeByte((byte) i);
+
+            assertTrue(sink.capacity() > initialCapacity, "The sink should have moved to a larger slab");
+            assertEquals(3_000_000, sink.available());
+
+            byte[] bytes = sink.toByteArray();
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != (byte) i) fail("Byte " + i + " was not preserved whilst growing");
+            }
+        }
+
+        assertEquals(0, pool.leaks());
+    }
+
+    @Test
+    void leakedSinksAreReported() throws InterruptedException {
+        var pool = new ByteSinkPool(true);
+
+        // Released, so not a leak. (A different size class from the one
+        // below, so that it isn't handed out again.)
+        pool.acquire(100_000).close();
+        // Never released.
+        acquireAndDrop(pool);
+
+        for (int i = 0; i < 100 && pool.leaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, pool.leaks(), "Only the sink that wasn't released should be reported");
+    }
+
+    /**
+     * Acquires a sink and forgets it, in a method of its own so that no
+     * local variable in the test keeps it reachable.
+     */
+    private static void acquireAndDrop(ByteSinkPool pool) {
+        writeVarInt(pool.acquire(16), 42);
+    }
+
+    @Test
+    void roundTripsThroughVarLengthNumbers() {
+        var pool = new ByteSinkPool();
+
+        try (var sink = pool.acquire(16)) {
+            writeVarLong(sink, Long.MIN_VALUE);
+            writeVarInt(sink, 300);
+
+            var view = sink.asByteBuffer();
+            assertEquals(Long.MIN_VALUE, readVarLong(view));
+            assertEquals(300, readVarInt(view));
+            assertFalse(view.hasRemaining());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.samjakob.protocol_experiments.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteSinkTests {
+
+    @Test
+    void growsAndKeepsBackingArrayOnReset() {
+        // Start with a tiny capacity so the sink has to grow several times.
+        var sink = new ByteSink(1);
+        for (int i = 0; i < 1000; i++) sink.writeByte((byte) i);
+        sink.writeBytes(new byte[] { 1, 2, 3 }, 1, 2);
+
+        assertEquals(1002, sink.available());
+        byte[] bytes = sink.toByteArray();
+        for (int i = 0; i < 1000; i++) assertEquals((byte) i, bytes[i]);
+        assertEquals(2, bytes[1000]);
+        assertEquals(3, bytes[1001]);
+
+        // Resetting should empty the sink without shrinking it.
+        int capacity = sink.capacity();
+        sink.reset();
+        assertEquals(0, sink.available());
+        assertEquals(capacity, sink.capacity(), "Reset should keep the backing array");
+    }
+
+    @Test
+    void getBytesCopiesAndClears() {
+        var sink = new ByteSink();
+        sink.writeBytes(new byte[] { 4, 5, 6 });
+
+        assertArrayEquals(new byte[] { 4, 5, 6 }, sink.toByteArray());
+        assertEquals(3, sink.available(), "toByteArray should not clear the sink");
+        assertArrayEquals(new byte[] { 4, 5, 6 }, sink.getBytes());
+        assertEquals(0, sink.available(), "getBytes should clear the sink");
+    }
+
+    @Test
+    void viewsDoNotCopy() throws IOException {
+        var sink = new ByteSink();
+        sink.writeBytes(new byte[] { 7, 8, 9 });
+
+        ByteBuffer view = sink.asByteBuffer();
+        assertTrue(view.isReadOnly());
+        assertEquals(3, view.remaining());
+        assertEquals(7, view.get(0));
+        assertEquals(9, view.get(2));
+
+        var stream = new ByteArrayOutputStream();
+        sink.writeTo(stream);
+        sink.writeTo(Channels.newChannel(stream));
+        assertArrayEquals(new byte[] { 7, 8, 9, 7, 8, 9 }, stream.toByteArray());
+        assertEquals(3, sink.available(), "writeTo should not clear the sink");
+    }
+
+}
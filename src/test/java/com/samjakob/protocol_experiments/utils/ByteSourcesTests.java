@@ -0,0 +1,87 @@
+package com.samjakob.protocol_experiments.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteSourcesTests {
+
+    private long[] values;
+
+    private byte[] encoded;
+
+    private Path file;
+
+    @BeforeEach
+    void init() throws IOException {
+        // A few thousand VarLongs of mixed lengths, so that plenty of them
+        // straddle the (deliberately tiny) windows and buffers below.
+        Random random = new Random(1337);
+        values = new long[5000];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextLong() >> random.nextInt(64);
+
+        var sink = new ByteSink();
+        for (long value : values) writeVarLong(sink, value);
+        encoded = sink.getBytes();
+
+        file = Files.createTempFile("protocol-experiments", ".bin");
+        Files.write(file, encoded);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void mappedFileSourceReadsAcrossWindows() throws IOException {
+        try (var source = new MappedFileByteSource(file, 1000)) {
+            assertEquals(encoded.length, source.size());
+
+            // Alternate between the ReaderInterface path and the fast path.
+            for (int i = 0; i < values.length; i++) {
+                long value = i % 2 == 0 ? readVarLong(source) : source.readVarLong();
+                assertEquals(values[i], value, "Failed to read value at index " + i);
+            }
+
+            assertFalse(source.hasNextByte(), "There should be no bytes left over.");
+            assertThrows(UncheckedIOException.class, source::readByte);
+
+            // Seeking back to the start (in a different window) should work.
+            source.seek(0);
+            assertEquals(values[0], source.readVarLong());
+        }
+    }
+
+    @Test
+    void streamSourceRefillsBuffer() throws IOException {
+        try (var source = new StreamByteSource(Files.newByteChannel(file), 16)) {
+            for (int i = 0; i < values.length; i++) {
+                long value = i % 2 == 0 ? readVarLong(source) : source.readVarLong();
+                assertEquals(values[i], value, "Failed to read value at index " + i);
+            }
+
+            assertEquals(encoded.length, source.position());
+            assertFalse(source.hasNextByte(), "There should be no bytes left over.");
+        }
+
+        // Bulk reads should cross buffer refills too.
+        try (var source = new StreamByteSource(new ByteArrayInputStream(encoded))) {
+            byte[] copy = new byte[encoded.length];
+            source.readBytes(copy);
+            assertArrayEquals(encoded, copy);
+            assertThrows(UncheckedIOException.class, source::readByte);
+        }
+    }
+
+}
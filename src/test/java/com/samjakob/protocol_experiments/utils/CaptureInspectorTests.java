@@ -0,0 +1,121 @@
+package com.samjakob.protocol_experiments.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.samjakob.protocol_experiments.data.VarLengthNumbers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CaptureInspectorTests {
+
+    /**
+     * 8, 150, 300 and -1 as VarInts, then "hi".
+     */
+    private static final byte[] SAMPLE = {
+        0x08, (byte) 0x96, 0x01, (byte) 0xAC, 0x02, -1, -1, -1, -1, 0x0F, 'h', 'i'
+    };
+
+    private static String inspect(CaptureInspector inspector, byte[] data) throws Exception {
+        var out = new StringWriter();
+        inspector.inspect(data, 0, data.length, out);
+        return out.toString();
+    }
+
+    @Test
+    void hexDumpMarksVarInts() throws Exception {
+        assertEquals(
+            "00000000  08 96-01 ac-02 ff-ff-ff-ff-0f 68 69  |..........hi|  8 150 300 -1 104 105\n",
+            inspect(new CaptureInspector(CaptureInspector.Radix.HEX, CaptureInspector.Annotation.VAR_INT, 12), SAMPLE)
+        );
+
+        assertEquals(
+            "00000000  08 96 01 ac  |....|\n" +
+            "00000004  02 ff ff ff  |....|\n" +
+            "00000008  ff 0f 68 69  |..hi|\n",
+            inspect(new CaptureInspector(CaptureInspector.Radix.HEX, CaptureInspector.Annotation.NONE, 4), SAMPLE)
+        );
+    }
+
+    @Test
+    void valuesCanSpanLines() throws Exception {
+        assertEquals(
+            "00000000  00001000 10010110-00000001 10101100  |....|  8 150\n" +
+            "00000004 -00000010 11111111-11111111-11111111  |....|  300\n" +
+            "00000008 -11111111-00001111 01101000 01101001  |..hi|  4294967295 104 105\n",
+            inspect(new CaptureInspector(CaptureInspector.Radix.BINARY, CaptureInspector.Annotation.VAR_LONG, 4), SAMPLE)
+        );
+    }
+
+    @Test
+    void invalidAndTruncatedValuesAreNoted() throws Exception {
+        var inspector = new CaptureInspector(CaptureInspector.Radix.HEX, CaptureInspector.Annotation.VAR_INT, 8);
+
+        // 6 bytes is too long, and a fifth byte of 0x10 has too many bits.
+        byte[] tooLong = { -1, -1, -1, -1, -1, 0x01 };
+        assertEquals("00000000  ff-ff-ff-ff-ff 01        |......  |  invalid 1\n", inspect(inspector, tooLong));
+        byte[] tooBig = { -1, -1, -1, -1, 0x10 };
+        assertEquals("00000000  ff-ff-ff-ff-10           |.....   |  invalid\n", inspect(inspector, tooBig));
+
+        // A value cut off at the end of a full line is noted on that line.
+        byte[] truncated = { 1, 2, 3, 4, 5, 6, 7, (byte) 0x80 };
+        assertEquals("00000000  01 02 03 04 05 06 07 80  |........|  1 2 3 4 5 6 7 truncated\n", inspect(inspector, truncated));
+
+        // The inspector can be reused, with nothing carried over.
+        assertEquals("00000000  01                       |.       |  1\n", inspect(inspector, new byte[] { 1 }));
+    }
+
+    @Test
+    void everySourceGivesTheSameDump() throws Exception {
+        var random = new Random(25);
+        var sink = new ByteSink();
+        for (int i = 0; i < 20_000; i++) writeVarLong(sink, random.nextLong() >>> random.nextInt(64));
+        byte[] data = sink.getBytes();
+
+        var inspector = new CaptureInspector();
+        String expected = inspect(inspector, data);
+
+        var fromStream = new StringWriter();
+        assertEquals(data.length, inspector.inspect(new ByteArrayInputStream(data), fromStream));
+        assertEquals(expected, fromStream.toString());
+
+        var fromBuffer = new StringWriter();
+        var direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        inspector.inspect(direct, fromBuffer);
+        assertEquals(expected, fromBuffer.toString());
+        assertEquals(0, direct.position());
+
+        // Every line but the last is full.
+        assertEquals((data.length + 15) / 16, expected.lines().count());
+    }
+
+    @Test
+    void printBinaryArrayKeepsItsFormat() {
+        var random = new Random(25);
+        for (int length : new int[] { 0, 1, 819, 820, 10_000 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String[] formatted = new String[length];
+            for (int i = 0; i < length; i++) formatted[i] = Utilities.formatBinary(data[i]);
+
+            var captured = new ByteArrayOutputStream();
+            PrintStream original = System.out;
+            System.setOut(new PrintStream(captured, true));
+            try {
+                Utilities.printBinaryArray(data);
+            } finally {
+                System.setOut(original);
+            }
+
+            assertEquals(Arrays.toString(formatted) + System.lineSeparator(), captured.toString());
+        }
+    }
+
+}